@@ -0,0 +1,111 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs benchmarks for each classpath variant, same way as tests are run with different classpaths.
+ * Benchmark forks use {@code java.class.path} of this JVM, so each variant strips it's excluded
+ * libraries from there before running. Results go to {@code jmh-result-<variant>.json} in the directory given as
+ * first argument, other arguments select variants to run (all by default). GC profiler is enabled for all the
+ * benchmarks, so results include allocated bytes per operation.
+ * @author Vitalii Tymchyshyn
+ */
+public class BenchmarkRunner {
+    /**
+     * Classpath variants
+     */
+    public enum Variant {
+        /**
+         * Spring AOP and AspectJ available
+         */
+        FULL(new String[]{"NOOP", "SPRING", "ASPECTJ"}, new String[0], new String[0]),
+        /**
+         * No AspectJ weaver
+         */
+        NOASPECTJ(new String[]{"NOOP", "SPRING"}, new String[]{"aspectjweaver"},
+                new String[]{PointcutMatchingBenchmark.class.getName()});
+
+        private final String[] spis;
+        private final String[] excludedLibraries;
+        private final String[] excludedBenchmarks;
+
+        Variant(String[] spis, String[] excludedLibraries, String[] excludedBenchmarks) {
+            this.spis = spis;
+            this.excludedLibraries = excludedLibraries;
+            this.excludedBenchmarks = excludedBenchmarks;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        File outputDirectory = new File(args.length > 0 ? args[0] : ".");
+        List<Variant> variants = new ArrayList<Variant>();
+        for (int i = 1; i < args.length; i++) {
+            variants.add(Variant.valueOf(args[i].toUpperCase()));
+        }
+        if (variants.isEmpty()) {
+            variants.addAll(Arrays.asList(Variant.values()));
+        }
+        String classPath = System.getProperty("java.class.path");
+        for (Variant variant : variants) {
+            System.setProperty("java.class.path", stripClassPath(classPath, variant.excludedLibraries));
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .include(BenchmarkRunner.class.getPackage().getName() + ".*Benchmark")
+                    .param("spi", variant.spis)
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(new File(outputDirectory, "jmh-result-" + variant.name().toLowerCase() + ".json").getPath());
+            for (String excluded : variant.excludedBenchmarks) {
+                options.exclude(excluded);
+            }
+            new Runner(options.build()).run();
+        }
+        System.setProperty("java.class.path", classPath);
+    }
+
+    private static String stripClassPath(String classPath, String[] excludedLibraries) {
+        StringBuilder rc = new StringBuilder();
+        for (String element : classPath.split(File.pathSeparator)) {
+            if (!isExcluded(new File(element).getName(), excludedLibraries)) {
+                if (rc.length() > 0) {
+                    rc.append(File.pathSeparator);
+                }
+                rc.append(element);
+            }
+        }
+        return rc.toString();
+    }
+
+    private static boolean isExcluded(String fileName, String[] excludedLibraries) {
+        for (String excluded : excludedLibraries) {
+            if (fileName.startsWith(excluded)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
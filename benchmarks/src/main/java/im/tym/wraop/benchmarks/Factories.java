@@ -0,0 +1,88 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.benchmarks;
+
+import im.tym.wraop.ProxyEngine;
+import im.tym.wraop.impl.AspectJWrapperFactorySpi;
+import im.tym.wraop.impl.NoopWrapperFactorySpi;
+import im.tym.wraop.impl.ProxyCreatorBasedWrapperFactorySpi;
+import im.tym.wraop.impl.SpringAOPWrapperFactorySpi;
+import im.tym.wraop.impl.WrapperFactorySpi;
+import org.springframework.aop.support.NameMatchMethodPointcutAdvisor;
+
+/**
+ * Creates wrapper factory spis for benchmark parameters
+ * @author Vitalii Tymchyshyn
+ */
+public class Factories {
+    /**
+     * Spi implementations. ASPECTJ spi gets {@link PassThroughAspect} instances, SPRING gets
+     * {@link PassThroughInterceptor}s. Both advise only {@link BenchmarkService#increment(int)}
+     */
+    public enum Spi {
+        NOOP, SPRING, ASPECTJ
+    }
+
+    /**
+     * Proxy implementations. Spring ones differ by proxy type, others are WrAOP {@link ProxyEngine}s
+     */
+    public enum ProxyType {
+        SPRING_JDK, SPRING_CGLIB, PRECOMPILED, METHOD_HANDLE, REUSED_INVOCATION, GENERATED
+    }
+
+    public static WrapperFactorySpi<BenchmarkService> create(Spi spi, ProxyType proxyType, int advisors) {
+        ProxyCreatorBasedWrapperFactorySpi<BenchmarkService, ?> rc;
+        switch (spi) {
+            case NOOP:
+                return new NoopWrapperFactorySpi<BenchmarkService>();
+            case SPRING:
+                rc = new SpringAOPWrapperFactorySpi<BenchmarkService>();
+                for (int i = 0; i < advisors; i++) {
+                    NameMatchMethodPointcutAdvisor advisor = new NameMatchMethodPointcutAdvisor(new PassThroughInterceptor());
+                    advisor.setMappedName("increment");
+                    rc.addAspect(advisor);
+                }
+                break;
+            default:
+                rc = new AspectJWrapperFactorySpi<BenchmarkService>();
+                for (int i = 0; i < advisors; i++) {
+                    rc.addAspect(new PassThroughAspect());
+                }
+        }
+        rc.setInterfaces(BenchmarkService.class);
+        switch (proxyType) {
+            case SPRING_CGLIB:
+                rc.proxyCreator.setProxyTargetClass(true);
+                rc.configurationChanged();
+                break;
+            case PRECOMPILED:
+                rc.setProxyEngine(ProxyEngine.PRECOMPILED);
+                break;
+            case METHOD_HANDLE:
+                rc.setProxyEngine(ProxyEngine.METHOD_HANDLE);
+                break;
+            case REUSED_INVOCATION:
+                rc.setProxyEngine(ProxyEngine.REUSED_INVOCATION);
+                break;
+            case GENERATED:
+                rc.setProxyEngine(ProxyEngine.GENERATED);
+                break;
+            default:
+                rc.setProxyEngine(ProxyEngine.SPRING);
+        }
+        return rc;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of calling wrapped method depending on number of advisors. {@link #unadvised()} calls method
+ * no advisor applies to, {@link #unadvisedPrimitive()} does the same with {@code long} arguments and result,
+ * that are boxed by JDK proxies. Allocation per call is reported by GC profiler as {@code gc.alloc.rate.norm}.
+ * @author Vitalii Tymchyshyn
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class InvokeBenchmark {
+    @Param({"NOOP", "SPRING", "ASPECTJ"})
+    public Factories.Spi spi;
+
+    @Param({"SPRING_JDK", "SPRING_CGLIB", "PRECOMPILED", "METHOD_HANDLE", "REUSED_INVOCATION",
+            "GENERATED"})
+    public Factories.ProxyType proxyType;
+
+    @Param({"0", "1", "5", "20"})
+    public int advisors;
+
+    private BenchmarkService service;
+    private int value;
+    private long total;
+
+    @Setup
+    public void wrap() {
+        service = Factories.create(spi, proxyType, advisors).wrap(new SimpleBenchmarkService(),
+                SimpleBenchmarkService.class.getClassLoader());
+    }
+
+    @Benchmark
+    public int advised() {
+        return service.increment(value++);
+    }
+
+    @Benchmark
+    public String unadvised() {
+        return service.echo("test");
+    }
+
+    @Benchmark
+    public long unadvisedPrimitive() {
+        return total = service.add(total, 1000);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.aop.Advisor;
+import org.springframework.aop.aspectj.AspectJExpressionPointcut;
+import org.springframework.aop.aspectj.annotation.ReflectiveAspectJAdvisorFactory;
+import org.springframework.aop.aspectj.annotation.SingletonMetadataAwareAspectInstanceFactory;
+import org.springframework.aop.support.AopUtils;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of AspectJ pointcut matching: parsing and matching new expression, matching already used expression
+ * and filtering aspect advisors for a class.
+ * @author Vitalii Tymchyshyn
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PointcutMatchingBenchmark {
+    private static final String EXPRESSION = "execution(* im.tym.wraop.benchmarks.BenchmarkService.increment(..))";
+
+    private Method method;
+    private AspectJExpressionPointcut pointcut;
+    private List<Advisor> advisors;
+
+    @Setup
+    public void prepare() throws NoSuchMethodException {
+        method = BenchmarkService.class.getMethod("increment", int.class);
+        pointcut = createPointcut();
+        pointcut.matches(method, SimpleBenchmarkService.class);
+        advisors = new ReflectiveAspectJAdvisorFactory().getAdvisors(
+                new SingletonMetadataAwareAspectInstanceFactory(new PassThroughAspect(), "aspect"));
+    }
+
+    private static AspectJExpressionPointcut createPointcut() {
+        AspectJExpressionPointcut rc = new AspectJExpressionPointcut();
+        rc.setExpression(EXPRESSION);
+        return rc;
+    }
+
+    @Benchmark
+    public boolean parseAndMatch() {
+        return createPointcut().matches(method, SimpleBenchmarkService.class);
+    }
+
+    @Benchmark
+    public boolean cachedMatch() {
+        return pointcut.matches(method, SimpleBenchmarkService.class);
+    }
+
+    @Benchmark
+    public List<Advisor> findAdvisorsThatCanApply() {
+        return AopUtils.findAdvisorsThatCanApply(advisors, SimpleBenchmarkService.class);
+    }
+}
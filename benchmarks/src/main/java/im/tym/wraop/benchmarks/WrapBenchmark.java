@@ -0,0 +1,58 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.benchmarks;
+
+import im.tym.wraop.impl.WrapperFactorySpi;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of wrapping single object with one advisor registered
+ * @author Vitalii Tymchyshyn
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class WrapBenchmark {
+    @Param({"NOOP", "SPRING", "ASPECTJ"})
+    public Factories.Spi spi;
+
+    @Param({"SPRING_JDK", "SPRING_CGLIB", "PRECOMPILED", "METHOD_HANDLE"})
+    public Factories.ProxyType proxyType;
+
+    @Param({"false", "true"})
+    public boolean frozen;
+
+    private WrapperFactorySpi<BenchmarkService> factory;
+    private final BenchmarkService target = new SimpleBenchmarkService();
+
+    @Setup
+    public void createFactory() {
+        factory = Factories.create(spi, proxyType, 1);
+        if (frozen) {
+            factory = factory.freeze();
+        }
+    }
+
+    @Benchmark
+    public BenchmarkService wrap() {
+        return factory.wrap(target, SimpleBenchmarkService.class.getClassLoader());
+    }
+}
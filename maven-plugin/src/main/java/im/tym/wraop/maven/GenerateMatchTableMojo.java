@@ -0,0 +1,109 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.maven;
+
+import im.tym.wraop.impl.AdvisorMatchTable;
+import im.tym.wraop.impl.AdvisorMatchTableGenerator;
+import org.apache.maven.artifact.DependencyResolutionRequiredException;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates {@link AdvisorMatchTable} for given aspects and target classes of the project and puts it to
+ * {@link AdvisorMatchTable#DEFAULT_RESOURCE}, which can be passed to
+ * {@link im.tym.wraop.WrapperFactoryBuilder#setMatchTableResource(String)}.
+ * @author Vitalii Tymchyshyn
+ */
+@Mojo(name = "generate-match-table", defaultPhase = LifecyclePhase.PROCESS_CLASSES,
+        requiresDependencyResolution = ResolutionScope.COMPILE, threadSafe = true)
+public class GenerateMatchTableMojo extends AbstractMojo {
+    @Parameter(defaultValue = "${project}", readonly = true, required = true)
+    private MavenProject project;
+
+    /**
+     * Names of {@code @Aspect} annotated classes
+     */
+    @Parameter(required = true)
+    private List<String> aspects;
+
+    /**
+     * Names of classes of objects that will be wrapped
+     */
+    @Parameter(required = true)
+    private List<String> targets;
+
+    @Parameter(defaultValue = "${project.build.outputDirectory}/" + AdvisorMatchTable.DEFAULT_RESOURCE, required = true)
+    private File output;
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        URLClassLoader classLoader = new URLClassLoader(getClasspath(), getClass().getClassLoader());
+        Thread thread = Thread.currentThread();
+        ClassLoader contextClassLoader = thread.getContextClassLoader();
+        // AspectJ resolves type names in pointcut expressions with context class loader
+        thread.setContextClassLoader(classLoader);
+        try {
+            AdvisorMatchTableGenerator generator = new AdvisorMatchTableGenerator();
+            for (String aspect : aspects) {
+                generator.addAspectClass(Class.forName(aspect, false, classLoader));
+            }
+            for (String target : targets) {
+                generator.addTargetClass(Class.forName(target, false, classLoader));
+            }
+            generator.generate().store(output);
+            getLog().info("Advisor match table for " + aspects.size() + " aspects and " + targets.size()
+                    + " targets written to " + output);
+        } catch (ClassNotFoundException e) {
+            throw new MojoExecutionException("Can't load class " + e.getMessage(), e);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Can't write " + output, e);
+        } finally {
+            thread.setContextClassLoader(contextClassLoader);
+            try {
+                classLoader.close();
+            } catch (IOException e) {
+                getLog().warn("Can't close project class loader", e);
+            }
+        }
+    }
+
+    private URL[] getClasspath() throws MojoExecutionException {
+        try {
+            List<URL> rc = new ArrayList<URL>();
+            for (String element : project.getCompileClasspathElements()) {
+                rc.add(new File(element).toURI().toURL());
+            }
+            return rc.toArray(new URL[rc.size()]);
+        } catch (DependencyResolutionRequiredException e) {
+            throw new MojoExecutionException("Project dependencies are not resolved", e);
+        } catch (MalformedURLException e) {
+            throw new MojoExecutionException("Bad classpath element", e);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.BiConsumer;
+
+/**
+ * <p>Around advice for methods that may return {@link CompletionStage} (e.g.
+ * {@link java.util.concurrent.CompletableFuture}). {@link #before(MethodInvocation)} is called before the method,
+ * {@link #afterCompletion(Method, Object, Object, Throwable)} when the method is complete: when returned stage
+ * completes, or right after the call for any other result or exception. So timing or logging advice sees real
+ * completion and no thread waits for it.</p>
+ * <p>After part of a stage is attached as a continuation and runs in the thread that completes the stage (or in
+ * the calling thread if it's already complete). The stage itself is returned unchanged, so its type,
+ * cancellation and other continuations are not affected, and the after part may run after continuations added
+ * by the caller.</p>
+ * <p>Can be added as any other aspect with {@link WrapperFactory#withAspect(Object)}.</p>
+ * @param <C> type of context passed from before to after part, e.g. start time
+ * @author Vitalii Tymchyshyn
+ */
+public abstract class CompletionInterceptor<C> implements MethodInterceptor {
+    @Override
+    public final Object invoke(MethodInvocation invocation) throws Throwable {
+        final Method method = invocation.getMethod();
+        final C context = before(invocation);
+        Object result;
+        try {
+            result = invocation.proceed();
+        } catch (Throwable e) {
+            try {
+                afterCompletion(method, context, null, e);
+            } catch (Throwable afterFailure) {
+                if (afterFailure != e) {
+                    e.addSuppressed(afterFailure);
+                }
+            }
+            throw e;
+        }
+        if (result instanceof CompletionStage) {
+            ((CompletionStage<?>) result).whenComplete(new BiConsumer<Object, Throwable>() {
+                @Override
+                public void accept(Object value, Throwable failure) {
+                    afterCompletion(method, context, value, unwrap(failure));
+                }
+            });
+        } else {
+            afterCompletion(method, context, result, null);
+        }
+        return result;
+    }
+
+    /**
+     * Called before the method. Invocation must not be kept or used after this call, some proxy engines reuse it.
+     * @param invocation method invocation
+     * @return context to pass to {@link #afterCompletion(Method, Object, Object, Throwable)}
+     */
+    protected abstract C before(MethodInvocation invocation);
+
+    /**
+     * Called once the method is complete. Exceptions thrown from here are not propagated for completed stages.
+     * If the method itself has thrown, they are added to it's exception as suppressed, so it's not lost.
+     * @param method method called
+     * @param context value returned by {@link #before(MethodInvocation)}
+     * @param result method result or value of returned stage, null on failure
+     * @param failure exception thrown by the method or stage failure, null on success
+     */
+    protected abstract void afterCompletion(Method method, C context, Object result, Throwable failure);
+
+    /**
+     * Stages that fail because their source failed report it wrapped in
+     * {@link CompletionException}
+     */
+    private static Throwable unwrap(Throwable failure) {
+        if (failure instanceof CompletionException && failure.getCause() != null) {
+            return failure.getCause();
+        }
+        return failure;
+    }
+}
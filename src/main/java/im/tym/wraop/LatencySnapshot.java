@@ -0,0 +1,111 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Immutable snapshot of latency histogram. Latencies are counted in power of two buckets: bucket 0 counts zero
+ * latencies and bucket {@code i} counts latencies from {@code 2^(i-1)} to {@code 2^i - 1} nanoseconds, so
+ * percentiles are precise up to a factor of two.
+ * @author Vitalii Tymchyshyn
+ */
+public class LatencySnapshot {
+    private final long count;
+    private final long totalNanos;
+    private final long maxNanos;
+    private final long[] buckets;
+
+    @ConstructorProperties({"count", "totalNanos", "maxNanos", "buckets"})
+    public LatencySnapshot(long count, long totalNanos, long maxNanos, long[] buckets) {
+        this.count = count;
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+        this.buckets = buckets.clone();
+    }
+
+    /**
+     * @return number of recorded calls
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return sum of all recorded latencies
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * @return maximum recorded latency
+     */
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * @return average latency or 0 if nothing was recorded
+     */
+    public double getMeanNanos() {
+        return count == 0 ? 0 : (double) totalNanos / count;
+    }
+
+    public long getMedianNanos() {
+        return getPercentileNanos(50);
+    }
+
+    public long getP99Nanos() {
+        return getPercentileNanos(99);
+    }
+
+    /**
+     * @return number of latencies in each bucket
+     */
+    public long[] getBuckets() {
+        return buckets.clone();
+    }
+
+    /**
+     * @param percentile percentile to get, from 0 to 100
+     * @return upper bound of the bucket given percentile falls into, but not more than {@link #getMaxNanos()}
+     */
+    public long getPercentileNanos(double percentile) {
+        long total = 0;
+        for (long bucket : buckets) {
+            total += bucket;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank && seen > 0) {
+                return i == 0 ? 0 : Math.min(maxNanos, i == 63 ? Long.MAX_VALUE : (1L << i) - 1);
+            }
+        }
+        return maxNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + ", mean=" + (long) getMeanNanos() + "ns, median=" + getMedianNanos()
+                + "ns, p99=" + getP99Nanos() + "ns, max=" + maxNanos + "ns";
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop;
+
+/**
+ * Proxy implementation {@link WrapperFactoryBuilder} should configure for Spring AOP based factories.
+ * <p>With any engine, proxies of a factory that was not frozen follow it's changes: an aspect removed or added
+ * applies to them from their next call. Proxies that don't follow changes are proxies of a frozen factory,
+ * proxies merged with another proxy, methods of {@link #GENERATED} proxies that had no advice when the proxy was
+ * made, and targets returned as is because no advice applied to them at all.</p>
+ * @author Vitalii Tymchyshyn
+ */
+public enum ProxyEngine {
+    /**
+     * Standard Spring AOP proxies. Interceptor chain is looked up in the chain cache of current configuration on
+     * each call.
+     */
+    SPRING,
+    /**
+     * WrAOP proxies. Interceptor chains for all methods of proxied interfaces are resolved as a single table,
+     * shared by all the proxies of the same configuration and target class. Each call checks that it's table
+     * belongs to current configuration and takes the table of current one if not, so chains are resolved again
+     * only after the configuration changes. Methods without advice are called on the target directly.
+     */
+    PRECOMPILED,
+    /**
+     * Same as {@link #PRECOMPILED}, but target methods are called with {@link java.lang.invoke.MethodHandle}s
+     * instead of reflection.
+     */
+    METHOD_HANDLE,
+    /**
+     * Same as {@link #METHOD_HANDLE}, but invocation objects (and AspectJ join points) are reused for calls
+     * on the same thread instead of being created for each advised call. Advice must not keep the invocation or
+     * join point after it returns, e.g. to proceed asynchronously.
+     */
+    REUSED_INVOCATION,
+    /**
+     * Same as {@link #REUSED_INVOCATION}, but proxy classes are generated instead of JDK dynamic proxies. Methods
+     * without advice call the target directly with their own parameter and return types, so primitive arguments and
+     * results are not boxed. Advised methods still box, as interceptor chains work with objects. Which methods are
+     * called directly is decided when proxy is made: advice added later does not apply to them, while advised
+     * methods follow configuration changes as with {@link #PRECOMPILED}.
+     */
+    GENERATED
+}
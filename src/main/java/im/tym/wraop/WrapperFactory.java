@@ -16,6 +16,9 @@
 package im.tym.wraop;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
 
 /**
  * <p>This factory can produce proxies based on current settings. Settings include list of registered aspects and
@@ -27,26 +30,27 @@ import java.util.Collection;
  *     <li>{@link org.springframework.aop.Advisor}</li>
  *     <li>{@link org.aspectj.lang.annotation.Aspect} - annotated class instances</li>
  * </ul></p>
- * <p>The factory can be used to wrap many objects one-by-one. It's thread safe (synchronized).</p>
+ * <p>The factory can be used to wrap many objects one-by-one. It's thread safe: configuration changes are
+ * made holding a lock, while wrapping uses immutable configuration snapshot and does not lock. Proxies
+ * follow changes: they pick up the current snapshot on their next call, see {@link #removeAspect(Object)}.</p>
  * @author Vitalii Tymchyshyn
  */
 
 public interface WrapperFactory<I> {
     /**
-     * Equal to {@link #withAllInterfacesOf(Object)}.{@link #wrap(Object)}. Sets list of interfaces to all
-     * the interfaces of parameter and then wraps the parameter. Note that if you are going to wrap multiple
-     * objects, it's faster to call {@link #withAllInterfacesOfClass(Class)} once and then use {@link #wrap(Object)}
+     * Wraps the parameter with the current settings, but the wrapper implements all the interfaces of parameter
+     * instead of configured ones. Unlike {@link #withAllInterfacesOf(Object)}.{@link #wrap(Object)} it does not
+     * change the factory, so concurrent calls with objects of different classes don't affect each other and
+     * it works for frozen factory too. Interfaces of each class are resolved once.
      * @param object object to get interfaces from and then to wrap
-     * @return wrapped object (may be object itself if there are no aspects registered)
+     * @return wrapped object (may be object itself if no registered aspect applies to it)
      */
     I wrapAllInterfaces(I object);
     /**
-     * Equal to {@link #withAllInterfacesOf(Object)}.{@link #wrap(Object,ClassLoader)}. Sets list of interfaces to all
-     * the interfaces of parameter and then wraps the parameter. Note that if you are going to wrap multiple
-     * objects, it's faster to call {@link #withAllInterfacesOfClass(Class)} once and then use {@link #wrap(Object, ClassLoader)}
+     * Same as {@link #wrapAllInterfaces(Object)}, but with given class loader
      * @param object object to get interfaces from and then to wrap
      * @param classLoader class loader to use while wrapping (e.g. for proxy class creation)
-     * @return wrapped object (may be object itself if there are no aspects registered)
+     * @return wrapped object (may be object itself if no registered aspect applies to it)
      */
     I wrapAllInterfaces(I object, ClassLoader classLoader);
 
@@ -55,7 +59,7 @@ public interface WrapperFactory<I> {
      * Note that you need at least to set interfaces or use
      * {@link #wrapAllInterfaces(Object)} to make it in single call.
      * @param object object to get interfaces from and then to wrap
-     * @return wrapped object (may be object itself if there are no aspects registered)
+     * @return wrapped object (may be object itself if no registered aspect applies to it)
      */
     I wrap(I object);
     /**
@@ -63,10 +67,76 @@ public interface WrapperFactory<I> {
      * {@link #wrapAllInterfaces(Object)} to make it in single call.
      * @param object object to get interfaces from and then to wrap
      * @param classLoader class loader to use while wrapping (e.g. for proxy class creation)
-     * @return wrapped object (may be object itself if there are no aspects registered)
+     * @return wrapped object (may be object itself if no registered aspect applies to it)
      */
     I wrap(I object, ClassLoader classLoader);
 
+    /**
+     * Wraps all given objects with the current settings. Objects are grouped by their class, so proxy configuration
+     * is resolved once per class instead of once per object. Each object uses its class' class loader,
+     * like in {@link #wrap(Object)}.
+     * @param objects objects to wrap, must not contain nulls
+     * @return wrapped objects in the same order (each may be object itself if no registered aspect applies to it)
+     */
+    List<I> wrapAll(Iterable<? extends I> objects);
+    /**
+     * Same as {@link #wrapAll(Iterable)}, but large groups of objects of the same class are split and wrapped
+     * in parallel in the given pool.
+     * @param objects objects to wrap, must not contain nulls
+     * @param pool pool to wrap large groups in
+     * @return wrapped objects in the same order (each may be object itself if no registered aspect applies to it)
+     */
+    List<I> wrapAll(Iterable<? extends I> objects, ForkJoinPool pool);
+    /**
+     * Array variant of {@link #wrapAll(Iterable)}
+     * @param objects objects to wrap, must not contain nulls
+     * @return new array of the same component type with wrapped objects in the same order
+     */
+    I[] wrapAll(I[] objects);
+    /**
+     * Array variant of {@link #wrapAll(Iterable, ForkJoinPool)}
+     * @param objects objects to wrap, must not contain nulls
+     * @param pool pool to wrap large groups in
+     * @return new array of the same component type with wrapped objects in the same order
+     */
+    I[] wrapAll(I[] objects, ForkJoinPool pool);
+
+    /**
+     * Makes a lightweight proxy implementing configured interfaces. The target is obtained from the supplier and
+     * wrapped with the current settings only on the first call of any method except {@code equals} and
+     * {@code hashCode}, that are identity based. Supplier is called at most once.
+     * Uses thread context class loader or, if it's not set, library class loader.
+     * Without Spring AOP no interfaces are known, so the target is obtained and returned immediately.
+     * @param supplier supplier of the object to wrap
+     * @return lazy proxy
+     */
+    I wrapLazily(Supplier<? extends I> supplier);
+    /**
+     * Same as {@link #wrapLazily(Supplier)}, but with given class loader
+     * @param supplier supplier of the object to wrap
+     * @param classLoader class loader to use while wrapping (e.g. for proxy class creation)
+     * @return lazy proxy
+     */
+    I wrapLazily(Supplier<? extends I> supplier, ClassLoader classLoader);
+
+    /**
+     * Wraps the object with the current settings using pooled proxy. Proxies of this kind have swappable target:
+     * once given back with {@link #release(Object)}, proxy is pointed to the next acquired object of the same
+     * class, so steady-state wrapping of short-living objects does not create new proxies. Uses
+     * {@code object.getClass().getClassLoader()} as class loader. Pooled proxies ask for their target on each call,
+     * so proxy engines that need static target use Spring proxies for them.
+     * @param object object to wrap
+     * @return wrapped object (may be object itself if no registered aspect applies to it)
+     */
+    I acquire(I object);
+    /**
+     * Returns proxy made by {@link #acquire(Object)} to the pool. It must not be used after this call, calls to it
+     * throw {@link IllegalStateException} until it's acquired again. Objects that are not pooled proxies, like
+     * targets returned by {@link #acquire(Object)} as is, are ignored.
+     * @param proxy proxy to release
+     */
+    void release(I proxy);
+
     /**
      * Adds given aspects, You can use {@link #withAspects(Object...)} for builder-style
      * @param aspects aspects to add
@@ -86,6 +156,24 @@ public interface WrapperFactory<I> {
      * @return true if aspect was detected and added, false if it's not an aspect library knows.
      */
     boolean addAspect(Object aspect);
+    /**
+     * Removes given aspect, e.g. when a plugin that registered it is unloaded. Aspect must be the same instance
+     * that was added. Proxies made before this call stop running it's advice on their next call, like with any
+     * other change of advice. Proxies of {@link #freeze() frozen} factories, proxies merged with other proxies and
+     * direct calls of {@link im.tym.wraop.ProxyEngine#GENERATED} proxies keep advice they were made with.
+     * @param aspect aspect to remove
+     * @return true if aspect was found and removed
+     */
+    boolean removeAspect(Object aspect);
+    /**
+     * Removes one aspect and adds another as a single configuration change: each proxy is made either with old
+     * aspect or with new one. Proxies made before this call switch to new aspect same way as on
+     * {@link #removeAspect(Object)}.
+     * @param oldAspect aspect to remove, must be the same instance that was added
+     * @param newAspect aspect to add
+     * @return true if old aspect was found and new one was detected and added. If false, nothing was changed.
+     */
+    boolean replaceAspect(Object oldAspect, Object newAspect);
 
     /**
      * Sets interfaces resulting wrappers will implement. Fully replaces previous setting if any.
@@ -149,4 +237,29 @@ public interface WrapperFactory<I> {
      * @return this factory, to chain calls
      */
     WrapperFactory<I> withInterfaces(Collection<Class<?>> wrappedInterfaces);
+
+    /**
+     * Drops everything cached for given class loader, e.g. when an application is redeployed. Proxy classes are
+     * referenced weakly and state kept per target class is kept with the class, so they don't prevent class
+     * loaders from being collected anyway. But AspectJ matching results of pointcuts that are not compiled
+     * (see {@link im.tym.wraop.impl.PointcutCompiler}) are kept with aspect classes and are dropped only by this
+     * call. Proxies that still exist keep working.
+     * @param classLoader class loader that is not going to be used any more
+     */
+    void releaseClassLoader(ClassLoader classLoader);
+
+    /**
+     * Makes immutable factory with current settings. Proxy configuration of resulting factory is computed once,
+     * so wrapping does not need to derive it for each object. Further changes of this factory do not affect it.
+     * Any configuration method of resulting factory throws
+     * {@link UnsupportedOperationException}.
+     * @return frozen factory
+     */
+    WrapperFactory<I> freeze();
+
+    /**
+     * @return snapshot of invocation statistics of proxies made by this factory. Empty unless the factory
+     * was built with {@link WrapperFactoryBuilder#setInstrumented(boolean)}.
+     */
+    WrapperStatistics getStatistics();
 }
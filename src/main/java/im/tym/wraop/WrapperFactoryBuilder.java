@@ -17,6 +17,12 @@ package im.tym.wraop;
 
 import im.tym.wraop.impl.*;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
 /**
  * This is helper class that detects which kind of aspects are available and creates correct implementation
  * of {@link WrapperFactory}. By default it will make you dummy wrapper factory if you've got no aspect
@@ -35,6 +41,12 @@ public class WrapperFactoryBuilder {
      */
     public static final boolean SPRING_AOP_AVAILABLE = isAvailable("org.springframework.aop.framework.ProxyFactory");
     private boolean canProduceNoopWrapper = true;
+    private ProxyEngine proxyEngine = ProxyEngine.SPRING;
+    private boolean instrumented;
+    private String jmxName;
+    private int eventSampling;
+    private int poolSize = ProxyConfiguration.DEFAULT_POOL_SIZE;
+    private String matchTableResource;
 
     /**
      *
@@ -46,9 +58,9 @@ public class WrapperFactoryBuilder {
     public <I> WrapperFactory<I> build() {
         WrapperFactorySpi<I> spi;
         if (ASPECTJ_AVAILABLE) {
-            spi = new AspectJWrapperFactorySpi<I>();
+            spi = configureProxyEngine(configureMatchTable(new AspectJWrapperFactorySpi<I>()));
         } else if (SPRING_AOP_AVAILABLE) {
-            spi = new SpringAOPWrapperFactorySpi<I>();
+            spi = configureProxyEngine(new SpringAOPWrapperFactorySpi<I>());
         } else if (canProduceNoopWrapper) {
             spi = new NoopWrapperFactorySpi<I>();
         } else {
@@ -75,6 +87,159 @@ public class WrapperFactoryBuilder {
         this.canProduceNoopWrapper = canProduceNoopWrapper;
     }
 
+    /**
+     *
+     * @return proxy implementation to use with Spring AOP. Default is {@link ProxyEngine#SPRING}
+     */
+    public ProxyEngine getProxyEngine() {
+        return proxyEngine;
+    }
+
+    /**
+     *
+     * @param proxyEngine proxy implementation to use with Spring AOP. Ignored if Spring AOP is not available.
+     */
+    public void setProxyEngine(ProxyEngine proxyEngine) {
+        this.proxyEngine = proxyEngine;
+    }
+
+    /**
+     *
+     * @return if factory records invocation statistics. Default is false
+     */
+    public boolean isInstrumented() {
+        return instrumented;
+    }
+
+    /**
+     *
+     * @param instrumented if factory should record call counts and latencies for each proxied method and each
+     *                     advisor, see {@link WrapperFactory#getStatistics()}. Ignored if Spring AOP is not available.
+     */
+    public void setInstrumented(boolean instrumented) {
+        this.instrumented = instrumented;
+    }
+
+    /**
+     *
+     * @return name statistics are registered in JMX under, null (default) if they are not registered
+     */
+    public String getJmxName() {
+        return jmxName;
+    }
+
+    /**
+     *
+     * @param jmxName if set, statistics of instrumented factory are registered in platform MBean server as
+     *                {@link WrapperStatisticsMXBean} named {@code im.tym.wraop:type=WrapperFactory,name=<jmxName>}.
+     *                Previous registration under the same name is replaced.
+     */
+    public void setJmxName(String jmxName) {
+        this.jmxName = jmxName;
+    }
+
+    /**
+     *
+     * @return how often advised calls emit Flight Recorder events. Default is 0, no events
+     */
+    public int getEventSampling() {
+        return eventSampling;
+    }
+
+    /**
+     *
+     * @param eventSampling emit {@code im.tym.wraop.AdvisedInvocation} Flight Recorder event for one of this many
+     *                      advised calls (1 for every call), 0 for no events. Events also have a threshold that can
+     *                      be changed in recording settings. {@code im.tym.wraop.Wrap} events are emitted
+     *                      regardless of this setting when enabled in recording. Ignored if JFR is not available.
+     */
+    public void setEventSampling(int eventSampling) {
+        this.eventSampling = eventSampling;
+    }
+
+    /**
+     *
+     * @return maximum number of released proxies kept for each target class. Default is
+     * {@link ProxyConfiguration#DEFAULT_POOL_SIZE}
+     */
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     *
+     * @param poolSize maximum number of proxies released with {@link WrapperFactory#release(Object)} to keep for
+     *                 reuse for each target class, 0 to not reuse them. Ignored if Spring AOP is not available.
+     */
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    /**
+     *
+     * @return resource to load {@link AdvisorMatchTable} from. Default is null, no table is loaded
+     */
+    public String getMatchTableResource() {
+        return matchTableResource;
+    }
+
+    /**
+     *
+     * @param matchTableResource resource to load build-time generated {@link AdvisorMatchTable} from, so that AspectJ
+     *                           pointcuts don't need to be parsed and matched at runtime for classes in the table.
+     *                           Usually {@link AdvisorMatchTable#DEFAULT_RESOURCE}. Missing resource is same as
+     *                           empty table. Null (default) to not load any. Used only with AspectJ.
+     */
+    public void setMatchTableResource(String matchTableResource) {
+        this.matchTableResource = matchTableResource;
+    }
+
+    private <I> AspectJWrapperFactorySpi<I> configureMatchTable(AspectJWrapperFactorySpi<I> spi) {
+        if (matchTableResource != null) {
+            ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+            if (classLoader == null) {
+                classLoader = WrapperFactoryBuilder.class.getClassLoader();
+            }
+            try {
+                AdvisorMatchTable matchTable = AdvisorMatchTable.load(classLoader, matchTableResource);
+                if (!matchTable.isEmpty()) {
+                    spi.setMatchTable(matchTable);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Can't load advisor match table from " + matchTableResource, e);
+            }
+        }
+        return spi;
+    }
+
+    private <I> WrapperFactorySpi<I> configureProxyEngine(ProxyCreatorBasedWrapperFactorySpi<I, ?> spi) {
+        spi.setProxyEngine(proxyEngine);
+        spi.setEventSampling(eventSampling);
+        spi.setPoolSize(poolSize);
+        if (instrumented) {
+            InvocationMetrics metrics = new InvocationMetrics();
+            spi.setMetrics(metrics);
+            if (jmxName != null) {
+                registerMBean(metrics);
+            }
+        }
+        return spi;
+    }
+
+    private void registerMBean(InvocationMetrics metrics) {
+        try {
+            ObjectName name = new ObjectName(
+                    WrapperStatisticsMXBean.DOMAIN + ":type=WrapperFactory,name=" + ObjectName.quote(jmxName));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(metrics, name);
+        } catch (JMException e) {
+            throw new IllegalStateException("Can't register wrapper factory statistics in JMX", e);
+        }
+    }
+
     private static boolean isAvailable(String className) {
         try {
             Class.forName(className);
@@ -0,0 +1,54 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable snapshot of invocation statistics of instrumented wrapper factory, see
+ * {@link WrapperFactoryBuilder#setInstrumented(boolean)}.
+ * <p>Method latency covers whole proxied call. Advisor latency covers advisor itself and everything it
+ * proceeds to, so advisor's own cost is the difference with the next advisor in the chain.</p>
+ * @author Vitalii Tymchyshyn
+ */
+public class WrapperStatistics {
+    public static final WrapperStatistics EMPTY = new WrapperStatistics(
+            Collections.<String, LatencySnapshot>emptyMap(), Collections.<String, LatencySnapshot>emptyMap());
+
+    private final Map<String, LatencySnapshot> methods;
+    private final Map<String, LatencySnapshot> advisors;
+
+    public WrapperStatistics(Map<String, LatencySnapshot> methods, Map<String, LatencySnapshot> advisors) {
+        this.methods = Collections.unmodifiableMap(new TreeMap<String, LatencySnapshot>(methods));
+        this.advisors = Collections.unmodifiableMap(new TreeMap<String, LatencySnapshot>(advisors));
+    }
+
+    /**
+     * @return latency of proxied calls by method
+     */
+    public Map<String, LatencySnapshot> getMethods() {
+        return methods;
+    }
+
+    /**
+     * @return latency of advisors by advisor name
+     */
+    public Map<String, LatencySnapshot> getAdvisors() {
+        return advisors;
+    }
+}
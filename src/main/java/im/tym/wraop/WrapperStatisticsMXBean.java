@@ -0,0 +1,46 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop;
+
+import java.util.Map;
+
+/**
+ * JMX view of instrumented wrapper factory statistics. Registered by {@link WrapperFactoryBuilder} when
+ * {@link WrapperFactoryBuilder#setJmxName(String)} is set.
+ * @author Vitalii Tymchyshyn
+ */
+public interface WrapperStatisticsMXBean {
+    /**
+     * Object name domain statistics are registered under
+     */
+    String DOMAIN = "im.tym.wraop";
+
+    /**
+     * @return latency of proxied calls by method
+     */
+    Map<String, LatencySnapshot> getMethods();
+
+    /**
+     * @return latency of advisors by advisor name. It's the advisor's own time: time spent in the rest of the
+     * chain and the target is not included
+     */
+    Map<String, LatencySnapshot> getAdvisors();
+
+    /**
+     * Drops all recorded data
+     */
+    void reset();
+}
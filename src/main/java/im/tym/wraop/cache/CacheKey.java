@@ -0,0 +1,67 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.cache;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+/**
+ * Key of cached result: target object, compared by identity, called method and its arguments, compared with
+ * {@link Arrays#deepEquals}
+ * @author Vitalii Tymchyshyn
+ */
+class CacheKey {
+    private final Object target;
+    private final Method method;
+    private final Object[] arguments;
+    private final int hashCode;
+
+    /**
+     * @param target object method is called on
+     * @param method called method
+     * @param arguments call arguments, must not be changed after this call
+     */
+    CacheKey(Object target, Method method, Object[] arguments) {
+        this.target = target;
+        this.method = method;
+        this.arguments = arguments;
+        this.hashCode = 31 * (31 * System.identityHashCode(target) + method.hashCode()) +
+                Arrays.deepHashCode(arguments);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CacheKey)) {
+            return false;
+        }
+        CacheKey that = (CacheKey) o;
+        return hashCode == that.hashCode && target == that.target && method.equals(that.method) &&
+                Arrays.deepEquals(arguments, that.arguments);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return method.getName() + Arrays.deepToString(arguments);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.cache;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Immutable snapshot of {@link CachingInterceptor} counters
+ * @author Vitalii Tymchyshyn
+ */
+public class CacheStatistics {
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final long size;
+
+    @ConstructorProperties({"hits", "misses", "evictions", "size"})
+    public CacheStatistics(long hits, long misses, long evictions, long size) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.size = size;
+    }
+
+    /**
+     * @return number of calls that got cached result, including ones that waited for another call to load it
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return number of calls that loaded the result by calling the method
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return number of results dropped to keep cache size limit
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return number of cached results, including expired ones not dropped yet
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return share of calls that got cached result or 0 if there were no calls
+     */
+    public double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return "hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ", size=" + size;
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.cache;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>Advice that caches method results by target object, method and arguments. Add it with
+ * {@link im.tym.wraop.WrapperFactory#withAspect(Object)} to cache all the wrapped methods, or in an
+ * {@link org.springframework.aop.Advisor} with a pointcut to cache only some of them. Methods returning
+ * {@code void} are not cached. Arguments are compared with {@link java.util.Arrays#deepEquals}, so they
+ * should have proper {@code equals} and {@code hashCode} and must not be changed later. Targets are compared
+ * by identity, so one interceptor can be shared by proxies of different objects. Cached results keep their
+ * target reachable until evicted.</p>
+ * <p>Cache is split into segments, each a least recently used map guarded by its own lock, so the total size
+ * never exceeds the limit. Results are loaded once: concurrent calls with the same arguments wait for the call
+ * that loads it instead of calling the method too. The loading call runs without any lock held, so a method
+ * calling itself with the same arguments would wait for itself forever. Exceptions are not cached, all the
+ * waiting calls get the exception and the next call tries again.</p>
+ * @author Vitalii Tymchyshyn
+ */
+public class CachingInterceptor implements MethodInterceptor {
+    private static final int MAX_SEGMENTS = 16;
+
+    private final Segment[] segments;
+    private final long timeToLiveNanos;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maximumSize maximum number of cached results
+     */
+    public CachingInterceptor(int maximumSize) {
+        this(maximumSize, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param maximumSize maximum number of cached results
+     * @param timeToLive time to keep each result for after it's loaded, 0 to keep until evicted
+     * @param unit unit of timeToLive
+     */
+    public CachingInterceptor(int maximumSize, long timeToLive, TimeUnit unit) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("Maximum size must be positive: " + maximumSize);
+        }
+        if (timeToLive < 0) {
+            throw new IllegalArgumentException("Time to live can't be negative: " + timeToLive);
+        }
+        this.timeToLiveNanos = unit.toNanos(timeToLive);
+        int count = 1;
+        while (count < MAX_SEGMENTS && count * 2 <= maximumSize) {
+            count *= 2;
+        }
+        segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(maximumSize / count + (i < maximumSize % count ? 1 : 0));
+        }
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        if (invocation.getMethod().getReturnType() == void.class) {
+            return invocation.proceed();
+        }
+        CacheKey key = new CacheKey(invocation.getThis(), invocation.getMethod(),
+                invocation.getArguments().clone());
+        Segment segment = getSegment(key);
+        Entry created = new Entry();
+        Entry entry = segment.getOrPut(key, created, System.nanoTime());
+        if (entry != created) {
+            hits.increment();
+            return entry.get();
+        }
+        misses.increment();
+        Object result;
+        try {
+            result = invocation.proceed();
+        } catch (Throwable e) {
+            segment.remove(key, created);
+            created.value.completeExceptionally(e);
+            throw e;
+        }
+        created.expiresAt = System.nanoTime() + timeToLiveNanos;
+        created.value.complete(result);
+        return result;
+    }
+
+    /**
+     * @return current counters
+     */
+    public CacheStatistics getStatistics() {
+        return new CacheStatistics(hits.sum(), misses.sum(), evictions.sum(), size());
+    }
+
+    /**
+     * @return number of cached results, including ones being loaded and expired ones not dropped yet
+     */
+    public long size() {
+        long rc = 0;
+        for (Segment segment : segments) {
+            rc += segment.size();
+        }
+        return rc;
+    }
+
+    /**
+     * Drops all cached results. Calls loading results at the moment still return them, but don't cache them.
+     */
+    public void invalidateAll() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    private Segment getSegment(CacheKey key) {
+        int hash = key.hashCode();
+        return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return timeToLiveNanos > 0 && entry.value.isDone() && now - entry.expiresAt >= 0;
+    }
+
+    /**
+     * Result being loaded or loaded
+     */
+    private static class Entry {
+        private final CompletableFuture<Object> value = new CompletableFuture<Object>();
+        private volatile long expiresAt;
+
+        Object get() throws Throwable {
+            try {
+                return value.get();
+            } catch (ExecutionException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * Access ordered map of part of the keys
+     */
+    private class Segment {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Map<CacheKey, Entry> entries;
+
+        Segment(final int maximumSize) {
+            entries = new LinkedHashMap<CacheKey, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<CacheKey, Entry> eldest) {
+                    if (size() > maximumSize) {
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        /**
+         * @return entry for the key or created one if there was no entry or it has expired
+         */
+        Entry getOrPut(CacheKey key, Entry created, long now) {
+            lock.lock();
+            try {
+                Entry rc = entries.get(key);
+                if (rc != null && !isExpired(rc, now)) {
+                    return rc;
+                }
+                entries.put(key, created);
+                return created;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void remove(CacheKey key, Entry entry) {
+            lock.lock();
+            try {
+                if (entries.get(key) == entry) {
+                    entries.remove(key);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return entries.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void clear() {
+            lock.lock();
+            try {
+                entries.clear();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
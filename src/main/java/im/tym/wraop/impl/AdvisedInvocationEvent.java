@@ -0,0 +1,61 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.impl;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight Recorder event for a call of advisor's interceptor, including everything it proceeds to.
+ * Must be used only through {@link FlightRecorderSupport}, so that the library works without JFR.
+ * @author Vitalii Tymchyshyn
+ */
+@Name("im.tym.wraop.AdvisedInvocation")
+@Label("Advised Invocation")
+@Category("WrAOP")
+@Description("Call of an advisor on a proxied method")
+@StackTrace(false)
+@Threshold("100 us")
+class AdvisedInvocationEvent extends Event {
+    @Label("Method")
+    String method;
+    @Label("Advisor")
+    String advisor;
+
+    static Object start() {
+        AdvisedInvocationEvent event = new AdvisedInvocationEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void finish(Object started, String method, String advisor) {
+        AdvisedInvocationEvent event = (AdvisedInvocationEvent) started;
+        event.end();
+        if (event.shouldCommit()) {
+            event.method = method;
+            event.advisor = advisor;
+            event.commit();
+        }
+    }
+}
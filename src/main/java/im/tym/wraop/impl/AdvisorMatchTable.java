@@ -0,0 +1,357 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.impl;
+
+import org.aopalliance.aop.Advice;
+import org.springframework.aop.Advisor;
+import org.springframework.aop.Pointcut;
+import org.springframework.aop.PointcutAdvisor;
+import org.springframework.aop.aspectj.AbstractAspectJAdvice;
+import org.springframework.aop.aspectj.AspectJExpressionPointcut;
+import org.springframework.aop.aspectj.InstantiationModelAwarePointcutAdvisor;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.DigestUtils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Precomputed results of AspectJ pointcut matching: for each advisor, which methods of known target classes
+ * it applies to. It is generated at build time by {@link AdvisorMatchTableGenerator} and used by
+ * {@link AspectJWrapperFactorySpi} so that pointcut expressions do not need to be parsed and matched
+ * for known target classes. Any class that is not in the table is matched by the advisor's own pointcut.
+ * <p>Advisors are identified by advice method and pointcut expression, so changing either makes the entry
+ * unused rather than wrong. Classes are identified by name and checked with a fingerprint of their type
+ * hierarchy and public methods, see {@link #getClassFingerprint(Class)}. A class that was changed since the
+ * table was generated, or that has no fingerprint recorded, is matched by the advisor's own pointcut.
+ * Pointcuts that need runtime checks are never put into the table.</p>
+ * <p>File format is UTF-8 text with tab separated fields: {@code F <class> <fingerprint>} records class
+ * fingerprint, {@code A <advisor>} starts advisor section, {@code C <class> <method>...} lists methods given
+ * class has matched, without declaring class.</p>
+ * @author Vitalii Tymchyshyn
+ */
+public class AdvisorMatchTable {
+    /**
+     * Resource the maven plugin writes the table to. Pass it to
+     * {@link im.tym.wraop.WrapperFactoryBuilder#setMatchTableResource(String)} to use the table.
+     */
+    public static final String DEFAULT_RESOURCE = "META-INF/wraop/advisor-matches.txt";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String HEADER = "# WrAOP advisor match table";
+    private static final ClassValue<String> FINGERPRINTS = new ClassValue<String>() {
+        @Override
+        protected String computeValue(Class<?> type) {
+            return computeFingerprint(type);
+        }
+    };
+
+    private final Map<String, String> fingerprints = new TreeMap<String, String>();
+    private final Map<String, Map<String, Set<String>>> advisors = new TreeMap<String, Map<String, Set<String>>>();
+
+    /**
+     * Records that given advisor was matched against given class, together with the class fingerprint
+     * @param advisorId id from {@link #getAdvisorId(Advisor)}
+     * @param targetClass target class
+     * @param methods signatures of methods that have matched, see {@link #getMethodSignature(Method)}
+     */
+    public void put(String advisorId, Class<?> targetClass, Set<String> methods) {
+        putFingerprint(targetClass.getName(), getClassFingerprint(targetClass));
+        put(advisorId, targetClass.getName(), methods);
+    }
+
+    /**
+     * Records that given advisor was matched against given class
+     * @param advisorId id from {@link #getAdvisorId(Advisor)}
+     * @param className target class name
+     * @param methods signatures of methods that have matched, see {@link #getMethodSignature(Method)}
+     */
+    public void put(String advisorId, String className, Set<String> methods) {
+        Map<String, Set<String>> classes = advisors.get(advisorId);
+        if (classes == null) {
+            classes = new TreeMap<String, Set<String>>();
+            advisors.put(advisorId, classes);
+        }
+        classes.put(className, Collections.unmodifiableSet(new TreeSet<String>(methods)));
+    }
+
+    /**
+     * Records fingerprint of the class matches were made for. Entries of a class without fingerprint are
+     * never used.
+     * @param className target class name
+     * @param fingerprint fingerprint from {@link #getClassFingerprint(Class)}
+     */
+    public void putFingerprint(String className, String fingerprint) {
+        fingerprints.put(className, fingerprint);
+    }
+
+    /**
+     * @param className target class name
+     * @return fingerprint recorded for given class, null if there is none
+     */
+    public String getFingerprint(String className) {
+        return fingerprints.get(className);
+    }
+
+    /**
+     * @param advisorId id from {@link #getAdvisorId(Advisor)}
+     * @return matched methods by target class name, null if advisor is not in the table
+     */
+    public Map<String, Set<String>> get(String advisorId) {
+        Map<String, Set<String>> classes = advisors.get(advisorId);
+        return classes == null ? null : Collections.unmodifiableMap(classes);
+    }
+
+    public boolean isEmpty() {
+        return advisors.isEmpty();
+    }
+
+    /**
+     * @param advisors advisors as produced by {@link org.springframework.aop.aspectj.annotation.AspectJAdvisorFactory}
+     * @return same advisors with those known to this table replaced by table backed ones
+     */
+    public List<Advisor> apply(List<Advisor> advisors) {
+        List<Advisor> rc = new ArrayList<Advisor>(advisors.size());
+        for (Advisor advisor : advisors) {
+            Map<String, Set<String>> classes = null;
+            String advisorId = getAdvisorId(advisor);
+            if (advisorId != null) {
+                classes = this.advisors.get(advisorId);
+            }
+            rc.add(classes == null ? advisor
+                    : new TableMatchedAdvisor((PointcutAdvisor) advisor, classes, Collections.unmodifiableMap(fingerprints)));
+        }
+        return rc;
+    }
+
+    /**
+     * @param advisor advisor to identify
+     * @return id of advisor, null if it's not a static AspectJ expression advisor that can be put into the table
+     */
+    public static String getAdvisorId(Advisor advisor) {
+        if (!(advisor instanceof PointcutAdvisor)) {
+            return null;
+        }
+        if (advisor instanceof InstantiationModelAwarePointcutAdvisor
+                && ((InstantiationModelAwarePointcutAdvisor) advisor).isLazy()) {
+            return null;
+        }
+        Advice advice = advisor.getAdvice();
+        if (!(advice instanceof AbstractAspectJAdvice)) {
+            return null;
+        }
+        // advisor may match with a compiled pointcut, expression is taken from the advice
+        Pointcut pointcut = ((AbstractAspectJAdvice) advice).getPointcut();
+        if (!(pointcut instanceof AspectJExpressionPointcut)) {
+            return null;
+        }
+        Method adviceMethod = ((AbstractAspectJAdvice) advice).getAspectJAdviceMethod();
+        return adviceMethod.getDeclaringClass().getName() + "." + getMethodSignature(adviceMethod) + " "
+                + ((AspectJExpressionPointcut) pointcut).getExpression();
+    }
+
+    /**
+     * @return method name with parameter type names
+     */
+    public static String getMethodSignature(Method method) {
+        StringBuilder rc = new StringBuilder(method.getName()).append('(');
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (i > 0) {
+                rc.append(',');
+            }
+            rc.append(parameterTypes[i].getName());
+        }
+        return rc.append(')').toString();
+    }
+
+    /**
+     * Fingerprint covers names of the class, its superclasses and interfaces with their annotation types, and
+     * public methods with declaring class, parameter and return types and annotation types, i.e. everything
+     * static pointcuts look at. It is computed once per class.
+     * @param clazz class to get fingerprint of
+     * @return fingerprint that changes when anything pointcuts may match on changes
+     */
+    public static String getClassFingerprint(Class<?> clazz) {
+        return FINGERPRINTS.get(clazz);
+    }
+
+    private static String computeFingerprint(Class<?> clazz) {
+        Set<String> lines = new TreeSet<String>();
+        for (Class<?> type = clazz; type != null; type = type.getSuperclass()) {
+            lines.add("T " + type.getName() + getAnnotationTypes(type.getAnnotations()));
+        }
+        for (Class<?> type : ClassUtils.getAllInterfacesForClassAsSet(clazz)) {
+            lines.add("T " + type.getName() + getAnnotationTypes(type.getAnnotations()));
+        }
+        for (Method method : clazz.getMethods()) {
+            lines.add("M " + method.getDeclaringClass().getName() + "." + getMethodSignature(method) + " "
+                    + method.getReturnType().getName() + getAnnotationTypes(method.getAnnotations()));
+        }
+        StringBuilder rc = new StringBuilder();
+        for (String line : lines) {
+            rc.append(line).append('\n');
+        }
+        return DigestUtils.md5DigestAsHex(rc.toString().getBytes(UTF8));
+    }
+
+    private static String getAnnotationTypes(Annotation[] annotations) {
+        Set<String> types = new TreeSet<String>();
+        for (Annotation annotation : annotations) {
+            types.add(annotation.annotationType().getName());
+        }
+        StringBuilder rc = new StringBuilder();
+        for (String type : types) {
+            rc.append(" @").append(type);
+        }
+        return rc.toString();
+    }
+
+    /**
+     * @param classLoader class loader to get resource from
+     * @param resource resource name
+     * @return loaded table, empty if there is no such resource
+     * @throws IOException if resource can't be read
+     */
+    public static AdvisorMatchTable load(ClassLoader classLoader, String resource) throws IOException {
+        InputStream in = classLoader.getResourceAsStream(resource);
+        if (in == null) {
+            return new AdvisorMatchTable();
+        }
+        try {
+            return read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    public static AdvisorMatchTable read(InputStream in) throws IOException {
+        AdvisorMatchTable rc = new AdvisorMatchTable();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF8));
+        String advisorId = null;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\t", -1);
+            if (fields[0].equals("F") && fields.length == 3) {
+                rc.putFingerprint(fields[1], fields[2]);
+            } else if (fields[0].equals("A") && fields.length == 2) {
+                advisorId = unescape(fields[1]);
+            } else if (fields[0].equals("C") && fields.length >= 2 && advisorId != null) {
+                Set<String> methods = new TreeSet<String>();
+                for (int i = 2; i < fields.length; i++) {
+                    methods.add(fields[i]);
+                }
+                rc.put(advisorId, fields[1], methods);
+            } else {
+                throw new IOException("Malformed advisor match table line: " + line);
+            }
+        }
+        return rc;
+    }
+
+    public void write(Writer writer) throws IOException {
+        writer.write(HEADER);
+        writer.write('\n');
+        for (Map.Entry<String, String> fingerprint : fingerprints.entrySet()) {
+            writer.write("F\t");
+            writer.write(fingerprint.getKey());
+            writer.write('\t');
+            writer.write(fingerprint.getValue());
+            writer.write('\n');
+        }
+        for (Map.Entry<String, Map<String, Set<String>>> advisor : advisors.entrySet()) {
+            writer.write("A\t");
+            writer.write(escape(advisor.getKey()));
+            writer.write('\n');
+            for (Map.Entry<String, Set<String>> targetClass : advisor.getValue().entrySet()) {
+                writer.write("C\t");
+                writer.write(targetClass.getKey());
+                for (String method : targetClass.getValue()) {
+                    writer.write('\t');
+                    writer.write(method);
+                }
+                writer.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Writes the table to given file, creating parent directories if needed
+     */
+    public void store(File file) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Can't create directory " + parent);
+        }
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), UTF8));
+        try {
+            write(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder rc = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                rc.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                rc.append(c);
+            }
+        }
+        return rc.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof AdvisorMatchTable && advisors.equals(((AdvisorMatchTable) o).advisors)
+                && fingerprints.equals(((AdvisorMatchTable) o).fingerprints);
+    }
+
+    @Override
+    public int hashCode() {
+        return advisors.hashCode();
+    }
+}
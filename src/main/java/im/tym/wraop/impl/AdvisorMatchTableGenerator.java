@@ -0,0 +1,123 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.impl;
+
+import org.springframework.aop.Advisor;
+import org.springframework.aop.ClassFilter;
+import org.springframework.aop.MethodMatcher;
+import org.springframework.aop.PointcutAdvisor;
+import org.springframework.aop.aspectj.AspectJExpressionPointcut;
+import org.springframework.aop.aspectj.annotation.AspectJAdvisorFactory;
+import org.springframework.aop.aspectj.annotation.ReflectiveAspectJAdvisorFactory;
+import org.springframework.aop.aspectj.annotation.SimpleMetadataAwareAspectInstanceFactory;
+import org.springframework.aop.support.MethodMatchers;
+import org.springframework.util.ClassUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Build time generator of {@link AdvisorMatchTable}. Aspect classes are only inspected, they are not
+ * instantiated. Target classes should be the implementation classes of objects that will be wrapped.
+ * <p>Can be run from command line or build tool:
+ * {@code AdvisorMatchTableGenerator <output file> (--aspect <class> | --target <class>)...}</p>
+ * @author Vitalii Tymchyshyn
+ */
+public class AdvisorMatchTableGenerator {
+    private final AspectJAdvisorFactory aspectFactory = new ReflectiveAspectJAdvisorFactory();
+    private final List<Class<?>> aspectClasses = new ArrayList<Class<?>>();
+    private final List<Class<?>> targetClasses = new ArrayList<Class<?>>();
+
+    public AdvisorMatchTableGenerator addAspectClass(Class<?> aspectClass) {
+        aspectClasses.add(aspectClass);
+        return this;
+    }
+
+    public AdvisorMatchTableGenerator addTargetClass(Class<?> targetClass) {
+        targetClasses.add(targetClass);
+        return this;
+    }
+
+    public AdvisorMatchTable generate() {
+        AdvisorMatchTable rc = new AdvisorMatchTable();
+        for (Class<?> aspectClass : aspectClasses) {
+            List<Advisor> advisors = aspectFactory.getAdvisors(
+                    new SimpleMetadataAwareAspectInstanceFactory(aspectClass, aspectClass.getName()));
+            for (Advisor advisor : advisors) {
+                String advisorId = AdvisorMatchTable.getAdvisorId(advisor);
+                if (advisorId == null) {
+                    continue;
+                }
+                AspectJExpressionPointcut pointcut = (AspectJExpressionPointcut) ((PointcutAdvisor) advisor).getPointcut();
+                if (pointcut.getMethodMatcher().isRuntime()) {
+                    continue;
+                }
+                for (Class<?> targetClass : targetClasses) {
+                    rc.put(advisorId, targetClass, getMatchingMethods(pointcut, targetClass));
+                }
+            }
+        }
+        return rc;
+    }
+
+    private static Set<String> getMatchingMethods(AspectJExpressionPointcut pointcut, Class<?> targetClass) {
+        Set<String> rc = new TreeSet<String>();
+        ClassFilter classFilter = pointcut.getClassFilter();
+        if (!classFilter.matches(targetClass)) {
+            return rc;
+        }
+        MethodMatcher methodMatcher = pointcut.getMethodMatcher();
+        Set<Class> classes = new LinkedHashSet<Class>(ClassUtils.getAllInterfacesForClassAsSet(targetClass));
+        classes.add(targetClass);
+        for (Class<?> clazz : classes) {
+            for (Method method : clazz.getMethods()) {
+                if (MethodMatchers.matches(methodMatcher, method, targetClass, false)) {
+                    rc.add(AdvisorMatchTable.getMethodSignature(method));
+                }
+            }
+        }
+        return rc;
+    }
+
+    public static void main(String[] args) throws ClassNotFoundException, IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: AdvisorMatchTableGenerator <output file> (--aspect <class> | --target <class>)...");
+            System.exit(1);
+        }
+        ClassLoader classLoader = ClassUtils.getDefaultClassLoader();
+        AdvisorMatchTableGenerator generator = new AdvisorMatchTableGenerator();
+        for (int i = 1; i < args.length; i += 2) {
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("No class name after " + args[i]);
+            }
+            Class<?> clazz = ClassUtils.forName(args[i + 1], classLoader);
+            if (args[i].equals("--aspect")) {
+                generator.addAspectClass(clazz);
+            } else if (args[i].equals("--target")) {
+                generator.addTargetClass(clazz);
+            } else {
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        generator.generate().store(new File(args[0]));
+    }
+}
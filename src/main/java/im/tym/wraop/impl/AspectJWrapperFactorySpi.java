@@ -15,80 +15,156 @@
  */
 package im.tym.wraop.impl;
 
+import org.aopalliance.aop.Advice;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.reflect.PerClauseKind;
 import org.springframework.aop.Advisor;
 import org.springframework.aop.aspectj.AspectJProxyUtils;
 import org.springframework.aop.aspectj.annotation.*;
-import org.springframework.aop.framework.AdvisedSupport;
-import org.springframework.aop.support.AopUtils;
+import org.springframework.aop.interceptor.ExposeInvocationInterceptor;
 import org.springframework.core.OrderComparator;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Note: Some code was taken from {@link AspectJProxyFactory}.
+ * Aspect classes are analyzed once per process by {@link SharedAspectJAdvisorFactory}.
+ * AspectJ advisors are kept sorted by {@link OrderComparator}, added ones are inserted at their places.
  * @author Vitalii Tymchyshyn
  */
 
 public class AspectJWrapperFactorySpi<I> extends ProxyCreatorBasedWrapperFactorySpi<I, AspectJProxyFactory> {
-    private final AspectJAdvisorFactory aspectFactory = new ReflectiveAspectJAdvisorFactory();
+    private final SharedAspectJAdvisorFactory aspectFactory = SharedAspectJAdvisorFactory.getInstance();
 
     private final List<Advisor> aspectJAdvisors = new ArrayList<Advisor>();
+    /**
+     * Advisors made of each added AspectJ aspect instance, to be able to remove them
+     */
+    private final Map<Object, List<Advisor>> aspectAdvisors = new IdentityHashMap<Object, List<Advisor>>();
+
+    private volatile AdvisorMatchTable matchTable;
 
     public AspectJWrapperFactorySpi() {
         super(new AspectJProxyFactory());
     }
 
+    /**
+     * AspectJ aspect is analyzed without holding {@link #lock}
+     */
     @Override
-    public synchronized boolean addAspect(Object aspect) {
-        if (super.addAspect(aspect)) {
+    protected List<Advisor> createAdvisors(Object aspect) {
+        if (aspect instanceof Advice || aspect instanceof Advisor) {
+            return super.createAdvisors(aspect);
+        }
+        MetadataAwareAspectInstanceFactory instanceFactory = getInstanceFactory(aspect);
+        if (instanceFactory == null) {
+            return Collections.emptyList();
+        }
+        List<Advisor> advisors = this.aspectFactory.getAdvisors(instanceFactory);
+        AdvisorMatchTable matchTable = this.matchTable;
+        if (matchTable != null) {
+            advisors = matchTable.apply(advisors);
+        }
+        return advisors;
+    }
+
+    @Override
+    protected boolean removeAdvisors(Object aspect) {
+        if (super.removeAdvisors(aspect)) {
             return true;
         }
-        if (!aspect.getClass().isAnnotationPresent(Aspect.class)) {
+        List<Advisor> advisors = aspectAdvisors.remove(aspect);
+        if (advisors == null) {
             return false;
         }
-        Class aspectClass = aspect.getClass();
-        String aspectName = aspectClass.getName();
-        AspectMetadata am = createAspectMetadata(aspectClass, aspectName);
-        if (am == null) {
-            return false;
+        for (Advisor advisor : advisors) {
+            for (int i = 0; i < aspectJAdvisors.size(); i++) {
+                if (aspectJAdvisors.get(i) == advisor) {
+                    aspectJAdvisors.remove(i);
+                    break;
+                }
+            }
         }
-        if (am.getAjType().getPerClause().getKind() != PerClauseKind.SINGLETON) {
-            throw new IllegalArgumentException(
-                    "Aspect class [" + aspectClass.getName() + "] does not define a singleton aspect");
+        if (aspectAdvisors.isEmpty()) {
+            aspectJAdvisors.remove(ExposeInvocationInterceptor.ADVISOR);
         }
-        return addAdvisorsFromAspectInstanceFactory(
-                new SingletonMetadataAwareAspectInstanceFactory(aspect, aspectName));
+        return true;
     }
 
     /**
-     * Create an {@link AspectMetadata} instance for the supplied aspect type.
+     * @return instance factory of given AspectJ aspect, null if it's not an aspect
+     * @throws IllegalArgumentException if aspect is not a singleton
      */
-    private AspectMetadata createAspectMetadata(Class aspectClass, String aspectName) {
-        AspectMetadata am = new AspectMetadata(aspectClass, aspectName);
-        if (!am.getAjType().isAspect()) {
+    private MetadataAwareAspectInstanceFactory getInstanceFactory(Object aspect) {
+        if (!aspect.getClass().isAnnotationPresent(Aspect.class)) {
             return null;
         }
-        return am;
+        MetadataAwareAspectInstanceFactory instanceFactory = aspectFactory.getInstanceFactory(aspect);
+        if (instanceFactory != null &&
+                instanceFactory.getAspectMetadata().getAjType().getPerClause().getKind() != PerClauseKind.SINGLETON) {
+            throw new IllegalArgumentException(
+                    "Aspect class [" + aspect.getClass().getName() + "] does not define a singleton aspect");
+        }
+        return instanceFactory;
     }
 
-    private boolean addAdvisorsFromAspectInstanceFactory(MetadataAwareAspectInstanceFactory instanceFactory) {
-        boolean hadAspects = aspectJAdvisors.addAll(this.aspectFactory.getAdvisors(instanceFactory));
-        if (hadAspects) {
+    /**
+     * AspectJ advisors are inserted into already sorted list at their places, same as a stable sort of the whole
+     * list would put them, so adding an aspect does not resort advisors of other aspects.
+     */
+    @Override
+    protected void addAdvisors(Object aspect, List<Advisor> advisors) {
+        if (aspect instanceof Advice || aspect instanceof Advisor) {
+            super.addAdvisors(aspect, advisors);
+            return;
+        }
+        for (Advisor advisor : advisors) {
+            insertSorted(advisor);
+        }
+        if (!aspectJAdvisors.contains(ExposeInvocationInterceptor.ADVISOR)) {
             AspectJProxyUtils.makeAdvisorChainAspectJCapableIfNecessary(aspectJAdvisors);
-            OrderComparator.sort(aspectJAdvisors);
         }
-        return hadAspects;
+        List<Advisor> added = aspectAdvisors.get(aspect);
+        if (added == null) {
+            added = new ArrayList<Advisor>();
+            aspectAdvisors.put(aspect, added);
+        }
+        added.addAll(advisors);
     }
 
-    @Override
-    protected AdvisedSupport getAdvisedSupportFor(I object) {
-        AdvisedSupport support = super.getAdvisedSupportFor(object);
-        if (!aspectJAdvisors.isEmpty()) {
-            support.addAdvisors(AopUtils.findAdvisorsThatCanApply(aspectJAdvisors, object.getClass()));
+    private void insertSorted(Advisor advisor) {
+        int low = 0;
+        int high = aspectJAdvisors.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (OrderComparator.INSTANCE.compare(aspectJAdvisors.get(middle), advisor) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
         }
-        return support;
+        aspectJAdvisors.add(low, advisor);
+    }
+
+    /**
+     * @param matchTable precomputed pointcut matching to use for aspects added after this call, null to always
+     *                   match with AspectJ
+     */
+    public void setMatchTable(AdvisorMatchTable matchTable) {
+        this.matchTable = matchTable;
+    }
+
+    public AdvisorMatchTable getMatchTable() {
+        return matchTable;
+    }
+
+    @Override
+    protected ProxyConfiguration createConfiguration() {
+        return new ProxyConfiguration(proxyCreator, aspectJAdvisors, getMetrics(), getEventSampling(),
+                getPoolSize(), this::getConfiguration);
     }
 }
@@ -0,0 +1,117 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.impl;
+
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.ClassFilter;
+import org.springframework.aop.MethodMatcher;
+import org.springframework.aop.Pointcut;
+import org.springframework.aop.ProxyMethodInvocation;
+import org.springframework.aop.interceptor.ExposeInvocationInterceptor;
+import org.springframework.aop.support.AopUtils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Pointcut produced by {@link PointcutCompiler}. Static part is evaluated once per method and target class,
+ * leaving {@link Residue} to be checked on each call for {@code args}, {@code this} and {@code target}.
+ * @author Vitalii Tymchyshyn
+ */
+public class CompiledPointcut implements Pointcut, MethodMatcher {
+    private final String expression;
+    private final PointcutNode root;
+    private final ClassValue<ConcurrentMap<Method, Residue>> residues =
+            new ClassValue<ConcurrentMap<Method, Residue>>() {
+                @Override
+                protected ConcurrentMap<Method, Residue> computeValue(Class<?> type) {
+                    return new ConcurrentHashMap<Method, Residue>();
+                }
+            };
+
+    CompiledPointcut(String expression, PointcutNode root) {
+        this.expression = expression;
+        this.root = root;
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    @Override
+    public ClassFilter getClassFilter() {
+        return ClassFilter.TRUE;
+    }
+
+    @Override
+    public MethodMatcher getMethodMatcher() {
+        return this;
+    }
+
+    @Override
+    public boolean matches(Method method, Class<?> targetClass) {
+        return getResidue(method, targetClass) != Residue.FALSE;
+    }
+
+    @Override
+    public boolean isRuntime() {
+        return root.isDynamic();
+    }
+
+    @Override
+    public boolean matches(Method method, Class<?> targetClass, Object[] args) {
+        Residue residue = getResidue(method, targetClass);
+        if (residue == Residue.TRUE || residue == Residue.FALSE) {
+            return residue == Residue.TRUE;
+        }
+        Object proxy = null;
+        Object target = null;
+        if (residue.needsInvocation()) {
+            MethodInvocation invocation = ExposeInvocationInterceptor.currentInvocation();
+            if (invocation instanceof ProxyMethodInvocation) {
+                proxy = ((ProxyMethodInvocation) invocation).getProxy();
+            }
+            target = invocation.getThis();
+        }
+        return residue.matches(proxy, target, args);
+    }
+
+    Residue getResidue(Method method, Class<?> targetClass) {
+        ConcurrentMap<Method, Residue> cache = residues.get(targetClass != null ? targetClass : method.getDeclaringClass());
+        Residue rc = cache.get(method);
+        if (rc == null) {
+            rc = root.residue(AopUtils.getMostSpecificMethod(method, targetClass), targetClass);
+            cache.putIfAbsent(method, rc);
+        }
+        return rc;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof CompiledPointcut && expression.equals(((CompiledPointcut) o).expression);
+    }
+
+    @Override
+    public int hashCode() {
+        return expression.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledPointcut: " + expression;
+    }
+}
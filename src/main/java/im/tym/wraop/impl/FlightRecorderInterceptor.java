@@ -0,0 +1,53 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.impl;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Emits Flight Recorder event for each sampled call of delegate interceptor. With sampling {@code n}
+ * one of {@code n} calls is recorded on average.
+ * @author Vitalii Tymchyshyn
+ */
+class FlightRecorderInterceptor implements MethodInterceptor {
+    private final MethodInterceptor delegate;
+    private final String method;
+    private final String advisor;
+    private final int sampling;
+
+    FlightRecorderInterceptor(MethodInterceptor delegate, String method, String advisor, int sampling) {
+        this.delegate = delegate;
+        this.method = method;
+        this.advisor = advisor;
+        this.sampling = sampling;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        if (sampling > 1 && ThreadLocalRandom.current().nextInt(sampling) != 0) {
+            return delegate.invoke(invocation);
+        }
+        Object event = FlightRecorderSupport.startInvocation();
+        try {
+            return delegate.invoke(invocation);
+        } finally {
+            FlightRecorderSupport.finishInvocation(event, method, advisor);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.impl;
+
+/**
+ * Entry point for JDK Flight Recorder events. Event classes are touched only when {@link #AVAILABLE} is true,
+ * so the library works on JVMs without JFR. When JFR is not available or is switched off with
+ * {@code -Dwraop.jfr.disabled=true}, the checks are constant and JIT removes them.
+ * @author Vitalii Tymchyshyn
+ */
+public final class FlightRecorderSupport {
+    /**
+     * If JFR events can be emitted
+     */
+    public static final boolean AVAILABLE = isAvailable();
+
+    private FlightRecorderSupport() {
+    }
+
+    /**
+     * @return token to pass to {@link #finishWrap(Object, Class, int, int, boolean)}, null if event
+     * is not recorded
+     */
+    public static Object startWrap() {
+        return AVAILABLE ? WrapEvent.start() : null;
+    }
+
+    public static void finishWrap(Object started, Class<?> targetClass, int interfaceCount, int objectCount,
+                                  boolean proxied) {
+        if (started != null) {
+            WrapEvent.finish(started, targetClass, interfaceCount, objectCount, proxied);
+        }
+    }
+
+    /**
+     * @return token to pass to {@link #finishInvocation(Object, String, String)}, null if event is not recorded
+     */
+    public static Object startInvocation() {
+        return AVAILABLE ? AdvisedInvocationEvent.start() : null;
+    }
+
+    public static void finishInvocation(Object started, String method, String advisor) {
+        if (started != null) {
+            AdvisedInvocationEvent.finish(started, method, advisor);
+        }
+    }
+
+    private static boolean isAvailable() {
+        if (Boolean.getBoolean("wraop.jfr.disabled")) {
+            return false;
+        }
+        try {
+            Class.forName("jdk.jfr.Event");
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.impl;
+
+import im.tym.wraop.WrapperStatistics;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Immutable spi that wraps objects with fixed {@link ProxyConfiguration}. Any attempt to change it results in
+ * {@link UnsupportedOperationException}.
+ * @author Vitalii Tymchyshyn
+ */
+public class FrozenWrapperFactorySpi<I> implements WrapperFactorySpi<I> {
+    private final ProxyConfiguration configuration;
+
+    public FrozenWrapperFactorySpi(ProxyConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    @Override
+    public I wrap(I object, ClassLoader classLoader) {
+        return (I) configuration.getProxy(object, classLoader);
+    }
+
+    @Override
+    public I wrap(I object, Class<?>[] interfaces, ClassLoader classLoader) {
+        return (I) configuration.getProxy(object, interfaces, classLoader);
+    }
+
+    @Override
+    public List<I> wrapAll(List<? extends I> objects, ClassLoader classLoader) {
+        return (List<I>) configuration.getProxies(objects, classLoader);
+    }
+
+    @Override
+    public boolean addAspect(Object aspect) {
+        throw new UnsupportedOperationException("Frozen wrapper factory can't be changed");
+    }
+
+    @Override
+    public boolean removeAspect(Object aspect) {
+        throw new UnsupportedOperationException("Frozen wrapper factory can't be changed");
+    }
+
+    @Override
+    public boolean replaceAspect(Object oldAspect, Object newAspect) {
+        throw new UnsupportedOperationException("Frozen wrapper factory can't be changed");
+    }
+
+    @Override
+    public void setInterfaces(Class... wrappedInterfaces) {
+        throw new UnsupportedOperationException("Frozen wrapper factory can't be changed");
+    }
+
+    @Override
+    public void addInterface(Class wrappedInterface) {
+        throw new UnsupportedOperationException("Frozen wrapper factory can't be changed");
+    }
+
+    @Override
+    public I wrapLazily(Supplier<? extends I> supplier, ClassLoader classLoader) {
+        return (I) configuration.getLazyProxy(supplier, classLoader);
+    }
+
+    @Override
+    public I acquire(I object) {
+        return (I) configuration.acquireProxy(object);
+    }
+
+    @Override
+    public void release(I proxy) {
+        ProxyConfiguration.releaseProxy(proxy);
+    }
+
+    @Override
+    public WrapperStatistics getStatistics() {
+        InvocationMetrics metrics = configuration.getMetrics();
+        return metrics == null ? WrapperStatistics.EMPTY : metrics.getStatistics();
+    }
+
+    @Override
+    public void releaseClassLoader(ClassLoader classLoader) {
+        configuration.releaseClassLoader(classLoader);
+    }
+
+    @Override
+    public WrapperFactorySpi<I> freeze() {
+        return this;
+    }
+
+    public ProxyConfiguration getConfiguration() {
+        return configuration;
+    }
+}
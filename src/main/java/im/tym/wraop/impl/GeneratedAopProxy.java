@@ -0,0 +1,42 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.impl;
+
+import org.springframework.aop.framework.AdvisedSupport;
+
+import java.lang.reflect.Method;
+
+/**
+ * {@link ReusingAopProxy} for proxy classes made by {@link ProxyClassGenerator}. Methods without advice
+ * are called on the target directly by the proxy, without boxing and argument arrays.
+ * @author Vitalii Tymchyshyn
+ */
+public class GeneratedAopProxy extends ReusingAopProxy implements GeneratedProxy.DirectCallHandler {
+    public GeneratedAopProxy(AdvisedSupport advised, ProxyClassCache proxyClassCache) {
+        super(advised, proxyClassCache);
+    }
+
+    @Override
+    public Object getDirectTarget() {
+        return getTarget();
+    }
+
+    @Override
+    public boolean isDirectCall(Method method) {
+        MethodChain chain = getChain(method);
+        return chain != null && chain.interceptors.isEmpty();
+    }
+}
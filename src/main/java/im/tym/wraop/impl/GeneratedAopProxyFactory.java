@@ -0,0 +1,42 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.impl;
+
+import org.springframework.aop.framework.AdvisedSupport;
+import org.springframework.aop.framework.AopProxy;
+
+/**
+ * Creates {@link GeneratedAopProxy} where {@link PrecompiledAopProxyFactory} would create {@link PrecompiledAopProxy}.
+ * Proxy classes are made by {@link ProxyClassGenerator}, JDK proxy classes are used for interfaces it does not
+ * support.
+ * @author Vitalii Tymchyshyn
+ */
+public class GeneratedAopProxyFactory extends PrecompiledAopProxyFactory {
+    public GeneratedAopProxyFactory() {
+        super(new ProxyClassCache() {
+            @Override
+            protected Class<?> createProxyClass(ClassLoader classLoader, Class<?>[] interfaces) {
+                Class<?> rc = ProxyClassGenerator.generate(classLoader, interfaces);
+                return rc != null ? rc : super.createProxyClass(classLoader, interfaces);
+            }
+        });
+    }
+
+    @Override
+    protected AopProxy createPrecompiledProxy(AdvisedSupport config) {
+        return new GeneratedAopProxy(config, getProxyClassCache());
+    }
+}
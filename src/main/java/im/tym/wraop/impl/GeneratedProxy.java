@@ -0,0 +1,84 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.impl;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Base class of proxies generated by {@link ProxyClassGenerator}. Each proxy method either calls the target
+ * directly, with it's own parameter and return types, or boxes arguments and calls the invocation handler,
+ * same as JDK dynamic proxy does. Direct calls are used for methods the handler reports with
+ * {@link DirectCallHandler#isDirectCall(Method)}.
+ * @author Vitalii Tymchyshyn
+ */
+public abstract class GeneratedProxy {
+    protected final InvocationHandler handler;
+    protected final Object target;
+    protected final boolean[] direct;
+
+    /**
+     * @param handler invocation handler, usually {@link DirectCallHandler}
+     * @param methods proxy methods in the order of generated method indexes
+     */
+    protected GeneratedProxy(InvocationHandler handler, Method[] methods) {
+        if (handler == null) {
+            throw new NullPointerException("Invocation handler is null");
+        }
+        this.handler = handler;
+        this.direct = new boolean[methods.length];
+        if (handler instanceof DirectCallHandler) {
+            DirectCallHandler directCallHandler = (DirectCallHandler) handler;
+            this.target = directCallHandler.getDirectTarget();
+            for (int i = 0; i < methods.length; i++) {
+                direct[i] = target != null && directCallHandler.isDirectCall(methods[i]);
+            }
+        } else {
+            this.target = null;
+        }
+    }
+
+    /**
+     * @param proxy generated or JDK dynamic proxy
+     * @return proxy invocation handler, null if given object is not a proxy
+     */
+    public static InvocationHandler getInvocationHandler(Object proxy) {
+        if (proxy instanceof GeneratedProxy) {
+            return ((GeneratedProxy) proxy).handler;
+        }
+        if (proxy != null && Proxy.isProxyClass(proxy.getClass())) {
+            return Proxy.getInvocationHandler(proxy);
+        }
+        return null;
+    }
+
+    /**
+     * Invocation handler that lets generated proxies call the target directly for some methods
+     */
+    public interface DirectCallHandler extends InvocationHandler {
+        /**
+         * @return object to call directly
+         */
+        Object getDirectTarget();
+
+        /**
+         * @param method proxy method
+         * @return if method can be called on the target directly, bypassing the handler
+         */
+        boolean isDirectCall(Method method);
+    }
+}
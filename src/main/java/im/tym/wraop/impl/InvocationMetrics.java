@@ -0,0 +1,104 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.impl;
+
+import im.tym.wraop.LatencySnapshot;
+import im.tym.wraop.WrapperStatistics;
+import im.tym.wraop.WrapperStatisticsMXBean;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Live invocation statistics of a wrapper factory. Histograms are created once per method and advisor name
+ * and then bound into interceptor chains, so recording does not need any lookup.
+ * @author Vitalii Tymchyshyn
+ */
+public class InvocationMetrics implements WrapperStatisticsMXBean {
+    private final ConcurrentMap<String, LatencyHistogram> methods = new ConcurrentHashMap<String, LatencyHistogram>();
+    private final ConcurrentMap<String, LatencyHistogram> advisors = new ConcurrentHashMap<String, LatencyHistogram>();
+
+    public LatencyHistogram getMethodHistogram(Method method) {
+        return getHistogram(methods, getMethodName(method));
+    }
+
+    public LatencyHistogram getAdvisorHistogram(String advisorName) {
+        return getHistogram(advisors, advisorName);
+    }
+
+    public WrapperStatistics getStatistics() {
+        return new WrapperStatistics(snapshot(methods), snapshot(advisors));
+    }
+
+    @Override
+    public Map<String, LatencySnapshot> getMethods() {
+        return getStatistics().getMethods();
+    }
+
+    @Override
+    public Map<String, LatencySnapshot> getAdvisors() {
+        return getStatistics().getAdvisors();
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram histogram : methods.values()) {
+            histogram.reset();
+        }
+        for (LatencyHistogram histogram : advisors.values()) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * @return method name with declaring class and simple parameter type names, so overloads are counted separately
+     */
+    static String getMethodName(Method method) {
+        StringBuilder rc = new StringBuilder(method.getDeclaringClass().getName()).append('.')
+                .append(method.getName()).append('(');
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (i > 0) {
+                rc.append(',');
+            }
+            rc.append(parameterTypes[i].getSimpleName());
+        }
+        return rc.append(')').toString();
+    }
+
+    private static LatencyHistogram getHistogram(ConcurrentMap<String, LatencyHistogram> histograms, String name) {
+        LatencyHistogram rc = histograms.get(name);
+        if (rc == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            rc = histograms.putIfAbsent(name, created);
+            if (rc == null) {
+                rc = created;
+            }
+        }
+        return rc;
+    }
+
+    private static Map<String, LatencySnapshot> snapshot(Map<String, LatencyHistogram> histograms) {
+        Map<String, LatencySnapshot> rc = new HashMap<String, LatencySnapshot>();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            rc.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return rc;
+    }
+}
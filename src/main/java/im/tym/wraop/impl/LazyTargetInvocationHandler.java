@@ -0,0 +1,85 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.impl;
+
+import org.springframework.aop.support.AopUtils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Handler of lazy proxies made by {@link ProxyConfiguration#getLazyProxy(Supplier, ClassLoader)}. Target is
+ * obtained from the supplier and wrapped on first call, after that calls are forwarded to the wrapped target.
+ * {@code equals} and {@code hashCode} are identity based and do not initialize the target.
+ * Initialization is guarded by a lock instead of a monitor, so virtual threads calling a slow supplier
+ * don't pin their carriers.
+ * @author Vitalii Tymchyshyn
+ */
+class LazyTargetInvocationHandler implements InvocationHandler {
+    private final ProxyConfiguration configuration;
+    private final ClassLoader classLoader;
+    private final ReentrantLock lock = new ReentrantLock();
+    private Supplier<?> supplier;
+    private volatile Object delegate;
+
+    LazyTargetInvocationHandler(ProxyConfiguration configuration, Supplier<?> supplier, ClassLoader classLoader) {
+        this.configuration = configuration;
+        this.supplier = supplier;
+        this.classLoader = classLoader;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (AopUtils.isEqualsMethod(method)) {
+            return proxy == args[0];
+        }
+        if (AopUtils.isHashCodeMethod(method)) {
+            return System.identityHashCode(proxy);
+        }
+        return AopUtils.invokeJoinpointUsingReflection(getDelegate(), method, args);
+    }
+
+    /**
+     * @return wrapped target, created on first call
+     */
+    Object getDelegate() {
+        Object rc = delegate;
+        if (rc == null) {
+            lock.lock();
+            try {
+                rc = delegate;
+                if (rc == null) {
+                    Object target = supplier.get();
+                    if (target == null) {
+                        throw new IllegalStateException("Lazy target supplier returned null");
+                    }
+                    rc = configuration.getProxy(target, classLoader);
+                    delegate = rc;
+                    supplier = null;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return rc;
+    }
+
+    boolean isInitialized() {
+        return delegate != null;
+    }
+}
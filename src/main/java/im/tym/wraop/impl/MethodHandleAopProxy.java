@@ -0,0 +1,84 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.impl;
+
+import org.springframework.aop.framework.AdvisedSupport;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link PrecompiledAopProxy} that calls the target with {@link MethodHandle}s instead of reflection.
+ * Handles are made once per interface method and shared by all the proxies. They take the target as first
+ * argument and method arguments as array, so they are not bound to the target on each wrap. Handles are kept
+ * with the class declaring the method, so they don't prevent class unloading.
+ * @author Vitalii Tymchyshyn
+ */
+public class MethodHandleAopProxy extends PrecompiledAopProxy {
+    private static final ClassValue<Map<Method, MethodHandle>> HANDLES = new ClassValue<Map<Method, MethodHandle>>() {
+        @Override
+        protected Map<Method, MethodHandle> computeValue(Class<?> declaringClass) {
+            return new ConcurrentHashMap<Method, MethodHandle>();
+        }
+    };
+
+    public MethodHandleAopProxy(AdvisedSupport advised, ProxyClassCache proxyClassCache) {
+        super(advised, proxyClassCache);
+    }
+
+    @Override
+    protected MethodChain createChain(Method method, List<Object> interceptors) {
+        return new MethodHandleChain(method, interceptors, getHandle(method));
+    }
+
+    private static MethodHandle getHandle(Method method) {
+        Map<Method, MethodHandle> handles = HANDLES.get(method.getDeclaringClass());
+        MethodHandle handle = handles.get(method);
+        if (handle == null) {
+            ReflectionUtils.makeAccessible(method);
+            try {
+                int parameterCount = method.getParameterTypes().length;
+                handle = MethodHandles.lookup().unreflect(method)
+                        .asType(MethodType.genericMethodType(parameterCount + 1))
+                        .asSpreader(Object[].class, parameterCount);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Can't access " + method, e);
+            }
+            handles.put(method, handle);
+        }
+        return handle;
+    }
+
+    private static class MethodHandleChain extends MethodChain {
+        private final MethodHandle handle;
+
+        MethodHandleChain(Method method, List<Object> interceptors, MethodHandle handle) {
+            super(method, interceptors);
+            this.handle = handle;
+        }
+
+        @Override
+        public Object invokeTarget(Object target, Object[] args) throws Throwable {
+            return (Object) handle.invokeExact(target, args);
+        }
+    }
+}
@@ -15,6 +15,12 @@
  */
 package im.tym.wraop.impl;
 
+import im.tym.wraop.WrapperStatistics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
 /**
  * @author Vitalii Tymchyshyn
  */
@@ -25,11 +31,53 @@ public class NoopWrapperFactorySpi<I> implements WrapperFactorySpi<I> {
         return object;
     }
 
+    @Override
+    public I wrap(I object, Class<?>[] interfaces, ClassLoader classLoader) {
+        return object;
+    }
+
+    @Override
+    public List<I> wrapAll(List<? extends I> objects, ClassLoader classLoader) {
+        return new ArrayList<I>(objects);
+    }
+
+    /**
+     * No interfaces are known without Spring, so target is obtained immediately
+     */
+    @Override
+    public I wrapLazily(Supplier<? extends I> supplier, ClassLoader classLoader) {
+        return supplier.get();
+    }
+
+    @Override
+    public I acquire(I object) {
+        return object;
+    }
+
+    @Override
+    public void release(I proxy) {
+    }
+
+    @Override
+    public WrapperStatistics getStatistics() {
+        return WrapperStatistics.EMPTY;
+    }
+
     @Override
     public boolean addAspect(Object aspect) {
         return false;
     }
 
+    @Override
+    public boolean removeAspect(Object aspect) {
+        return false;
+    }
+
+    @Override
+    public boolean replaceAspect(Object oldAspect, Object newAspect) {
+        return false;
+    }
+
     @Override
     public void setInterfaces(Class... wrappedInterfaces) {
     }
@@ -37,4 +85,13 @@ public class NoopWrapperFactorySpi<I> implements WrapperFactorySpi<I> {
     @Override
     public void addInterface(Class wrappedInterface) {
     }
+
+    @Override
+    public void releaseClassLoader(ClassLoader classLoader) {
+    }
+
+    @Override
+    public WrapperFactorySpi<I> freeze() {
+        return this;
+    }
 }
@@ -0,0 +1,261 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.impl;
+
+import org.springframework.util.StringUtils;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Compiles subset of AspectJ pointcut language into plain Java predicates, so that matching does not need
+ * AspectJ weaver shadow matching. Supported are {@code &&}, {@code ||}, {@code !} and parentheses over
+ * {@code execution}, {@code within}, {@code args}, {@code this}, {@code target}, {@code @annotation},
+ * {@code @within} and {@code @target} designators without parameter binding, generics, varargs, throws clauses
+ * or annotation patterns. Simple type names are resolved against {@code java.lang} and the aspect package.
+ * Anything else is reported as null result and should be handled by AspectJ.
+ * @author Vitalii Tymchyshyn
+ */
+public class PointcutCompiler {
+    private static final Pattern NAME_PATTERN = Pattern.compile("[\\w$*]+");
+
+    private final String expression;
+    private final Class<?> scope;
+    private int position;
+
+    private PointcutCompiler(String expression, Class<?> scope) {
+        this.expression = expression;
+        this.scope = scope;
+    }
+
+    /**
+     * @param expression AspectJ pointcut expression
+     * @param scope aspect class, used to resolve type names
+     * @return compiled pointcut or null if expression can't be compiled
+     */
+    public static CompiledPointcut compile(String expression, Class<?> scope) {
+        try {
+            PointcutCompiler compiler = new PointcutCompiler(replaceBooleanOperators(expression), scope);
+            PointcutNode root = compiler.parseOr();
+            compiler.skipSpaces();
+            if (compiler.position != compiler.expression.length()) {
+                return null;
+            }
+            return new CompiledPointcut(expression, root);
+        } catch (IllegalArgumentException e) {
+            return null;
+        } catch (LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Same replacement as done by {@link org.springframework.aop.aspectj.AspectJExpressionPointcut}
+     */
+    private static String replaceBooleanOperators(String expression) {
+        String result = StringUtils.replace(expression, " and ", " && ");
+        result = StringUtils.replace(result, " or ", " || ");
+        return StringUtils.replace(result, " not ", " ! ");
+    }
+
+    private PointcutNode parseOr() {
+        PointcutNode rc = parseAnd();
+        while (consume("||")) {
+            rc = new PointcutNode.Or(rc, parseAnd());
+        }
+        return rc;
+    }
+
+    private PointcutNode parseAnd() {
+        PointcutNode rc = parseUnary();
+        while (consume("&&")) {
+            rc = new PointcutNode.And(rc, parseUnary());
+        }
+        return rc;
+    }
+
+    private PointcutNode parseUnary() {
+        if (consume("!")) {
+            return new PointcutNode.Not(parseUnary());
+        }
+        if (consume("(")) {
+            PointcutNode rc = parseOr();
+            if (!consume(")")) {
+                throw unsupported();
+            }
+            return rc;
+        }
+        return parseDesignator();
+    }
+
+    private PointcutNode parseDesignator() {
+        skipSpaces();
+        int start = position;
+        while (position < expression.length()
+                && (Character.isJavaIdentifierPart(expression.charAt(position)) || expression.charAt(position) == '@')) {
+            position++;
+        }
+        String designator = expression.substring(start, position);
+        if (!consume("(")) {
+            throw unsupported();
+        }
+        int bodyStart = position;
+        for (int depth = 1; depth > 0; position++) {
+            if (position == expression.length()) {
+                throw unsupported();
+            }
+            char c = expression.charAt(position);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            }
+        }
+        String body = expression.substring(bodyStart, position - 1).trim();
+        if (designator.equals("execution")) {
+            return parseExecution(body);
+        } else if (designator.equals("within")) {
+            return new PointcutNode.Within(TypePattern.parse(body, scope));
+        } else if (designator.equals("args")) {
+            return parseArgs(body);
+        } else if (designator.equals("this") || designator.equals("target")) {
+            return new PointcutNode.InstanceOf(designator.equals("this"), parseExactType(body));
+        } else if (designator.equals("@annotation")) {
+            return new PointcutNode.Annotated(PointcutNode.Annotated.Kind.ANNOTATION, parseAnnotationType(body));
+        } else if (designator.equals("@within")) {
+            return new PointcutNode.Annotated(PointcutNode.Annotated.Kind.WITHIN, parseAnnotationType(body));
+        } else if (designator.equals("@target")) {
+            return new PointcutNode.Annotated(PointcutNode.Annotated.Kind.TARGET, parseAnnotationType(body));
+        }
+        throw unsupported();
+    }
+
+    private PointcutNode parseExecution(String body) {
+        if (body.contains("@") || body.contains("<") || body.contains("...") || body.contains(" throws ")) {
+            throw unsupported();
+        }
+        int parametersStart = body.indexOf('(');
+        if (parametersStart < 0 || !body.endsWith(")")
+                || body.indexOf(')') != body.length() - 1 || body.indexOf('(', parametersStart + 1) >= 0) {
+            throw unsupported();
+        }
+        List<TypePattern> parameters = TypePattern.parseList(
+                body.substring(parametersStart + 1, body.length() - 1), scope);
+        String[] tokens = body.substring(0, parametersStart).trim().split("\\s+");
+        if (tokens.length < 2) {
+            throw unsupported();
+        }
+        int requiredModifiers = 0;
+        int forbiddenModifiers = 0;
+        for (int i = 0; i < tokens.length - 2; i++) {
+            boolean negated = tokens[i].startsWith("!");
+            int modifier = getModifier(negated ? tokens[i].substring(1) : tokens[i]);
+            if (negated) {
+                forbiddenModifiers |= modifier;
+            } else {
+                requiredModifiers |= modifier;
+            }
+        }
+        TypePattern returnType = TypePattern.parse(tokens[tokens.length - 2], scope);
+        String qualifiedName = tokens[tokens.length - 1];
+        int nameStart = qualifiedName.lastIndexOf('.');
+        TypePattern declaringType = TypePattern.ANY;
+        if (nameStart >= 0) {
+            if (nameStart == 0 || qualifiedName.charAt(nameStart - 1) == '.') {
+                throw unsupported();
+            }
+            declaringType = TypePattern.parse(qualifiedName.substring(0, nameStart), scope);
+        }
+        String name = qualifiedName.substring(nameStart + 1);
+        if (!NAME_PATTERN.matcher(name).matches()) {
+            throw unsupported();
+        }
+        return new PointcutNode.Execution(requiredModifiers, forbiddenModifiers, returnType, declaringType,
+                Pattern.compile(name.replace("$", "\\$").replace("*", ".*")), parameters);
+    }
+
+    private PointcutNode parseArgs(String body) {
+        List<TypePattern> types = TypePattern.parseList(body, scope);
+        int ellipsis = -1;
+        for (int i = 0; i < types.size(); i++) {
+            TypePattern type = types.get(i);
+            if (type == null) {
+                if (ellipsis >= 0) {
+                    throw unsupported();
+                }
+                ellipsis = i;
+            } else if (type != TypePattern.ANY && type.getExactType() == null) {
+                throw unsupported();
+            }
+        }
+        return new PointcutNode.Args(types, ellipsis);
+    }
+
+    private Class<?> parseExactType(String body) {
+        Class<?> rc = TypePattern.parse(body, scope).getExactType();
+        if (rc == null) {
+            throw unsupported();
+        }
+        return rc;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Class<? extends Annotation> parseAnnotationType(String body) {
+        Class<?> rc = parseExactType(body);
+        if (!rc.isAnnotation()) {
+            throw unsupported();
+        }
+        return (Class<? extends Annotation>) rc;
+    }
+
+    private static int getModifier(String name) {
+        if (name.equals("public")) {
+            return Modifier.PUBLIC;
+        } else if (name.equals("protected")) {
+            return Modifier.PROTECTED;
+        } else if (name.equals("private")) {
+            return Modifier.PRIVATE;
+        } else if (name.equals("static")) {
+            return Modifier.STATIC;
+        } else if (name.equals("final")) {
+            return Modifier.FINAL;
+        } else if (name.equals("synchronized")) {
+            return Modifier.SYNCHRONIZED;
+        }
+        throw unsupported();
+    }
+
+    private boolean consume(String token) {
+        skipSpaces();
+        if (expression.startsWith(token, position)) {
+            position += token.length();
+            return true;
+        }
+        return false;
+    }
+
+    private void skipSpaces() {
+        while (position < expression.length() && Character.isWhitespace(expression.charAt(position))) {
+            position++;
+        }
+    }
+
+    private static IllegalArgumentException unsupported() {
+        return new IllegalArgumentException("Unsupported pointcut");
+    }
+}
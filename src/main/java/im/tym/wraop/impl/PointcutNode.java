@@ -0,0 +1,297 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.impl;
+
+import org.springframework.util.ClassUtils;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Node of pointcut expression tree compiled by {@link PointcutCompiler}.
+ * @author Vitalii Tymchyshyn
+ */
+abstract class PointcutNode {
+    /**
+     * @param method most specific method being called
+     * @param targetClass target class
+     * @return what's left to check at runtime
+     */
+    abstract Residue residue(Method method, Class<?> targetClass);
+
+    /**
+     * @return if residue may depend on call arguments, proxy or target
+     */
+    boolean isDynamic() {
+        return false;
+    }
+
+    static class And extends PointcutNode {
+        private final PointcutNode left;
+        private final PointcutNode right;
+
+        And(PointcutNode left, PointcutNode right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean isDynamic() {
+            return left.isDynamic() || right.isDynamic();
+        }
+
+        @Override
+        Residue residue(Method method, Class<?> targetClass) {
+            Residue leftResidue = left.residue(method, targetClass);
+            return leftResidue == Residue.FALSE ? leftResidue
+                    : Residue.and(leftResidue, right.residue(method, targetClass));
+        }
+    }
+
+    static class Or extends PointcutNode {
+        private final PointcutNode left;
+        private final PointcutNode right;
+
+        Or(PointcutNode left, PointcutNode right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean isDynamic() {
+            return left.isDynamic() || right.isDynamic();
+        }
+
+        @Override
+        Residue residue(Method method, Class<?> targetClass) {
+            Residue leftResidue = left.residue(method, targetClass);
+            return leftResidue == Residue.TRUE ? leftResidue
+                    : Residue.or(leftResidue, right.residue(method, targetClass));
+        }
+    }
+
+    static class Not extends PointcutNode {
+        private final PointcutNode node;
+
+        Not(PointcutNode node) {
+            this.node = node;
+        }
+
+        @Override
+        boolean isDynamic() {
+            return node.isDynamic();
+        }
+
+        @Override
+        Residue residue(Method method, Class<?> targetClass) {
+            return Residue.not(node.residue(method, targetClass));
+        }
+    }
+
+    /**
+     * {@code execution([modifiers] returnType [declaringType.]name(params))}
+     */
+    static class Execution extends PointcutNode {
+        private final int requiredModifiers;
+        private final int forbiddenModifiers;
+        private final TypePattern returnType;
+        private final TypePattern declaringType;
+        private final Pattern name;
+        private final List<TypePattern> parameters;
+
+        Execution(int requiredModifiers, int forbiddenModifiers, TypePattern returnType, TypePattern declaringType,
+                  Pattern name, List<TypePattern> parameters) {
+            this.requiredModifiers = requiredModifiers;
+            this.forbiddenModifiers = forbiddenModifiers;
+            this.returnType = returnType;
+            this.declaringType = declaringType;
+            this.name = name;
+            this.parameters = parameters;
+        }
+
+        @Override
+        Residue residue(Method method, Class<?> targetClass) {
+            int modifiers = method.getModifiers();
+            boolean matches = (modifiers & requiredModifiers) == requiredModifiers
+                    && (modifiers & forbiddenModifiers) == 0
+                    && name.matcher(method.getName()).matches()
+                    && returnType.matches(method.getReturnType())
+                    && TypePattern.matches(parameters, method.getParameterTypes())
+                    && declaringTypeMatches(method);
+            return matches ? Residue.TRUE : Residue.FALSE;
+        }
+
+        /**
+         * Execution join point signature includes every supertype declaring the method, so it is enough
+         * for any of those to match.
+         */
+        private boolean declaringTypeMatches(Method method) {
+            if (declaringType == TypePattern.ANY) {
+                return true;
+            }
+            for (Class<?> supertype : TypePattern.getSupertypes(method.getDeclaringClass())) {
+                if (declaringType.matches(supertype) && declares(supertype, method)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean declares(Class<?> type, Method method) {
+            try {
+                type.getDeclaredMethod(method.getName(), method.getParameterTypes());
+                return true;
+            } catch (NoSuchMethodException e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * {@code within(typePattern)}
+     */
+    static class Within extends PointcutNode {
+        private final TypePattern type;
+
+        Within(TypePattern type) {
+            this.type = type;
+        }
+
+        @Override
+        Residue residue(Method method, Class<?> targetClass) {
+            return type.matches(method.getDeclaringClass()) ? Residue.TRUE : Residue.FALSE;
+        }
+    }
+
+    /**
+     * {@code args(types)}, where each type is exact type, {@code *} or single {@code ..}
+     */
+    static class Args extends PointcutNode {
+        private final List<TypePattern> types;
+        private final int ellipsis;
+
+        Args(List<TypePattern> types, int ellipsis) {
+            this.types = types;
+            this.ellipsis = ellipsis;
+        }
+
+        @Override
+        boolean isDynamic() {
+            return true;
+        }
+
+        @Override
+        Residue residue(Method method, Class<?> targetClass) {
+            Class<?>[] parameterTypes = method.getParameterTypes();
+            int fixed = ellipsis < 0 ? types.size() : types.size() - 1;
+            if (ellipsis < 0 ? parameterTypes.length != fixed : parameterTypes.length < fixed) {
+                return Residue.FALSE;
+            }
+            Residue rc = Residue.TRUE;
+            for (int i = 0; i < types.size() && rc != Residue.FALSE; i++) {
+                if (i == ellipsis || types.get(i) == TypePattern.ANY) {
+                    continue;
+                }
+                int index = ellipsis < 0 || i < ellipsis ? i : parameterTypes.length - (types.size() - i);
+                rc = Residue.and(rc, argResidue(index, parameterTypes[index], types.get(i).getExactType()));
+            }
+            return rc;
+        }
+
+        private static Residue argResidue(int index, Class<?> parameterType, Class<?> type) {
+            Class<?> boxedType = ClassUtils.resolvePrimitiveIfNecessary(type);
+            Class<?> boxedParameterType = ClassUtils.resolvePrimitiveIfNecessary(parameterType);
+            if (boxedType.isAssignableFrom(boxedParameterType)) {
+                return Residue.TRUE;
+            }
+            if (boxedParameterType.isAssignableFrom(boxedType) || boxedType.isInterface()
+                    || boxedParameterType.isInterface()) {
+                return Residue.argInstanceOf(index, boxedType);
+            }
+            return Residue.FALSE;
+        }
+    }
+
+    /**
+     * {@code this(type)} or {@code target(type)}
+     */
+    static class InstanceOf extends PointcutNode {
+        private final boolean proxy;
+        private final Class<?> type;
+
+        InstanceOf(boolean proxy, Class<?> type) {
+            this.proxy = proxy;
+            this.type = type;
+        }
+
+        @Override
+        boolean isDynamic() {
+            return true;
+        }
+
+        @Override
+        Residue residue(Method method, Class<?> targetClass) {
+            if (proxy) {
+                return Residue.proxyInstanceOf(type);
+            }
+            if (targetClass == null) {
+                return Residue.targetInstanceOf(type);
+            }
+            if (type.isAssignableFrom(targetClass)) {
+                return Residue.TRUE;
+            }
+            if (targetClass.isInterface() || Modifier.isAbstract(targetClass.getModifiers())) {
+                return Residue.targetInstanceOf(type);
+            }
+            return Residue.FALSE;
+        }
+    }
+
+    /**
+     * {@code @annotation(type)}, {@code @within(type)} or {@code @target(type)}
+     */
+    static class Annotated extends PointcutNode {
+        enum Kind {ANNOTATION, WITHIN, TARGET}
+
+        private final Kind kind;
+        private final Class<? extends Annotation> type;
+
+        Annotated(Kind kind, Class<? extends Annotation> type) {
+            this.kind = kind;
+            this.type = type;
+        }
+
+        @Override
+        Residue residue(Method method, Class<?> targetClass) {
+            boolean matches;
+            switch (kind) {
+                case ANNOTATION:
+                    matches = method.isAnnotationPresent(type);
+                    break;
+                case WITHIN:
+                    matches = method.getDeclaringClass().isAnnotationPresent(type);
+                    break;
+                default:
+                    matches = (targetClass != null ? targetClass : method.getDeclaringClass())
+                            .isAnnotationPresent(type);
+            }
+            return matches ? Residue.TRUE : Residue.FALSE;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.impl;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.springframework.aop.AopInvocationException;
+import org.springframework.aop.RawTargetAccess;
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.framework.AdvisedSupport;
+import org.springframework.aop.framework.AopConfigException;
+import org.springframework.aop.framework.AopProxy;
+import org.springframework.aop.framework.AopProxyUtils;
+import org.springframework.aop.framework.ReflectiveMethodInvocation;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * JDK dynamic proxy that resolves interceptor chains of all the methods of proxied interfaces as a single table.
+ * Static interface methods can't be called through a proxy and are skipped.
+ * Each call goes directly to it's method chain, methods without advice call the target without any
+ * interception. Works only with static target sources. Proxy classes are taken from {@link ProxyClassCache}.
+ * If configuration is a {@link ChainTableSource}, it's chains are resolved once and shared by all the proxies
+ * made from it for the same target class. Such configuration is asked for the table on each call, so it may
+ * switch it when advice changes.
+ * @author Vitalii Tymchyshyn
+ */
+public class PrecompiledAopProxy implements AopProxy, InvocationHandler {
+    private static final Method TO_STRING_METHOD = ReflectionUtils.findMethod(Object.class, "toString");
+
+    private final AdvisedSupport advised;
+    private final ProxyClassCache proxyClassCache;
+    private final Class<?>[] proxiedInterfaces;
+    private final Object target;
+    private final Class<?> targetClass;
+    private final ChainTableSource chainTableSource;
+    private final Map<Method, MethodChain> chains;
+
+    public PrecompiledAopProxy(AdvisedSupport advised, ProxyClassCache proxyClassCache) throws AopConfigException {
+        this.advised = advised;
+        this.proxyClassCache = proxyClassCache;
+        this.proxiedInterfaces = AopProxyUtils.completeProxiedInterfaces(advised);
+        try {
+            this.target = advised.getTargetSource().getTarget();
+        } catch (Exception e) {
+            throw new AopConfigException("Can't get target from " + advised.getTargetSource(), e);
+        }
+        this.targetClass = target == null ? null : target.getClass();
+        if (advised instanceof ChainTableSource) {
+            this.chainTableSource = (ChainTableSource) advised;
+            this.chains = null;
+            chainTableSource.getChainTable(this, targetClass);
+        } else {
+            this.chainTableSource = null;
+            this.chains = buildChainTable(advised.getProxiedInterfaces(), new Function<Method, List<Object>>() {
+                @Override
+                public List<Object> apply(Method method) {
+                    return PrecompiledAopProxy.this.advised.getInterceptorsAndDynamicInterceptionAdvice(
+                            method, PrecompiledAopProxy.this.targetClass);
+                }
+            });
+        }
+    }
+
+    /**
+     * Resolves chains of all the proxied methods. Result depends only on interceptors, proxied interfaces and
+     * the class of this proxy, so it can be shared between proxies.
+     * @param interfaces proxied interfaces
+     * @param interceptors resolves interceptors and dynamic interception advice of a method
+     * @return chains by method, must not be changed
+     */
+    Map<Method, MethodChain> buildChainTable(Class<?>[] interfaces, Function<Method, List<Object>> interceptors) {
+        Map<Method, MethodChain> rc = new HashMap<Method, MethodChain>();
+        for (Class<?> proxiedInterface : interfaces) {
+            for (Method method : proxiedInterface.getMethods()) {
+                if (!Modifier.isStatic(method.getModifiers())) {
+                    addChain(rc, interceptors, method);
+                }
+            }
+        }
+        addChain(rc, interceptors, TO_STRING_METHOD);
+        return rc;
+    }
+
+    private void addChain(Map<Method, MethodChain> chains, Function<Method, List<Object>> interceptors,
+                          Method method) {
+        if (!chains.containsKey(method)) {
+            chains.put(method, createChain(method, interceptors.apply(method)));
+        }
+    }
+
+    /**
+     * Called for each proxied method when chains are resolved
+     * @param method method to make chain for
+     * @param interceptors resolved interceptors and dynamic interception advice
+     * @return chain to use for given method calls
+     */
+    protected MethodChain createChain(Method method, List<Object> interceptors) {
+        return new MethodChain(method, interceptors);
+    }
+
+    @Override
+    public Object getProxy() {
+        return getProxy(ClassUtils.getDefaultClassLoader());
+    }
+
+    @Override
+    public Object getProxy(ClassLoader classLoader) {
+        return proxyClassCache.newProxyInstance(classLoader, proxiedInterfaces, this);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        MethodChain chain = getChains().get(method);
+        if (chain == null) {
+            return invokeUnlisted(method, args);
+        }
+        Object retVal;
+        if (chain.interceptors.isEmpty()) {
+            retVal = chain.invokeTarget(target, args);
+        } else {
+            retVal = invokeChain(proxy, target, targetClass, chain, args);
+        }
+        Class<?> returnType = method.getReturnType();
+        if (retVal != null && retVal == target && returnType.isInstance(proxy) &&
+                !RawTargetAccess.class.isAssignableFrom(method.getDeclaringClass())) {
+            retVal = proxy;
+        } else if (retVal == null && returnType != Void.TYPE && returnType.isPrimitive()) {
+            throw new AopInvocationException(
+                    "Null return value from advice does not match primitive return type for: " + method);
+        }
+        return retVal;
+    }
+
+    /**
+     * @return target object
+     */
+    protected Object getTarget() {
+        return target;
+    }
+
+    /**
+     * @param method proxied method
+     * @return chain of given method, null if it's not a proxied interface method
+     */
+    protected MethodChain getChain(Method method) {
+        return getChains().get(method);
+    }
+
+    private Map<Method, MethodChain> getChains() {
+        return chainTableSource == null ? chains : chainTableSource.getChainTable(this, targetClass);
+    }
+
+    /**
+     * Calls method through interceptor chain
+     * @param proxy proxy called
+     * @param target target object
+     * @param targetClass target class
+     * @param chain non-empty method chain
+     * @param args call arguments
+     * @return call result
+     * @throws Throwable exception thrown by interceptors or target
+     */
+    protected Object invokeChain(Object proxy, Object target, Class<?> targetClass, MethodChain chain, Object[] args)
+            throws Throwable {
+        return new PrecompiledMethodInvocation(proxy, target, chain.method, args, targetClass, chain).proceed();
+    }
+
+    /**
+     * Handles methods that are not declared by proxied interfaces: equals, hashCode and {@link Advised}
+     */
+    private Object invokeUnlisted(Method method, Object[] args) throws Throwable {
+        if (AopUtils.isEqualsMethod(method)) {
+            return equals(args[0]);
+        }
+        if (AopUtils.isHashCodeMethod(method)) {
+            return hashCode();
+        }
+        if (!advised.isOpaque() && method.getDeclaringClass().isInterface() &&
+                method.getDeclaringClass().isAssignableFrom(Advised.class)) {
+            return AopUtils.invokeJoinpointUsingReflection(advised, method, args);
+        }
+        return AopUtils.invokeJoinpointUsingReflection(target, method, args);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other == this) {
+            return true;
+        }
+        InvocationHandler handler = GeneratedProxy.getInvocationHandler(other);
+        return handler instanceof PrecompiledAopProxy &&
+                AopProxyUtils.equalsInProxy(advised, ((PrecompiledAopProxy) handler).advised);
+    }
+
+    @Override
+    public int hashCode() {
+        return PrecompiledAopProxy.class.hashCode() * 13 + advised.getTargetSource().hashCode();
+    }
+
+    /**
+     * Configuration that keeps chains resolved by {@link #buildChainTable(Class[], Function)} to share them
+     * between proxies
+     */
+    interface ChainTableSource {
+        /**
+         * Called when proxy is created and on each call, so must be cheap once the table is known
+         * @param proxy proxy asking, to build the table with if it's not known yet
+         * @param targetClass target class
+         * @return chains by method
+         */
+        Map<Method, MethodChain> getChainTable(PrecompiledAopProxy proxy, Class<?> targetClass);
+    }
+
+    /**
+     * Resolved interceptors of single method together with the way to call the target
+     */
+    protected static class MethodChain {
+        protected final Method method;
+        protected final List<Object> interceptors;
+        /**
+         * If chain has dynamic interception advice, not only {@link MethodInterceptor}s
+         */
+        protected final boolean dynamic;
+
+        public MethodChain(Method method, List<Object> interceptors) {
+            this.method = method;
+            this.interceptors = interceptors;
+            boolean dynamic = false;
+            for (Object interceptor : interceptors) {
+                dynamic |= !(interceptor instanceof MethodInterceptor);
+            }
+            this.dynamic = dynamic;
+        }
+
+        /**
+         * Calls the target method. Default implementation uses reflection
+         * @param target object to call method on
+         * @param args method arguments
+         * @return method result
+         * @throws Throwable exception thrown by the target method
+         */
+        public Object invokeTarget(Object target, Object[] args) throws Throwable {
+            return AopUtils.invokeJoinpointUsingReflection(target, method, args);
+        }
+    }
+
+    private static class PrecompiledMethodInvocation extends ReflectiveMethodInvocation {
+        private final MethodChain chain;
+
+        PrecompiledMethodInvocation(Object proxy, Object target, Method method, Object[] arguments,
+                                    Class targetClass, MethodChain chain) {
+            super(proxy, target, method, arguments, targetClass, chain.interceptors);
+            this.chain = chain;
+        }
+
+        @Override
+        protected Object invokeJoinpoint() throws Throwable {
+            return chain.invokeTarget(target, arguments);
+        }
+    }
+}
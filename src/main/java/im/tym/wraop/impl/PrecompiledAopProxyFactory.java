@@ -0,0 +1,67 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.impl;
+
+import org.springframework.aop.framework.AdvisedSupport;
+import org.springframework.aop.framework.AopConfigException;
+import org.springframework.aop.framework.AopProxy;
+import org.springframework.aop.framework.AopProxyFactory;
+import org.springframework.aop.framework.DefaultAopProxyFactory;
+
+/**
+ * Creates {@link PrecompiledAopProxy} for interface-based proxies with static target. For everything else
+ * (class proxies, proxy exposure, dynamic targets) falls back to {@link DefaultAopProxyFactory}.
+ * @author Vitalii Tymchyshyn
+ */
+public class PrecompiledAopProxyFactory implements AopProxyFactory {
+    private final AopProxyFactory fallback = new DefaultAopProxyFactory();
+    private final ProxyClassCache proxyClassCache;
+
+    public PrecompiledAopProxyFactory() {
+        this(new ProxyClassCache());
+    }
+
+    /**
+     * @param proxyClassCache cache to take proxy classes from
+     */
+    protected PrecompiledAopProxyFactory(ProxyClassCache proxyClassCache) {
+        this.proxyClassCache = proxyClassCache;
+    }
+
+    @Override
+    public AopProxy createAopProxy(AdvisedSupport config) throws AopConfigException {
+        if (config.isOptimize() || config.isProxyTargetClass() || config.isExposeProxy()
+                || config.getProxiedInterfaces().length == 0 || !config.getTargetSource().isStatic()) {
+            return fallback.createAopProxy(config);
+        }
+        return createPrecompiledProxy(config);
+    }
+
+    /**
+     * @param config proxy configuration with interfaces and static target
+     * @return proxy to use
+     */
+    protected AopProxy createPrecompiledProxy(AdvisedSupport config) {
+        return new PrecompiledAopProxy(config, proxyClassCache);
+    }
+
+    /**
+     * @return cache of proxy classes created by this factory
+     */
+    public ProxyClassCache getProxyClassCache() {
+        return proxyClassCache;
+    }
+}
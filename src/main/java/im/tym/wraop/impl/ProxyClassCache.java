@@ -0,0 +1,266 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.impl;
+
+import org.springframework.aop.framework.AopConfigException;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Cache of JDK proxy classes keyed by class loader and interface list. Once proxy class is cached, making
+ * a proxy is a single constructor call.</p>
+ * <p>Nothing here keeps a class loader from being unloaded: keys reference class loader and interfaces weakly and
+ * entries are dropped once their class loader is collected. Proxy classes are referenced weakly too, they are kept
+ * alive by the class loader they are defined in.</p>
+ * @author Vitalii Tymchyshyn
+ */
+public class ProxyClassCache {
+    private static final ClassValue<Constructor<?>> CONSTRUCTORS = new ClassValue<Constructor<?>>() {
+        @Override
+        protected Constructor<?> computeValue(Class<?> proxyClass) {
+            try {
+                return proxyClass.getConstructor(InvocationHandler.class);
+            } catch (NoSuchMethodException e) {
+                throw new AopConfigException("Can't find proxy constructor for " + proxyClass, e);
+            }
+        }
+    };
+
+    private final ConcurrentMap<Object, WeakReference<Class<?>>> proxyClasses =
+            new ConcurrentHashMap<Object, WeakReference<Class<?>>>();
+    private final ReferenceQueue<ClassLoader> collectedClassLoaders = new ReferenceQueue<ClassLoader>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param classLoader class loader to define proxy class in
+     * @param interfaces interfaces proxy should implement
+     * @param handler invocation handler for the proxy
+     * @return new proxy instance
+     */
+    public Object newProxyInstance(ClassLoader classLoader, Class<?>[] interfaces, InvocationHandler handler) {
+        try {
+            return CONSTRUCTORS.get(getProxyClass(classLoader, interfaces)).newInstance(handler);
+        } catch (InvocationTargetException e) {
+            ReflectionUtils.rethrowRuntimeException(e.getTargetException());
+            throw new IllegalStateException(e);
+        } catch (ReflectiveOperationException e) {
+            throw new AopConfigException("Can't create proxy for " + Arrays.toString(interfaces), e);
+        }
+    }
+
+    /**
+     * @param classLoader class loader to define proxy class in
+     * @param interfaces interfaces proxy should implement
+     * @return proxy class
+     */
+    public Class<?> getProxyClass(ClassLoader classLoader, Class<?>[] interfaces) {
+        WeakReference<Class<?>> reference = proxyClasses.get(new LookupKey(classLoader, interfaces));
+        Class<?> proxyClass = reference == null ? null : reference.get();
+        if (proxyClass != null) {
+            hits.increment();
+            return proxyClass;
+        }
+        misses.increment();
+        expungeCollected();
+        proxyClass = createProxyClass(classLoader, interfaces);
+        proxyClasses.put(new StoredKey(classLoader, interfaces, collectedClassLoaders),
+                new WeakReference<Class<?>>(proxyClass));
+        return proxyClass;
+    }
+
+    /**
+     * Called on cache miss
+     * @param classLoader class loader to define proxy class in
+     * @param interfaces interfaces proxy should implement
+     * @return proxy class with public constructor taking {@link InvocationHandler}, JDK proxy class by default
+     */
+    protected Class<?> createProxyClass(ClassLoader classLoader, Class<?>[] interfaces) {
+        return Proxy.getProxyClass(classLoader, interfaces);
+    }
+
+    /**
+     * @return number of lookups that found cached proxy class
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of lookups that had to resolve proxy class
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of cached proxy classes
+     */
+    public int size() {
+        expungeCollected();
+        return proxyClasses.size();
+    }
+
+    /**
+     * Drops proxy classes defined in given class loader or implementing it's interfaces, e.g. on redeploy. They
+     * are dropped after the class loader is collected anyway, this makes it right away.
+     * @param classLoader class loader to forget
+     */
+    public void releaseClassLoader(ClassLoader classLoader) {
+        expungeCollected();
+        for (Object key : proxyClasses.keySet()) {
+            if (((Key) key).references(classLoader)) {
+                proxyClasses.remove(key);
+            }
+        }
+    }
+
+    private void expungeCollected() {
+        Reference<? extends ClassLoader> reference;
+        while ((reference = collectedClassLoaders.poll()) != null) {
+            proxyClasses.remove(((ClassLoaderReference) reference).key);
+        }
+    }
+
+    /**
+     * Key data common for lookup and stored keys, so that they are equal to each other
+     */
+    private static abstract class Key {
+        private final int hashCode;
+
+        Key(ClassLoader classLoader, Class<?>[] interfaces) {
+            this.hashCode = System.identityHashCode(classLoader) * 31 + Arrays.hashCode(interfaces);
+        }
+
+        abstract ClassLoader getClassLoader();
+        abstract int getInterfaceCount();
+        abstract Class<?> getInterface(int index);
+
+        boolean references(ClassLoader classLoader) {
+            if (getClassLoader() == classLoader) {
+                return true;
+            }
+            for (int i = 0; i < getInterfaceCount(); i++) {
+                Class<?> proxiedInterface = getInterface(i);
+                if (proxiedInterface != null && proxiedInterface.getClassLoader() == classLoader) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            if (hashCode != other.hashCode || getClassLoader() != other.getClassLoader()
+                    || getInterfaceCount() != other.getInterfaceCount()) {
+                return false;
+            }
+            for (int i = 0; i < getInterfaceCount(); i++) {
+                if (getInterface(i) != other.getInterface(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static class LookupKey extends Key {
+        private final ClassLoader classLoader;
+        private final Class<?>[] interfaces;
+
+        LookupKey(ClassLoader classLoader, Class<?>[] interfaces) {
+            super(classLoader, interfaces);
+            this.classLoader = classLoader;
+            this.interfaces = interfaces;
+        }
+
+        @Override
+        ClassLoader getClassLoader() {
+            return classLoader;
+        }
+
+        @Override
+        int getInterfaceCount() {
+            return interfaces.length;
+        }
+
+        @Override
+        Class<?> getInterface(int index) {
+            return interfaces[index];
+        }
+    }
+
+    private static class StoredKey extends Key {
+        private final ClassLoaderReference classLoader;
+        private final WeakReference<Class<?>>[] interfaces;
+
+        StoredKey(ClassLoader classLoader, Class<?>[] interfaces, ReferenceQueue<ClassLoader> queue) {
+            super(classLoader, interfaces);
+            this.classLoader = classLoader == null ? null : new ClassLoaderReference(classLoader, queue, this);
+            this.interfaces = new WeakReference[interfaces.length];
+            for (int i = 0; i < interfaces.length; i++) {
+                this.interfaces[i] = new WeakReference<Class<?>>(interfaces[i]);
+            }
+        }
+
+        @Override
+        ClassLoader getClassLoader() {
+            return classLoader == null ? null : classLoader.get();
+        }
+
+        @Override
+        int getInterfaceCount() {
+            return interfaces.length;
+        }
+
+        @Override
+        Class<?> getInterface(int index) {
+            return interfaces[index].get();
+        }
+    }
+
+    private static class ClassLoaderReference extends WeakReference<ClassLoader> {
+        private final StoredKey key;
+
+        ClassLoaderReference(ClassLoader classLoader, ReferenceQueue<ClassLoader> queue, StoredKey key) {
+            super(classLoader, queue);
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,441 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.impl;
+
+import org.springframework.aop.RawTargetAccess;
+import org.springframework.asm.ClassWriter;
+import org.springframework.asm.Label;
+import org.springframework.asm.MethodVisitor;
+import org.springframework.asm.Opcodes;
+import org.springframework.asm.Type;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates {@link GeneratedProxy} subclasses implementing given interfaces. Unlike JDK dynamic proxies, methods
+ * the handler allows to call directly pass their arguments and return value to the target without boxing and
+ * argument arrays. Other calls go to the invocation handler with the same semantics as JDK proxies have,
+ * including {@link UndeclaredThrowableException} for undeclared checked exceptions.
+ * <p>Proxy classes are defined with {@code MethodHandles.Lookup.defineClass} when the requested class loader is the
+ * one of WrAOP or of the non-public interface, otherwise in a dedicated child of requested class loader. Methods are
+ * looked up into a private static final field by the class initializer, same as JDK proxies do. Interfaces with
+ * conflicting method declarations or non-public interfaces that can't be implemented from single package are not
+ * supported, so are class loaders that don't see WrAOP classes. For those, and if the class can't be defined or
+ * initialized, {@link #generate(ClassLoader, Class[])} returns null and JDK proxy classes are used instead.</p>
+ * @author Vitalii Tymchyshyn
+ */
+public class ProxyClassGenerator implements Opcodes {
+    private static final String METHODS_FIELD = "wraop$methods";
+    private static final String BASE_CLASS = Type.getInternalName(GeneratedProxy.class);
+    private static final String HANDLER_TYPE = Type.getInternalName(InvocationHandler.class);
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+    private static final Method PRIVATE_LOOKUP_IN = ClassUtils.getMethodIfAvailable(
+            MethodHandles.class, "privateLookupIn", Class.class, MethodHandles.Lookup.class);
+    private static final Method LOOKUP_DEFINE_CLASS = PRIVATE_LOOKUP_IN == null ? null
+            : ClassUtils.getMethodIfAvailable(MethodHandles.Lookup.class, "defineClass", byte[].class);
+    private static final Method CLASS_LOADER_DEFINE_CLASS = LOOKUP_DEFINE_CLASS != null ? null
+            : ReflectionUtils.findMethod(ClassLoader.class, "defineClass",
+            String.class, byte[].class, int.class, int.class);
+
+    private final String className;
+    private final Class<?>[] interfaces;
+    private final List<Method> methods;
+
+    private ProxyClassGenerator(String className, Class<?>[] interfaces, List<Method> methods) {
+        this.className = className;
+        this.interfaces = interfaces;
+        this.methods = methods;
+    }
+
+    /**
+     * @param classLoader class loader to define proxy class in
+     * @param interfaces interfaces to implement
+     * @return proxy class with public constructor taking {@link InvocationHandler} or null if interfaces are not
+     * supported
+     */
+    public static Class<?> generate(ClassLoader classLoader, Class<?>[] interfaces) {
+        if (!ClassUtils.isVisible(GeneratedProxy.class, classLoader)) {
+            return null;
+        }
+        String packageName = null;
+        Class<?> packageClass = GeneratedProxy.class;
+        for (Class<?> proxiedInterface : interfaces) {
+            if (!proxiedInterface.isInterface() || !ClassUtils.isVisible(proxiedInterface, classLoader)) {
+                return null;
+            }
+            if (!Modifier.isPublic(proxiedInterface.getModifiers())) {
+                String interfacePackage = ClassUtils.getPackageName(proxiedInterface);
+                if (packageName != null && !packageName.equals(interfacePackage)
+                        || proxiedInterface.getClassLoader() != classLoader) {
+                    return null;
+                }
+                packageName = interfacePackage;
+                packageClass = proxiedInterface;
+            }
+        }
+        if (packageName == null) {
+            packageName = ClassUtils.getPackageName(GeneratedProxy.class);
+        }
+        List<Method> methods = collectMethods(interfaces, packageName);
+        if (methods == null) {
+            return null;
+        }
+        String className = packageName + ".$WrAOPProxy" + COUNTER.incrementAndGet();
+        byte[] bytes = new ProxyClassGenerator(className, interfaces, methods).generate();
+        try {
+            Class<?> rc = defineClass(className, bytes, classLoader, packageClass);
+            return rc == null ? null : Class.forName(rc.getName(), true, rc.getClassLoader());
+        } catch (Exception e) {
+            return null;
+        } catch (LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Defines the class with {@code MethodHandles.Lookup.defineClass} of the class from the same package when it's
+     * available and that class is in requested class loader. Proxies of public interfaces are otherwise defined in
+     * a dedicated child class loader: they only need public and protected members, so any runtime package will do.
+     * Proxies of non-public interfaces must be in the package of the interface, before Java 9 they are defined with
+     * {@link ClassLoader} method made accessible, as nothing prevents it there.
+     * @param packageClass class from the package of defined class
+     * @return defined class, null if it can't be defined
+     */
+    private static Class<?> defineClass(String className, byte[] bytes, ClassLoader classLoader,
+                                        Class<?> packageClass) throws Exception {
+        if (LOOKUP_DEFINE_CLASS != null && packageClass.getClassLoader() == classLoader) {
+            Object lookup = PRIVATE_LOOKUP_IN.invoke(null, packageClass, MethodHandles.lookup());
+            return (Class<?>) LOOKUP_DEFINE_CLASS.invoke(lookup, (Object) bytes);
+        }
+        if (packageClass == GeneratedProxy.class) {
+            return new ProxyClassLoader(classLoader).defineClass(className, bytes);
+        }
+        if (CLASS_LOADER_DEFINE_CLASS != null) {
+            ReflectionUtils.makeAccessible(CLASS_LOADER_DEFINE_CLASS);
+            return (Class<?>) CLASS_LOADER_DEFINE_CLASS.invoke(classLoader, className, bytes, 0, bytes.length);
+        }
+        return null;
+    }
+
+    /**
+     * @return methods to implement: {@code hashCode}, {@code equals} and {@code toString} followed by interface
+     * methods, null if interfaces are not supported
+     */
+    private static List<Method> collectMethods(Class<?>[] interfaces, String packageName) {
+        Map<String, Method> rc = new LinkedHashMap<String, Method>();
+        for (Method method : new Method[]{ReflectionUtils.findMethod(Object.class, "hashCode"),
+                ReflectionUtils.findMethod(Object.class, "equals", Object.class),
+                ReflectionUtils.findMethod(Object.class, "toString")}) {
+            rc.put(getKey(method), method);
+        }
+        for (Class<?> proxiedInterface : interfaces) {
+            for (Method method : proxiedInterface.getMethods()) {
+                if (Modifier.isStatic(method.getModifiers())) {
+                    continue;
+                }
+                Class<?> declaringClass = method.getDeclaringClass();
+                if (!Modifier.isPublic(declaringClass.getModifiers())
+                        && !ClassUtils.getPackageName(declaringClass).equals(packageName)) {
+                    return null;
+                }
+                Method existing = rc.get(getKey(method));
+                if (existing == null) {
+                    rc.put(getKey(method), method);
+                } else if (existing.getDeclaringClass() != Object.class
+                        && (existing.getReturnType() != method.getReturnType()
+                        || !Arrays.equals(existing.getExceptionTypes(), method.getExceptionTypes()))) {
+                    return null;
+                }
+            }
+        }
+        return new ArrayList<Method>(rc.values());
+    }
+
+    private static String getKey(Method method) {
+        return method.getName() + Type.getMethodDescriptor(Type.VOID_TYPE, Type.getArgumentTypes(method));
+    }
+
+    private byte[] generate() {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        String[] interfaceNames = new String[interfaces.length];
+        for (int i = 0; i < interfaces.length; i++) {
+            interfaceNames[i] = Type.getInternalName(interfaces[i]);
+        }
+        writer.visit(V1_5, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, className.replace('.', '/'), null, BASE_CLASS,
+                interfaceNames);
+        writer.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, METHODS_FIELD, "[Ljava/lang/reflect/Method;", null,
+                null).visitEnd();
+        generateStaticInitializer(writer);
+        generateConstructor(writer);
+        for (int i = 0; i < methods.size(); i++) {
+            generateMethod(writer, i, methods.get(i));
+        }
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    /**
+     * Looks methods up with {@link Class#getMethod(String, Class[])} of their declaring classes
+     */
+    private void generateStaticInitializer(ClassWriter writer) {
+        MethodVisitor mv = writer.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
+        mv.visitCode();
+        pushInt(mv, methods.size());
+        mv.visitTypeInsn(ANEWARRAY, "java/lang/reflect/Method");
+        for (int i = 0; i < methods.size(); i++) {
+            Method method = methods.get(i);
+            Class<?>[] parameterTypes = method.getParameterTypes();
+            mv.visitInsn(DUP);
+            pushInt(mv, i);
+            mv.visitLdcInsn(Type.getType(method.getDeclaringClass()));
+            mv.visitLdcInsn(method.getName());
+            pushInt(mv, parameterTypes.length);
+            mv.visitTypeInsn(ANEWARRAY, "java/lang/Class");
+            for (int j = 0; j < parameterTypes.length; j++) {
+                mv.visitInsn(DUP);
+                pushInt(mv, j);
+                pushClass(mv, parameterTypes[j]);
+                mv.visitInsn(AASTORE);
+            }
+            mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/Class", "getMethod",
+                    "(Ljava/lang/String;[Ljava/lang/Class;)Ljava/lang/reflect/Method;", false);
+            mv.visitInsn(AASTORE);
+        }
+        mv.visitFieldInsn(PUTSTATIC, className.replace('.', '/'), METHODS_FIELD, "[Ljava/lang/reflect/Method;");
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    /**
+     * Primitive classes can't be loaded as constants, they are taken from their wrappers
+     */
+    private static void pushClass(MethodVisitor mv, Class<?> type) {
+        if (type.isPrimitive()) {
+            String wrapper = Type.getInternalName(ClassUtils.resolvePrimitiveIfNecessary(type));
+            mv.visitFieldInsn(GETSTATIC, wrapper, "TYPE", "Ljava/lang/Class;");
+        } else {
+            mv.visitLdcInsn(Type.getType(type));
+        }
+    }
+
+    private void generateConstructor(ClassWriter writer) {
+        MethodVisitor mv = writer.visitMethod(ACC_PUBLIC, "<init>", "(L" + HANDLER_TYPE + ";)V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitFieldInsn(GETSTATIC, className.replace('.', '/'), METHODS_FIELD, "[Ljava/lang/reflect/Method;");
+        mv.visitMethodInsn(INVOKESPECIAL, BASE_CLASS, "<init>",
+                "(L" + HANDLER_TYPE + ";[Ljava/lang/reflect/Method;)V", false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    private void generateMethod(ClassWriter writer, int index, Method method) {
+        Class<?>[] exceptionTypes = method.getExceptionTypes();
+        String[] exceptionNames = new String[exceptionTypes.length];
+        for (int i = 0; i < exceptionTypes.length; i++) {
+            exceptionNames[i] = Type.getInternalName(exceptionTypes[i]);
+        }
+        MethodVisitor mv = writer.visitMethod(ACC_PUBLIC | ACC_FINAL, method.getName(),
+                Type.getMethodDescriptor(method), null, exceptionNames);
+        mv.visitCode();
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        Class<?> returnType = method.getReturnType();
+        Type returnAsmType = Type.getType(returnType);
+
+        Label viaHandler = new Label();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitFieldInsn(GETFIELD, BASE_CLASS, "direct", "[Z");
+        pushInt(mv, index);
+        mv.visitInsn(BALOAD);
+        mv.visitJumpInsn(IFEQ, viaHandler);
+        generateDirectCall(mv, method, parameterTypes);
+        mv.visitInsn(returnAsmType.getOpcode(IRETURN));
+
+        mv.visitLabel(viaHandler);
+        Label tryStart = new Label();
+        Label tryEnd = new Label();
+        mv.visitLabel(tryStart);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitFieldInsn(GETFIELD, BASE_CLASS, "handler", "L" + HANDLER_TYPE + ";");
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitFieldInsn(GETSTATIC, className.replace('.', '/'), METHODS_FIELD, "[Ljava/lang/reflect/Method;");
+        pushInt(mv, index);
+        mv.visitInsn(AALOAD);
+        generateArgumentArray(mv, parameterTypes);
+        mv.visitMethodInsn(INVOKEINTERFACE, HANDLER_TYPE, "invoke",
+                "(Ljava/lang/Object;Ljava/lang/reflect/Method;[Ljava/lang/Object;)Ljava/lang/Object;", true);
+        if (returnType == Void.TYPE) {
+            mv.visitInsn(POP);
+        } else if (returnType.isPrimitive()) {
+            String wrapper = Type.getInternalName(ClassUtils.resolvePrimitiveIfNecessary(returnType));
+            mv.visitTypeInsn(CHECKCAST, wrapper);
+            mv.visitMethodInsn(INVOKEVIRTUAL, wrapper, returnType.getName() + "Value",
+                    Type.getMethodDescriptor(returnAsmType), false);
+        } else {
+            mv.visitTypeInsn(CHECKCAST, returnAsmType.getInternalName());
+        }
+        mv.visitInsn(returnAsmType.getOpcode(IRETURN));
+        mv.visitLabel(tryEnd);
+        generateExceptionHandlers(mv, tryStart, tryEnd, exceptionTypes, parameterTypes);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    private void generateDirectCall(MethodVisitor mv, Method method, Class<?>[] parameterTypes) {
+        Class<?> declaringClass = method.getDeclaringClass();
+        String owner = Type.getInternalName(declaringClass);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitFieldInsn(GETFIELD, BASE_CLASS, "target", "Ljava/lang/Object;");
+        mv.visitTypeInsn(CHECKCAST, owner);
+        int slot = 1;
+        for (Class<?> parameterType : parameterTypes) {
+            Type type = Type.getType(parameterType);
+            mv.visitVarInsn(type.getOpcode(ILOAD), slot);
+            slot += type.getSize();
+        }
+        boolean isInterface = declaringClass.isInterface();
+        mv.visitMethodInsn(isInterface ? INVOKEINTERFACE : INVOKEVIRTUAL, owner, method.getName(),
+                Type.getMethodDescriptor(method), isInterface);
+        if (canReturnProxy(method)) {
+            // same as proxy does for handler calls: target returning itself returns the proxy
+            Label notTarget = new Label();
+            mv.visitInsn(DUP);
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitFieldInsn(GETFIELD, BASE_CLASS, "target", "Ljava/lang/Object;");
+            mv.visitJumpInsn(IF_ACMPNE, notTarget);
+            mv.visitInsn(POP);
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitLabel(notTarget);
+        }
+    }
+
+    private boolean canReturnProxy(Method method) {
+        Class<?> returnType = method.getReturnType();
+        if (returnType.isPrimitive() || RawTargetAccess.class.isAssignableFrom(method.getDeclaringClass())) {
+            return false;
+        }
+        if (returnType == Object.class) {
+            return true;
+        }
+        for (Class<?> proxiedInterface : interfaces) {
+            if (returnType.isAssignableFrom(proxiedInterface)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void generateArgumentArray(MethodVisitor mv, Class<?>[] parameterTypes) {
+        if (parameterTypes.length == 0) {
+            mv.visitInsn(ACONST_NULL);
+            return;
+        }
+        pushInt(mv, parameterTypes.length);
+        mv.visitTypeInsn(ANEWARRAY, "java/lang/Object");
+        int slot = 1;
+        for (int i = 0; i < parameterTypes.length; i++) {
+            Type type = Type.getType(parameterTypes[i]);
+            mv.visitInsn(DUP);
+            pushInt(mv, i);
+            mv.visitVarInsn(type.getOpcode(ILOAD), slot);
+            if (parameterTypes[i].isPrimitive()) {
+                String wrapper = Type.getInternalName(ClassUtils.resolvePrimitiveIfNecessary(parameterTypes[i]));
+                mv.visitMethodInsn(INVOKESTATIC, wrapper, "valueOf",
+                        "(" + type.getDescriptor() + ")L" + wrapper + ";", false);
+            }
+            mv.visitInsn(AASTORE);
+            slot += type.getSize();
+        }
+    }
+
+    /**
+     * Unchecked and declared exceptions are rethrown, others are wrapped into {@link UndeclaredThrowableException}
+     */
+    private static void generateExceptionHandlers(MethodVisitor mv, Label tryStart, Label tryEnd,
+                                                  Class<?>[] exceptionTypes, Class<?>[] parameterTypes) {
+        List<Class<?>> rethrown = new ArrayList<Class<?>>();
+        rethrown.add(RuntimeException.class);
+        rethrown.add(Error.class);
+        for (Class<?> exceptionType : exceptionTypes) {
+            if (exceptionType == Throwable.class) {
+                return;
+            }
+            if (!RuntimeException.class.isAssignableFrom(exceptionType) && !Error.class.isAssignableFrom(exceptionType)) {
+                rethrown.add(exceptionType);
+            }
+        }
+        Label rethrow = new Label();
+        for (Class<?> exceptionType : rethrown) {
+            mv.visitTryCatchBlock(tryStart, tryEnd, rethrow, Type.getInternalName(exceptionType));
+        }
+        Label wrap = new Label();
+        mv.visitTryCatchBlock(tryStart, tryEnd, wrap, "java/lang/Throwable");
+        mv.visitLabel(rethrow);
+        mv.visitInsn(ATHROW);
+        mv.visitLabel(wrap);
+        int slot = 1;
+        for (Class<?> parameterType : parameterTypes) {
+            slot += Type.getType(parameterType).getSize();
+        }
+        String wrapper = Type.getInternalName(UndeclaredThrowableException.class);
+        mv.visitVarInsn(ASTORE, slot);
+        mv.visitTypeInsn(NEW, wrapper);
+        mv.visitInsn(DUP);
+        mv.visitVarInsn(ALOAD, slot);
+        mv.visitMethodInsn(INVOKESPECIAL, wrapper, "<init>", "(Ljava/lang/Throwable;)V", false);
+        mv.visitInsn(ATHROW);
+    }
+
+    private static void pushInt(MethodVisitor mv, int value) {
+        if (value <= 5) {
+            mv.visitInsn(ICONST_0 + value);
+        } else if (value <= Byte.MAX_VALUE) {
+            mv.visitIntInsn(BIPUSH, value);
+        } else if (value <= Short.MAX_VALUE) {
+            mv.visitIntInsn(SIPUSH, value);
+        } else {
+            mv.visitLdcInsn(value);
+        }
+    }
+
+    /**
+     * Class loader of a single proxy class. It's collected together with the class.
+     */
+    private static class ProxyClassLoader extends ClassLoader {
+        ProxyClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> defineClass(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
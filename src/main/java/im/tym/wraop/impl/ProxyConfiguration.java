@@ -0,0 +1,716 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.impl;
+
+import im.tym.wraop.WrapperFactoryBuilder;
+import org.aopalliance.aop.Advice;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.springframework.aop.Advisor;
+import org.springframework.aop.IntroductionAdvisor;
+import org.springframework.aop.TargetSource;
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.framework.AdvisedSupport;
+import org.springframework.aop.framework.AdvisorChainFactory;
+import org.springframework.aop.framework.AopConfigException;
+import org.springframework.aop.framework.AopProxyFactory;
+import org.springframework.aop.framework.ProxyCreatorSupport;
+import org.springframework.aop.interceptor.ExposeInvocationInterceptor;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.aop.target.SingletonTargetSource;
+import org.springframework.core.OrderComparator;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Immutable snapshot of wrapper configuration. {@link ProxyCreatorBasedWrapperFactorySpi} publishes a new one
+ * on each configuration change, so wrapping can read it without any locking. It is also what
+ * {@link FrozenWrapperFactorySpi} is built on.
+ * <p>Everything that does not depend on the wrapped object is computed once: configuration template, advisors
+ * and proxied interfaces. Interceptor chains are shared between all the proxies made from this configuration,
+ * as are whole chain tables of {@link PrecompiledAopProxy}.
+ * Advisors that need filtering against target class are filtered once per class. Everything kept per target class
+ * is stored in a {@link ClassValue}, so that their class loaders can be unloaded.</p>
+ * <p>If the target is itself a proxy with a single target, e.g. made by other factory, it's advisors are merged
+ * with advisors of this configuration into a single proxy around it's target, so call depth does not grow with
+ * each wrap.</p>
+ * <p>If no advice applies to the target, it is returned as is. If no advice applies to a method, it's chain is
+ * left empty, so it is called on the target without interception.</p>
+ * <p>Configuration made with a supplier of the current one is live: it's proxies check on each call if it's still
+ * current and switch to the chains of the current one otherwise, so advice removed from the factory stops running
+ * in proxies made before. Checking costs a single volatile read, no locks. Advisors a proxy exposes as
+ * {@link Advised} are never changed, they stay as the proxy was made; merging uses the current ones instead.
+ * Proxy interfaces can't change either, and {@link GeneratedProxy} keeps calling the target directly for methods
+ * that had no advice when it was made. Targets returned as is, merged proxies and proxies of
+ * {@link #detach() detached} configuration keep advice they were made with.</p>
+ * <p>Lazy proxies made by {@link #getLazyProxy(Supplier, ClassLoader)} keep this configuration and use it to wrap
+ * their target on first call.</p>
+ * <p>If {@link InvocationMetrics} are given, every chain is instrumented to record latency of the call and of
+ * each advisor. Such chains are never empty. Same way advisors may be wrapped to emit Flight Recorder events,
+ * see {@link FlightRecorderSupport}.</p>
+ * <p>Proxies made by {@link #acquireProxy(Object)} have swappable target and are returned to per-class pool by
+ * {@link #releaseProxy(Object)}, so that steady-state wrapping of short-living objects does not create proxies.
+ * Pools are kept per target class, same as chains, and may be dropped on memory shortage.</p>
+ * @author Vitalii Tymchyshyn
+ */
+public class ProxyConfiguration {
+    /**
+     * Default maximum number of released proxies kept for each target class
+     */
+    public static final int DEFAULT_POOL_SIZE = 64;
+
+    private final AopProxyFactory aopProxyFactory;
+    private final AdvisedSupport template;
+    private final List<Advisor> advisors;
+    private final List<Advisor> targetClassAdvisors;
+    private final Class<?>[] interfaces;
+    private final InvocationMetrics metrics;
+    private final int eventSampling;
+    private final int poolSize;
+    private final Supplier<ProxyConfiguration> current;
+    private final ClassValue<ClassState> classStates = new ClassValue<ClassState>() {
+        @Override
+        protected ClassState computeValue(Class<?> targetClass) {
+            if (targetClassAdvisors.isEmpty()) {
+                return new ClassState(advisors);
+            }
+            List<Advisor> rc = new ArrayList<Advisor>(advisors);
+            rc.addAll(AopUtils.findAdvisorsThatCanApply(targetClassAdvisors, targetClass));
+            return new ClassState(Collections.unmodifiableList(rc));
+        }
+    };
+
+    /**
+     * @param source proxy creator to copy configuration from
+     * @param targetClassAdvisors advisors that must be filtered against each target class before being applied
+     */
+    public ProxyConfiguration(ProxyCreatorSupport source, List<Advisor> targetClassAdvisors) {
+        this(source, targetClassAdvisors, null, 0, DEFAULT_POOL_SIZE, null);
+    }
+
+    /**
+     * @param source proxy creator to copy configuration from
+     * @param targetClassAdvisors advisors that must be filtered against each target class before being applied
+     * @param metrics statistics to record invocations to, null if invocations should not be instrumented
+     * @param eventSampling emit Flight Recorder event for one of this many advised calls, 0 for no events
+     * @param poolSize maximum number of released proxies to keep for each target class
+     */
+    public ProxyConfiguration(ProxyCreatorSupport source, List<Advisor> targetClassAdvisors,
+                              InvocationMetrics metrics, int eventSampling, int poolSize) {
+        this(source, targetClassAdvisors, metrics, eventSampling, poolSize, null);
+    }
+
+    /**
+     * @param source proxy creator to copy configuration from
+     * @param targetClassAdvisors advisors that must be filtered against each target class before being applied
+     * @param metrics statistics to record invocations to, null if invocations should not be instrumented
+     * @param eventSampling emit Flight Recorder event for one of this many advised calls, 0 for no events
+     * @param poolSize maximum number of released proxies to keep for each target class
+     * @param current supplier of the current configuration for proxies to follow, null to keep this one
+     */
+    public ProxyConfiguration(final ProxyCreatorSupport source, List<Advisor> targetClassAdvisors,
+                              InvocationMetrics metrics, int eventSampling, int poolSize,
+                              Supplier<ProxyConfiguration> current) {
+        this.current = current;
+        this.metrics = metrics;
+        this.poolSize = poolSize;
+        this.eventSampling = FlightRecorderSupport.AVAILABLE ? eventSampling : 0;
+        this.aopProxyFactory = source.getAopProxyFactory();
+        final List<Advisor> sourceAdvisors = Collections.unmodifiableList(
+                new ArrayList<Advisor>(Arrays.asList(source.getAdvisors())));
+        this.advisors = sourceAdvisors;
+        this.targetClassAdvisors = Collections.unmodifiableList(new ArrayList<Advisor>(targetClassAdvisors));
+        this.template = new AdvisedSupport() {
+            {
+                copyConfigurationFrom(source, EMPTY_TARGET_SOURCE, sourceAdvisors);
+            }
+        };
+        this.interfaces = template.getProxiedInterfaces();
+    }
+
+    private ProxyConfiguration(ProxyConfiguration source) {
+        this.aopProxyFactory = source.aopProxyFactory;
+        this.template = source.template;
+        this.advisors = source.advisors;
+        this.targetClassAdvisors = source.targetClassAdvisors;
+        this.interfaces = source.interfaces;
+        this.metrics = source.metrics;
+        this.eventSampling = source.eventSampling;
+        this.poolSize = source.poolSize;
+        this.current = null;
+    }
+
+    /**
+     * @return same configuration, but with proxies that never follow later changes
+     */
+    public ProxyConfiguration detach() {
+        return current == null ? this : new ProxyConfiguration(this);
+    }
+
+    /**
+     * @return configuration proxies made from this one should use now
+     */
+    private ProxyConfiguration getCurrent() {
+        return current == null ? this : current.get();
+    }
+
+    public AopProxyFactory getAopProxyFactory() {
+        return aopProxyFactory;
+    }
+
+    /**
+     * @return statistics invocations are recorded to, null if instrumentation is off
+     */
+    public InvocationMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return interfaces proxies will implement
+     */
+    public Class<?>[] getInterfaces() {
+        return interfaces.clone();
+    }
+
+    /**
+     * @param targetClass class of object to be wrapped
+     * @return advisors to apply to objects of given class
+     */
+    public List<Advisor> getAdvisorsFor(Class<?> targetClass) {
+        if (targetClassAdvisors.isEmpty()) {
+            return advisors;
+        }
+        return classStates.get(targetClass).advisors;
+    }
+
+    /**
+     * @param target object to be wrapped
+     * @return new proxy configuration for given target
+     */
+    public AdvisedSupport getAdvisedSupportFor(Object target) {
+        return new WrapperAdvisedSupport(this, new SingletonTargetSource(target), getAdvisorsFor(target.getClass()));
+    }
+
+    /**
+     * @param target object to be wrapped
+     * @param classLoader class loader to create proxy in
+     * @return proxy for given target
+     */
+    public Object getProxy(Object target, ClassLoader classLoader) {
+        return getProxy(target, null, classLoader);
+    }
+
+    /**
+     * Makes proxy that implements given interfaces instead of configured ones. Interfaces of introductions are
+     * still added. This does not change the configuration, so it works for frozen one too.
+     * @param target object to be wrapped
+     * @param proxiedInterfaces interfaces proxy should implement, null for configured ones
+     * @param classLoader class loader to create proxy in
+     * @return proxy for given target
+     */
+    public Object getProxy(Object target, Class<?>[] proxiedInterfaces, ClassLoader classLoader) {
+        Object event = FlightRecorderSupport.startWrap();
+        Object rc;
+        if (isMergeable(target)) {
+            rc = mergeProxy((Advised) target, proxiedInterfaces, classLoader);
+        } else {
+            List<Advisor> targetAdvisors = getAdvisorsFor(target.getClass());
+            rc = hasAdvice(targetAdvisors) ? createProxy(createTargetSource(target), targetAdvisors,
+                    proxiedInterfaces, classLoader) : target;
+        }
+        FlightRecorderSupport.finishWrap(event, target.getClass(),
+                proxiedInterfaces == null ? interfaces.length : proxiedInterfaces.length, 1, rc != target);
+        return rc;
+    }
+
+    /**
+     * @param targets objects to be wrapped, all of the same class
+     * @param classLoader class loader to create proxies in
+     * @return proxies for given targets in the same order
+     */
+    public List<Object> getProxies(List<?> targets, ClassLoader classLoader) {
+        if (targets.isEmpty()) {
+            return new ArrayList<Object>();
+        }
+        Class<?> targetClass = targets.get(0).getClass();
+        if (Advised.class.isAssignableFrom(targetClass)) {
+            List<Object> rc = new ArrayList<Object>(targets.size());
+            for (Object target : targets) {
+                rc.add(getProxy(target, classLoader));
+            }
+            return rc;
+        }
+        Object event = FlightRecorderSupport.startWrap();
+        List<Advisor> targetAdvisors = getAdvisorsFor(targetClass);
+        boolean advised = hasAdvice(targetAdvisors);
+        List<Object> rc;
+        if (advised) {
+            rc = new ArrayList<Object>(targets.size());
+            for (Object target : targets) {
+                rc.add(createProxy(createTargetSource(target), targetAdvisors, null, classLoader));
+            }
+        } else {
+            rc = new ArrayList<Object>(targets);
+        }
+        FlightRecorderSupport.finishWrap(event, targetClass, interfaces.length, targets.size(), advised);
+        return rc;
+    }
+
+    /**
+     * Makes a proxy that implements configured interfaces, but obtains and wraps the target only on first call.
+     * @param supplier supplier of the target
+     * @param classLoader class loader to create proxies in
+     * @return lazy proxy
+     */
+    public Object getLazyProxy(Supplier<?> supplier, ClassLoader classLoader) {
+        return Proxy.newProxyInstance(classLoader, interfaces,
+                new LazyTargetInvocationHandler(this, supplier, classLoader));
+    }
+
+    /**
+     * Takes a proxy with swappable target from the pool of target class or makes a new one, and points it to
+     * given target. Proxy is created in the target class loader. Note that proxy engines that need static target
+     * fall back to Spring proxies for pooled ones.
+     * @param target object to be wrapped
+     * @return proxy for given target, target itself if no advice applies to it
+     */
+    public Object acquireProxy(Object target) {
+        Class<?> targetClass = target.getClass();
+        List<Advisor> targetAdvisors = getAdvisorsFor(targetClass);
+        if (!hasAdvice(targetAdvisors)) {
+            return target;
+        }
+        Queue<SwappableTargetSource> pool = poolSize == 0 ? null : classStates.get(targetClass).getPool(poolSize);
+        SwappableTargetSource targetSource = pool == null ? null : pool.poll();
+        if (targetSource == null) {
+            targetSource = new SwappableTargetSource(targetClass, pool);
+            targetSource.setProxy(createProxy(targetSource, targetAdvisors, null, targetClass.getClassLoader()));
+        }
+        targetSource.swap(target);
+        return targetSource.getProxy();
+    }
+
+    /**
+     * Returns proxy made by {@link #acquireProxy(Object)} of any configuration to it's pool. Proxy must not be
+     * used after this call. Anything else, like targets returned as is, is ignored, as are repeated releases.
+     * @param proxy proxy to release
+     */
+    public static void releaseProxy(Object proxy) {
+        if (proxy instanceof Advised) {
+            TargetSource targetSource = ((Advised) proxy).getTargetSource();
+            if (targetSource instanceof SwappableTargetSource) {
+                ((SwappableTargetSource) targetSource).release();
+            }
+        }
+    }
+
+    /**
+     * Drops proxy classes and AspectJ matching results cached for given class loader. Per-class state is kept
+     * with the classes and goes away together with their class loader.
+     * @param classLoader class loader to forget
+     */
+    public void releaseClassLoader(ClassLoader classLoader) {
+        if (aopProxyFactory instanceof PrecompiledAopProxyFactory) {
+            ((PrecompiledAopProxyFactory) aopProxyFactory).getProxyClassCache().releaseClassLoader(classLoader);
+        }
+        if (WrapperFactoryBuilder.ASPECTJ_AVAILABLE) {
+            SharedAspectJAdvisorFactory.getInstance().releaseClassLoader(classLoader);
+        }
+    }
+
+    /**
+     * Proxy can be merged if it exposes it's configuration and has a single known target
+     */
+    private static boolean isMergeable(Object target) {
+        return target instanceof Advised && ((Advised) target).getTargetSource() instanceof SingletonTargetSource;
+    }
+
+    /**
+     * Makes a single proxy around the target of given proxy, with advisors of both sorted by
+     * {@link OrderComparator}. Advisors without order keep their places: these of this configuration go first, as
+     * if given proxy was wrapped. Merged proxy implements interfaces of both.
+     * @return merged proxy, given one if no advice of this configuration applies to it's target
+     */
+    private Object mergeProxy(Advised proxy, Class<?>[] proxiedInterfaces, ClassLoader classLoader) {
+        Object target;
+        try {
+            target = proxy.getTargetSource().getTarget();
+        } catch (Exception e) {
+            throw new AopConfigException("Can't get target from " + proxy.getTargetSource(), e);
+        }
+        List<Advisor> targetAdvisors = getAdvisorsFor(target.getClass());
+        if (!hasAdvice(targetAdvisors)) {
+            return proxy;
+        }
+        List<Advisor> merged = new ArrayList<Advisor>(targetAdvisors);
+        for (Advisor advisor : getCurrentAdvisors(proxy, target.getClass())) {
+            if (advisor != ExposeInvocationInterceptor.ADVISOR || !merged.contains(advisor)) {
+                merged.add(advisor);
+            }
+        }
+        OrderComparator.sort(merged);
+        AdvisedSupport support = new MergedAdvisedSupport(this, target, merged);
+        if (proxiedInterfaces != null) {
+            replaceInterfaces(support, proxiedInterfaces);
+        }
+        for (Class<?> mergedInterface : proxy.getProxiedInterfaces()) {
+            support.addInterface(mergedInterface);
+        }
+        return aopProxyFactory.createAopProxy(support).getProxy(classLoader);
+    }
+
+    /**
+     * Proxy of live configuration exposes advisors it was made with, advisors of current configuration are taken
+     * instead
+     */
+    private static List<Advisor> getCurrentAdvisors(Advised proxy, Class<?> targetClass) {
+        TargetSource targetSource = proxy.getTargetSource();
+        if (targetSource instanceof LiveTargetSource) {
+            Supplier<ProxyConfiguration> current = ((LiveTargetSource) targetSource).current;
+            if (current != null) {
+                return current.get().getAdvisorsFor(targetClass);
+            }
+        }
+        return Arrays.asList(proxy.getAdvisors());
+    }
+
+    private TargetSource createTargetSource(Object target) {
+        return current == null ? new SingletonTargetSource(target) : new LiveTargetSource(current, target);
+    }
+
+    private Object createProxy(TargetSource targetSource, List<Advisor> targetAdvisors,
+                               Class<?>[] proxiedInterfaces, ClassLoader classLoader) {
+        AdvisedSupport support = new WrapperAdvisedSupport(this, targetSource, targetAdvisors);
+        if (proxiedInterfaces != null) {
+            replaceInterfaces(support, proxiedInterfaces);
+        }
+        return aopProxyFactory.createAopProxy(support).getProxy(classLoader);
+    }
+
+    /**
+     * Sets given interfaces instead of copied from template, keeping these of introductions, same as
+     * if template had them
+     */
+    private static void replaceInterfaces(AdvisedSupport support, Class<?>[] proxiedInterfaces) {
+        support.setInterfaces(proxiedInterfaces);
+        for (Advisor advisor : support.getAdvisors()) {
+            if (advisor instanceof IntroductionAdvisor) {
+                for (Class<?> introduced : ((IntroductionAdvisor) advisor).getInterfaces()) {
+                    support.addInterface(introduced);
+                }
+            }
+        }
+    }
+
+    /**
+     * {@link ExposeInvocationInterceptor} is added for AspectJ advice and does nothing by itself
+     */
+    private static boolean hasAdvice(List<Advisor> advisors) {
+        for (Advisor advisor : advisors) {
+            if (advisor != ExposeInvocationInterceptor.ADVISOR) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Chains are resolved with advisors of this configuration, not of the proxy asking, as the proxy may still
+     * have advisors of previous one
+     */
+    private List<Object> getInterceptors(Method method, Class targetClass) {
+        if (targetClass == null) {
+            return resolveInterceptors(new ResolvingAdvisedSupport(template, advisors), method, null);
+        }
+        ClassState classState = classStates.get(targetClass);
+        List<Object> chain = classState.chains.get(method);
+        if (chain == null) {
+            chain = resolveInterceptors(new ResolvingAdvisedSupport(template, classState.advisors), method,
+                    targetClass);
+            classState.chains.put(method, chain);
+        }
+        return chain;
+    }
+
+    /**
+     * Chain tables are kept per target class for each proxy class and interface list
+     */
+    private Map<Method, PrecompiledAopProxy.MethodChain> getChainTable(PrecompiledAopProxy proxy,
+                                                                       Class<?>[] proxiedInterfaces,
+                                                                       final Class<?> targetClass) {
+        List<Class<?>> key = new ArrayList<Class<?>>(proxiedInterfaces.length + 1);
+        key.add(proxy.getClass());
+        key.addAll(Arrays.asList(proxiedInterfaces));
+        Map<List<Class<?>>, Map<Method, PrecompiledAopProxy.MethodChain>> tables =
+                classStates.get(targetClass).chainTables;
+        Map<Method, PrecompiledAopProxy.MethodChain> table = tables.get(key);
+        if (table == null) {
+            table = proxy.buildChainTable(proxiedInterfaces, new Function<Method, List<Object>>() {
+                @Override
+                public List<Object> apply(Method method) {
+                    return getInterceptors(method, targetClass);
+                }
+            });
+            Map<Method, PrecompiledAopProxy.MethodChain> existing = tables.putIfAbsent(key, table);
+            if (existing != null) {
+                table = existing;
+            }
+        }
+        return table;
+    }
+
+    private List<Object> resolveInterceptors(AdvisedSupport advised, Method method, Class targetClass) {
+        List<Object> chain = template.getAdvisorChainFactory().getInterceptorsAndDynamicInterceptionAdvice(
+                advised, method, targetClass);
+        if (chain.size() == 1 && chain.get(0) == ExposeInvocationInterceptor.INSTANCE) {
+            chain = Collections.emptyList();
+        }
+        if (metrics != null || (eventSampling > 0 && !chain.isEmpty())) {
+            chain = getInstrumentedInterceptors(advised, method, targetClass, chain.isEmpty());
+        }
+        return chain;
+    }
+
+    /**
+     * Builds the chain advisor by advisor, so that each interceptor can be timed and reported under the name
+     * of it's advisor. With metrics the chain starts with the timer of the whole call, and each advisor timer
+     * is followed by {@link TimingInterceptor#PROCEED}, so that advisors are reported with their own time only.
+     * Dynamic interceptors are left as is and are accounted only in the whole call time.
+     */
+    private List<Object> getInstrumentedInterceptors(AdvisedSupport advised, Method method, Class targetClass,
+                                                     boolean unadvised) {
+        List<Object> rc = new ArrayList<Object>();
+        if (metrics != null) {
+            rc.add(new TimingInterceptor(metrics.getMethodHistogram(method), null));
+        }
+        if (unadvised) {
+            return rc;
+        }
+        String methodName = InvocationMetrics.getMethodName(method);
+        AdvisorChainFactory chainFactory = template.getAdvisorChainFactory();
+        for (Advisor advisor : advised.getAdvisors()) {
+            AdvisedSupport single = new AdvisedSupport();
+            single.setPreFiltered(advised.isPreFiltered());
+            single.addAdvisor(advisor);
+            boolean instrumented = advisor != ExposeInvocationInterceptor.ADVISOR;
+            String advisorName = instrumented ? getAdvisorName(advisor) : null;
+            for (Object interceptor : chainFactory.getInterceptorsAndDynamicInterceptionAdvice(
+                    single, method, targetClass)) {
+                if (instrumented && interceptor instanceof MethodInterceptor) {
+                    MethodInterceptor instrumentedInterceptor = (MethodInterceptor) interceptor;
+                    if (eventSampling > 0) {
+                        instrumentedInterceptor = new FlightRecorderInterceptor(
+                                instrumentedInterceptor, methodName, advisorName, eventSampling);
+                    }
+                    if (metrics != null) {
+                        instrumentedInterceptor = new TimingInterceptor(
+                                metrics.getAdvisorHistogram(advisorName), instrumentedInterceptor);
+                    }
+                    rc.add(instrumentedInterceptor);
+                    if (metrics != null) {
+                        rc.add(TimingInterceptor.PROCEED);
+                    }
+                } else {
+                    rc.add(interceptor);
+                }
+            }
+        }
+        return rc;
+    }
+
+    /**
+     * @return advice description if it has one (e.g. AspectJ advice), advice class name otherwise
+     */
+    static String getAdvisorName(Advisor advisor) {
+        Advice advice = advisor.getAdvice();
+        Method toString = ReflectionUtils.findMethod(advice.getClass(), "toString");
+        if (toString != null && toString.getDeclaringClass() != Object.class) {
+            return advice.toString();
+        }
+        return advice.getClass().getName();
+    }
+
+    /**
+     * Per-proxy configuration. Advisors depend only on target class, so interceptor chains are taken from
+     * the shared cache of owning configuration instead of per-proxy one.
+     * <p>When owning configuration is no longer current, chains are taken from the current one, resolved with
+     * it's own advisors. Advisors of this object are never changed, Spring does not expect them to change under
+     * concurrent readers. Both fields hold immutable objects and are plain: a thread that sees stale ones just
+     * checks again.</p>
+     */
+    private static class WrapperAdvisedSupport extends AdvisedSupport implements PrecompiledAopProxy.ChainTableSource {
+        private transient ProxyConfiguration configuration;
+        private transient ChainTable chainTable;
+
+        WrapperAdvisedSupport(ProxyConfiguration configuration, TargetSource targetSource, List<Advisor> advisors) {
+            this.configuration = configuration;
+            copyConfigurationFrom(configuration.template, targetSource, advisors);
+        }
+
+        @Override
+        public List<Object> getInterceptorsAndDynamicInterceptionAdvice(Method method, Class targetClass) {
+            ProxyConfiguration configuration = getConfiguration();
+            if (configuration == null) {
+                return super.getInterceptorsAndDynamicInterceptionAdvice(method, targetClass);
+            }
+            return configuration.getInterceptors(method, targetClass);
+        }
+
+        @Override
+        public Map<Method, PrecompiledAopProxy.MethodChain> getChainTable(final PrecompiledAopProxy proxy,
+                                                                          final Class<?> targetClass) {
+            ProxyConfiguration configuration = getConfiguration();
+            if (configuration == null || targetClass == null) {
+                return proxy.buildChainTable(getProxiedInterfaces(), new Function<Method, List<Object>>() {
+                    @Override
+                    public List<Object> apply(Method method) {
+                        return getInterceptorsAndDynamicInterceptionAdvice(method, targetClass);
+                    }
+                });
+            }
+            ChainTable chainTable = this.chainTable;
+            if (chainTable == null || chainTable.configuration != configuration) {
+                chainTable = new ChainTable(configuration,
+                        configuration.getChainTable(proxy, getProxiedInterfaces(), targetClass));
+                this.chainTable = chainTable;
+            }
+            return chainTable.chains;
+        }
+
+        /**
+         * Current configuration replaces owning one, so that previous ones can be collected
+         * @return current configuration, null if this one was deserialized
+         */
+        private ProxyConfiguration getConfiguration() {
+            ProxyConfiguration configuration = this.configuration;
+            if (configuration == null) {
+                return null;
+            }
+            ProxyConfiguration current = configuration.getCurrent();
+            if (current != configuration) {
+                this.configuration = current;
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Target source of proxies made by live configuration, so that proxy being merged can be followed to
+     * it's current configuration
+     */
+    private static class LiveTargetSource extends SingletonTargetSource {
+        private final transient Supplier<ProxyConfiguration> current;
+
+        LiveTargetSource(Supplier<ProxyConfiguration> current, Object target) {
+            super(target);
+            this.current = current;
+        }
+    }
+
+    /**
+     * Chain table of a proxy together with configuration it was taken from
+     */
+    private static class ChainTable {
+        private final ProxyConfiguration configuration;
+        private final Map<Method, PrecompiledAopProxy.MethodChain> chains;
+
+        ChainTable(ProxyConfiguration configuration, Map<Method, PrecompiledAopProxy.MethodChain> chains) {
+            this.configuration = configuration;
+            this.chains = chains;
+        }
+    }
+
+    /**
+     * Configuration chains are resolved with. It references only the template, so it does not leak the
+     * configuration when resolved chains are kept per class.
+     */
+    private static class ResolvingAdvisedSupport extends AdvisedSupport {
+        ResolvingAdvisedSupport(AdvisedSupport template, List<Advisor> advisors) {
+            copyConfigurationFrom(template, EMPTY_TARGET_SOURCE, advisors);
+        }
+    }
+
+    /**
+     * Configuration of merged proxy. It's advisors depend on the proxy it was merged with, so interceptor chains
+     * are kept by itself. They are built same way as shared ones.
+     */
+    private static class MergedAdvisedSupport extends AdvisedSupport {
+        private final transient ProxyConfiguration configuration;
+        private final transient Map<Method, List<Object>> chains = new ConcurrentHashMap<Method, List<Object>>();
+
+        MergedAdvisedSupport(ProxyConfiguration configuration, Object target, List<Advisor> advisors) {
+            this.configuration = configuration;
+            copyConfigurationFrom(configuration.template, new SingletonTargetSource(target), advisors);
+        }
+
+        @Override
+        public List<Object> getInterceptorsAndDynamicInterceptionAdvice(Method method, Class targetClass) {
+            if (configuration == null) {
+                return super.getInterceptorsAndDynamicInterceptionAdvice(method, targetClass);
+            }
+            List<Object> chain = chains.get(method);
+            if (chain == null) {
+                chain = configuration.resolveInterceptors(this, method, targetClass);
+                chains.put(method, chain);
+            }
+            return chain;
+        }
+    }
+
+    /**
+     * Everything this configuration keeps for a single target class. It's referenced from the class itself, so
+     * it must not reference the configuration: that would keep both alive as long as the class. Pooled proxies do
+     * reference it, so the pool is held softly.
+     */
+    private static class ClassState {
+        private final List<Advisor> advisors;
+        private final Map<Method, List<Object>> chains = new ConcurrentHashMap<Method, List<Object>>();
+        private final ConcurrentMap<List<Class<?>>, Map<Method, PrecompiledAopProxy.MethodChain>> chainTables =
+                new ConcurrentHashMap<List<Class<?>>, Map<Method, PrecompiledAopProxy.MethodChain>>();
+        private volatile SoftReference<Queue<SwappableTargetSource>> pool;
+
+        ClassState(List<Advisor> advisors) {
+            this.advisors = advisors;
+        }
+
+        /**
+         * Pool is created on first use or after it was collected. If two threads race to create it, proxies
+         * released to the lost one are just collected.
+         */
+        Queue<SwappableTargetSource> getPool(int poolSize) {
+            SoftReference<Queue<SwappableTargetSource>> reference = pool;
+            Queue<SwappableTargetSource> rc = reference == null ? null : reference.get();
+            if (rc == null) {
+                rc = new ArrayBlockingQueue<SwappableTargetSource>(poolSize);
+                pool = new SoftReference<Queue<SwappableTargetSource>>(rc);
+            }
+            return rc;
+        }
+    }
+}
@@ -15,60 +15,348 @@
  */
 package im.tym.wraop.impl;
 
+import im.tym.wraop.ProxyEngine;
+import im.tym.wraop.WrapperStatistics;
 import org.aopalliance.aop.Advice;
 import org.springframework.aop.Advisor;
-import org.springframework.aop.framework.AdvisedSupport;
+import org.springframework.aop.DynamicIntroductionAdvice;
+import org.springframework.aop.IntroductionInfo;
+import org.springframework.aop.framework.AopConfigException;
+import org.springframework.aop.framework.AopProxyFactory;
+import org.springframework.aop.framework.DefaultAopProxyFactory;
 import org.springframework.aop.framework.ProxyCreatorSupport;
-import org.springframework.aop.target.SingletonTargetSource;
+import org.springframework.aop.support.DefaultIntroductionAdvisor;
+import org.springframework.aop.support.DefaultPointcutAdvisor;
 
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 /**
+ * Configuration is kept in {@link #proxyCreator} and changed holding {@link #lock}. Wrapping does not lock,
+ * it uses immutable {@link ProxyConfiguration} snapshot that is rebuilt after each change. Snapshots follow
+ * {@link #getConfiguration()}, so proxies made before a change switch to the new chains on their next call.
  * @author Vitalii Tymchyshyn
  */
-
 public abstract class ProxyCreatorBasedWrapperFactorySpi<I, PC extends ProxyCreatorSupport> implements WrapperFactorySpi<I> {
     public final PC proxyCreator;
+    /**
+     * Guards {@link #proxyCreator} changes and snapshot rebuilds. It's not a monitor, so virtual threads waiting for
+     * it don't pin their carriers.
+     */
+    protected final ReentrantLock lock = new ReentrantLock();
+
+    private volatile ProxyConfiguration configuration;
+    private volatile InvocationMetrics metrics;
+    private volatile int eventSampling;
+    private volatile int poolSize = ProxyConfiguration.DEFAULT_POOL_SIZE;
 
     public ProxyCreatorBasedWrapperFactorySpi(PC proxyCreator) {
         this.proxyCreator = proxyCreator;
     }
 
     @Override
-    public synchronized I wrap(final I object, ClassLoader classLoader) {
-        AdvisedSupport support = getAdvisedSupportFor(object);
-        return (I) proxyCreator.getAopProxyFactory().createAopProxy(support).getProxy(classLoader);
+    public I wrap(final I object, ClassLoader classLoader) {
+        return (I) getConfiguration().getProxy(object, classLoader);
+    }
+
+    @Override
+    public I wrap(I object, Class<?>[] interfaces, ClassLoader classLoader) {
+        return (I) getConfiguration().getProxy(object, interfaces, classLoader);
+    }
+
+    @Override
+    public List<I> wrapAll(List<? extends I> objects, ClassLoader classLoader) {
+        return (List<I>) getConfiguration().getProxies(objects, classLoader);
+    }
+
+    @Override
+    public I wrapLazily(Supplier<? extends I> supplier, ClassLoader classLoader) {
+        return (I) getConfiguration().getLazyProxy(supplier, classLoader);
+    }
+
+    @Override
+    public I acquire(I object) {
+        return (I) getConfiguration().acquireProxy(object);
+    }
+
+    @Override
+    public void release(I proxy) {
+        ProxyConfiguration.releaseProxy(proxy);
+    }
+
+    @Override
+    public void releaseClassLoader(ClassLoader classLoader) {
+        getConfiguration().releaseClassLoader(classLoader);
     }
 
-    protected AdvisedSupport getAdvisedSupportFor(final I object) {
-        return new AdvisedSupport() {
-                {
-                    copyConfigurationFrom(proxyCreator, new SingletonTargetSource(object), Arrays.asList(proxyCreator.getAdvisors()));
+    @Override
+    public WrapperFactorySpi<I> freeze() {
+        return new FrozenWrapperFactorySpi<I>(getConfiguration().detach());
+    }
+
+    /**
+     * @return current configuration snapshot, building it on first call
+     */
+    public ProxyConfiguration getConfiguration() {
+        ProxyConfiguration configuration = this.configuration;
+        if (configuration == null) {
+            lock.lock();
+            try {
+                configuration = this.configuration;
+                if (configuration == null) {
+                    configuration = createConfiguration();
+                    this.configuration = configuration;
                 }
-            };
+            } finally {
+                lock.unlock();
+            }
+        }
+        return configuration;
+    }
+
+    /**
+     * Rebuilds configuration snapshot and publishes it with a single volatile write, so proxies checking for it
+     * on each call never wait for the rebuild. Before the first snapshot is asked for there are no proxies, so
+     * nothing is built. Must be called after {@link #proxyCreator} is changed directly, all the changes done
+     * with this class methods call it automatically.
+     */
+    public void configurationChanged() {
+        lock.lock();
+        try {
+            if (configuration != null) {
+                configuration = createConfiguration();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Called holding {@link #lock} to build new configuration snapshot
+     * @return snapshot of current configuration
+     */
+    protected ProxyConfiguration createConfiguration() {
+        return new ProxyConfiguration(proxyCreator, Collections.<Advisor>emptyList(), metrics, eventSampling,
+                poolSize, this::getConfiguration);
+    }
+
+    /**
+     * @param metrics statistics to record invocations to, null to turn instrumentation off
+     */
+    public void setMetrics(InvocationMetrics metrics) {
+        this.metrics = metrics;
+        configurationChanged();
+    }
+
+    public InvocationMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param eventSampling emit Flight Recorder event for one of this many advised calls, 0 for no events.
+     *                      Ignored if JFR is not available.
+     */
+    public void setEventSampling(int eventSampling) {
+        if (eventSampling < 0) {
+            throw new IllegalArgumentException("Event sampling can't be negative: " + eventSampling);
+        }
+        this.eventSampling = eventSampling;
+        configurationChanged();
+    }
+
+    public int getEventSampling() {
+        return eventSampling;
+    }
+
+    /**
+     * @param poolSize maximum number of released proxies to keep for each target class, 0 to not pool them.
+     *                 Affects only pools of configuration made after this call.
+     */
+    public void setPoolSize(int poolSize) {
+        if (poolSize < 0) {
+            throw new IllegalArgumentException("Pool size can't be negative: " + poolSize);
+        }
+        this.poolSize = poolSize;
+        configurationChanged();
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    @Override
+    public WrapperStatistics getStatistics() {
+        InvocationMetrics metrics = getConfiguration().getMetrics();
+        return metrics == null ? WrapperStatistics.EMPTY : metrics.getStatistics();
+    }
+
+    /**
+     * Sets factory to create proxies with, e.g. {@link PrecompiledAopProxyFactory}
+     * @param aopProxyFactory proxy factory to use
+     */
+    public void setAopProxyFactory(AopProxyFactory aopProxyFactory) {
+        lock.lock();
+        try {
+            proxyCreator.setAopProxyFactory(aopProxyFactory);
+            configurationChanged();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets proxy factory matching given engine
+     * @param proxyEngine proxy implementation to use
+     */
+    public void setProxyEngine(ProxyEngine proxyEngine) {
+        switch (proxyEngine) {
+            case PRECOMPILED:
+                setAopProxyFactory(new PrecompiledAopProxyFactory());
+                break;
+            case METHOD_HANDLE:
+                setAopProxyFactory(new MethodHandleAopProxyFactory());
+                break;
+            case REUSED_INVOCATION:
+                setAopProxyFactory(new ReusingAopProxyFactory());
+                break;
+            case GENERATED:
+                setAopProxyFactory(new GeneratedAopProxyFactory());
+                break;
+            default:
+                setAopProxyFactory(new DefaultAopProxyFactory());
+        }
     }
 
     @Override
     public void setInterfaces(Class... wrappedInterfaces) {
-        proxyCreator.setInterfaces(wrappedInterfaces);
+        lock.lock();
+        try {
+            proxyCreator.setInterfaces(wrappedInterfaces);
+            configurationChanged();
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
     public void addInterface(Class wrappedInterface) {
-        proxyCreator.addInterface(wrappedInterface);
+        lock.lock();
+        try {
+            proxyCreator.addInterface(wrappedInterface);
+            configurationChanged();
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
-    public boolean addAspect(Object aspect) {
-        if (aspect instanceof Advice) {
-            proxyCreator.addAdvice((Advice) aspect);
+    public boolean removeAspect(Object aspect) {
+        lock.lock();
+        try {
+            if (!removeAdvisors(aspect)) {
+                return false;
+            }
+            configurationChanged();
             return true;
-        } else if (aspect instanceof Advisor) {
-            proxyCreator.addAdvisor((Advisor) aspect);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Advisors of new aspect are made before old one is removed, so nothing is changed if it has none. Snapshot
+     * is rebuilt only after both changes, so no proxy sees neither or both of them.
+     */
+    @Override
+    public boolean replaceAspect(Object oldAspect, Object newAspect) {
+        List<Advisor> advisors = createAdvisors(newAspect);
+        if (advisors.isEmpty()) {
+            return false;
+        }
+        lock.lock();
+        try {
+            if (!removeAdvisors(oldAspect)) {
+                return false;
+            }
+            addAdvisors(newAspect, advisors);
+            configurationChanged();
             return true;
-        } else {
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Advisors are made before taking {@link #lock}, only adding them is done holding it
+     */
+    @Override
+    public boolean addAspect(Object aspect) {
+        List<Advisor> advisors = createAdvisors(aspect);
+        if (advisors.isEmpty()) {
             return false;
         }
+        lock.lock();
+        try {
+            addAdvisors(aspect, advisors);
+            configurationChanged();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
 
+    /**
+     * Makes advisors for given aspect the same way {@link ProxyCreatorSupport#addAdvice(Advice)} does. Called
+     * without holding {@link #lock}.
+     * @param aspect aspect to make advisors for
+     * @return advisors to add, empty if it's not an aspect or it has no advice that can be applied
+     */
+    protected List<Advisor> createAdvisors(Object aspect) {
+        if (aspect instanceof Advisor) {
+            return Collections.singletonList((Advisor) aspect);
+        }
+        if (!(aspect instanceof Advice)) {
+            return Collections.emptyList();
+        }
+        Advice advice = (Advice) aspect;
+        if (advice instanceof IntroductionInfo) {
+            return Collections.<Advisor>singletonList(new DefaultIntroductionAdvisor(advice, (IntroductionInfo) advice));
+        }
+        if (advice instanceof DynamicIntroductionAdvice) {
+            throw new AopConfigException("DynamicIntroductionAdvice may only be added as part of IntroductionAdvisor");
+        }
+        return Collections.<Advisor>singletonList(new DefaultPointcutAdvisor(advice));
+    }
+
+    /**
+     * Called holding {@link #lock} to add advisors made by {@link #createAdvisors(Object)}. Snapshot is rebuilt
+     * by the caller.
+     * @param aspect aspect advisors were made for
+     * @param advisors advisors to add
+     */
+    protected void addAdvisors(Object aspect, List<Advisor> advisors) {
+        proxyCreator.addAdvisors(advisors);
+    }
+
+    /**
+     * Called holding {@link #lock} to remove all the advisors made for given advice, or given advisor. Snapshot
+     * is rebuilt by the caller.
+     * @param aspect aspect to remove
+     * @return true if anything was removed
+     */
+    protected boolean removeAdvisors(Object aspect) {
+        boolean removed = false;
+        if (aspect instanceof Advisor) {
+            removed = proxyCreator.removeAdvisor((Advisor) aspect);
+        } else if (aspect instanceof Advice) {
+            for (Advisor advisor : proxyCreator.getAdvisors()) {
+                if (advisor.getAdvice() == aspect) {
+                    removed |= proxyCreator.removeAdvisor(advisor);
+                }
+            }
+        }
+        return removed;
     }
 }
@@ -0,0 +1,230 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.impl;
+
+/**
+ * Residual runtime test of {@link CompiledPointcut} for particular method and target class. Static parts are
+ * already evaluated, so what's left are {@code instanceof} checks of arguments, proxy and target.
+ * Evaluation does not allocate.
+ * @author Vitalii Tymchyshyn
+ */
+abstract class Residue {
+    static final Residue TRUE = new Constant(true);
+    static final Residue FALSE = new Constant(false);
+
+    /**
+     * @param proxy proxy called, may be null if {@link #needsInvocation()} is false
+     * @param target target object, may be null if {@link #needsInvocation()} is false
+     * @param args call arguments
+     * @return if pointcut matches this call
+     */
+    abstract boolean matches(Object proxy, Object target, Object[] args);
+
+    /**
+     * @return if proxy or target are needed for the test
+     */
+    boolean needsInvocation() {
+        return false;
+    }
+
+    static Residue and(Residue left, Residue right) {
+        if (left == FALSE || right == FALSE) {
+            return FALSE;
+        }
+        if (left == TRUE) {
+            return right;
+        }
+        if (right == TRUE) {
+            return left;
+        }
+        return new And(left, right);
+    }
+
+    static Residue or(Residue left, Residue right) {
+        if (left == TRUE || right == TRUE) {
+            return TRUE;
+        }
+        if (left == FALSE) {
+            return right;
+        }
+        if (right == FALSE) {
+            return left;
+        }
+        return new Or(left, right);
+    }
+
+    static Residue not(Residue residue) {
+        if (residue == TRUE) {
+            return FALSE;
+        }
+        if (residue == FALSE) {
+            return TRUE;
+        }
+        return new Not(residue);
+    }
+
+    static Residue argInstanceOf(int index, Class<?> type) {
+        return new ArgInstanceOf(index, type);
+    }
+
+    static Residue proxyInstanceOf(Class<?> type) {
+        return new InvocationInstanceOf(true, type);
+    }
+
+    static Residue targetInstanceOf(Class<?> type) {
+        return new InvocationInstanceOf(false, type);
+    }
+
+    private static class Constant extends Residue {
+        private final boolean value;
+
+        Constant(boolean value) {
+            this.value = value;
+        }
+
+        @Override
+        boolean matches(Object proxy, Object target, Object[] args) {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(value);
+        }
+    }
+
+    private static class And extends Residue {
+        private final Residue left;
+        private final Residue right;
+        private final boolean needsInvocation;
+
+        And(Residue left, Residue right) {
+            this.left = left;
+            this.right = right;
+            this.needsInvocation = left.needsInvocation() || right.needsInvocation();
+        }
+
+        @Override
+        boolean matches(Object proxy, Object target, Object[] args) {
+            return left.matches(proxy, target, args) && right.matches(proxy, target, args);
+        }
+
+        @Override
+        boolean needsInvocation() {
+            return needsInvocation;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + left + " && " + right + ")";
+        }
+    }
+
+    private static class Or extends Residue {
+        private final Residue left;
+        private final Residue right;
+        private final boolean needsInvocation;
+
+        Or(Residue left, Residue right) {
+            this.left = left;
+            this.right = right;
+            this.needsInvocation = left.needsInvocation() || right.needsInvocation();
+        }
+
+        @Override
+        boolean matches(Object proxy, Object target, Object[] args) {
+            return left.matches(proxy, target, args) || right.matches(proxy, target, args);
+        }
+
+        @Override
+        boolean needsInvocation() {
+            return needsInvocation;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + left + " || " + right + ")";
+        }
+    }
+
+    private static class Not extends Residue {
+        private final Residue residue;
+
+        Not(Residue residue) {
+            this.residue = residue;
+        }
+
+        @Override
+        boolean matches(Object proxy, Object target, Object[] args) {
+            return !residue.matches(proxy, target, args);
+        }
+
+        @Override
+        boolean needsInvocation() {
+            return residue.needsInvocation();
+        }
+
+        @Override
+        public String toString() {
+            return "!" + residue;
+        }
+    }
+
+    private static class ArgInstanceOf extends Residue {
+        private final int index;
+        private final Class<?> type;
+
+        ArgInstanceOf(int index, Class<?> type) {
+            this.index = index;
+            this.type = type;
+        }
+
+        @Override
+        boolean matches(Object proxy, Object target, Object[] args) {
+            return type.isInstance(args[index]);
+        }
+
+        @Override
+        public String toString() {
+            return "args[" + index + "] instanceof " + type.getName();
+        }
+    }
+
+    private static class InvocationInstanceOf extends Residue {
+        private final boolean proxy;
+        private final Class<?> type;
+
+        InvocationInstanceOf(boolean proxy, Class<?> type) {
+            this.proxy = proxy;
+            this.type = type;
+        }
+
+        @Override
+        boolean matches(Object proxy, Object target, Object[] args) {
+            return type.isInstance(this.proxy ? proxy : target);
+        }
+
+        @Override
+        boolean needsInvocation() {
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return (proxy ? "this" : "target") + " instanceof " + type.getName();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.impl;
+
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.Signature;
+import org.aspectj.lang.reflect.SourceLocation;
+import org.aspectj.runtime.internal.AroundClosure;
+import org.springframework.aop.aspectj.MethodInvocationProceedingJoinPoint;
+
+/**
+ * Join point of {@link ReusableMethodInvocation}, reused together with the invocation. Calls that don't need
+ * signature or arguments copy don't allocate, others delegate to {@link MethodInvocationProceedingJoinPoint}
+ * created on demand for current call.
+ * @author Vitalii Tymchyshyn
+ */
+class ReusableJoinPoint implements ProceedingJoinPoint, JoinPoint.StaticPart {
+    private final ReusableMethodInvocation invocation;
+    private MethodInvocationProceedingJoinPoint details;
+
+    ReusableJoinPoint(ReusableMethodInvocation invocation) {
+        this.invocation = invocation;
+    }
+
+    void reset() {
+        details = null;
+    }
+
+    private JoinPoint getDetails() {
+        if (details == null) {
+            details = new MethodInvocationProceedingJoinPoint(invocation);
+        }
+        return details;
+    }
+
+    @Override
+    public void set$AroundClosure(AroundClosure aroundClosure) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Object proceed() throws Throwable {
+        return invocation.proceed();
+    }
+
+    @Override
+    public Object proceed(Object[] arguments) throws Throwable {
+        if (arguments == null) {
+            throw new IllegalArgumentException("Argument array passed to proceed cannot be null");
+        }
+        if (arguments.length != invocation.getArguments().length) {
+            throw new IllegalArgumentException("Expecting " + invocation.getArguments().length + " arguments to proceed, "
+                    + "but was passed " + arguments.length + " arguments");
+        }
+        invocation.setArguments(arguments);
+        return invocation.proceed();
+    }
+
+    @Override
+    public Object getThis() {
+        return invocation.getProxy();
+    }
+
+    @Override
+    public Object getTarget() {
+        return invocation.getThis();
+    }
+
+    @Override
+    public Object[] getArgs() {
+        return getDetails().getArgs();
+    }
+
+    @Override
+    public Signature getSignature() {
+        return getDetails().getSignature();
+    }
+
+    @Override
+    public SourceLocation getSourceLocation() {
+        return getDetails().getSourceLocation();
+    }
+
+    @Override
+    public String getKind() {
+        return ProceedingJoinPoint.METHOD_EXECUTION;
+    }
+
+    @Override
+    public int getId() {
+        return 0;
+    }
+
+    @Override
+    public JoinPoint.StaticPart getStaticPart() {
+        return this;
+    }
+
+    @Override
+    public String toShortString() {
+        return getDetails().toShortString();
+    }
+
+    @Override
+    public String toLongString() {
+        return getDetails().toLongString();
+    }
+
+    @Override
+    public String toString() {
+        return getDetails().toString();
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.impl;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.ProxyMethodInvocation;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Method invocation of {@link ReusingAopProxy}. Instances are kept in per-thread stack and reused for
+ * subsequent calls. Chain position is restored when {@link #proceed()} returns, so {@link #invocableClone()}
+ * returns the invocation itself and around advice can proceed again without a copy.
+ * <p>AspectJ advice gets {@link ReusableJoinPoint} of this invocation instead of creating join point and
+ * user attributes map for each call.</p>
+ * @author Vitalii Tymchyshyn
+ */
+class ReusableMethodInvocation implements ProxyMethodInvocation {
+    /**
+     * Same as {@code AbstractAspectJAdvice.JOIN_POINT_KEY}, but without AspectJ dependency
+     */
+    private static final String JOIN_POINT_KEY = "org.aspectj.lang.JoinPoint";
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+    private static final ThreadLocal<Stack> STACKS = new ThreadLocal<Stack>() {
+        @Override
+        protected Stack initialValue() {
+            return new Stack();
+        }
+    };
+
+    private final Stack stack;
+    private Object proxy;
+    private Object target;
+    private Class<?> targetClass;
+    private PrecompiledAopProxy.MethodChain chain;
+    private Object[] arguments;
+    private int currentInterceptorIndex;
+    private Map<String, Object> userAttributes;
+    private ReusableJoinPoint joinPoint;
+
+    private ReusableMethodInvocation(Stack stack) {
+        this.stack = stack;
+    }
+
+    /**
+     * @return invocation from current thread stack, initialized with given call
+     */
+    static ReusableMethodInvocation acquire(Object proxy, Object target, Class<?> targetClass,
+                                            PrecompiledAopProxy.MethodChain chain, Object[] arguments) {
+        Stack stack = STACKS.get();
+        ReusableMethodInvocation rc = stack.push();
+        rc.init(proxy, target, targetClass, chain, arguments, -1);
+        return rc;
+    }
+
+    /**
+     * Clears the call and returns invocation to the stack. Must be called on the same thread in reverse
+     * order of {@link #acquire}
+     */
+    void release() {
+        proxy = null;
+        target = null;
+        targetClass = null;
+        chain = null;
+        arguments = null;
+        if (userAttributes != null) {
+            userAttributes.clear();
+        }
+        if (joinPoint != null) {
+            joinPoint.reset();
+        }
+        if (stack != null) {
+            stack.depth--;
+        }
+    }
+
+    private void init(Object proxy, Object target, Class<?> targetClass, PrecompiledAopProxy.MethodChain chain,
+                      Object[] arguments, int currentInterceptorIndex) {
+        this.proxy = proxy;
+        this.target = target;
+        this.targetClass = targetClass;
+        this.chain = chain;
+        this.arguments = arguments != null ? arguments : NO_ARGUMENTS;
+        this.currentInterceptorIndex = currentInterceptorIndex;
+    }
+
+    @Override
+    public Object proceed() throws Throwable {
+        List<Object> interceptors = chain.interceptors;
+        int index = currentInterceptorIndex;
+        if (index == interceptors.size() - 1) {
+            return chain.invokeTarget(target, arguments);
+        }
+        currentInterceptorIndex = index + 1;
+        try {
+            return ((MethodInterceptor) interceptors.get(index + 1)).invoke(this);
+        } finally {
+            currentInterceptorIndex = index;
+        }
+    }
+
+    @Override
+    public Object getProxy() {
+        return proxy;
+    }
+
+    @Override
+    public Object getThis() {
+        return target;
+    }
+
+    @Override
+    public Method getMethod() {
+        return chain.method;
+    }
+
+    @Override
+    public AccessibleObject getStaticPart() {
+        return chain.method;
+    }
+
+    @Override
+    public Object[] getArguments() {
+        return arguments;
+    }
+
+    @Override
+    public void setArguments(Object... arguments) {
+        this.arguments = arguments;
+        if (joinPoint != null) {
+            joinPoint.reset();
+        }
+    }
+
+    /**
+     * @return this invocation, it can be proceeded any number of times
+     */
+    @Override
+    public MethodInvocation invocableClone() {
+        return this;
+    }
+
+    /**
+     * @return detached copy with given arguments, it is not reused
+     */
+    @Override
+    public MethodInvocation invocableClone(Object... arguments) {
+        ReusableMethodInvocation rc = new ReusableMethodInvocation(null);
+        rc.init(proxy, target, targetClass, chain, arguments, currentInterceptorIndex);
+        if (userAttributes != null && !userAttributes.isEmpty()) {
+            rc.userAttributes = new HashMap<String, Object>(userAttributes);
+        }
+        return rc;
+    }
+
+    @Override
+    public void setUserAttribute(String key, Object value) {
+        if (value != null) {
+            if (userAttributes == null) {
+                userAttributes = new HashMap<String, Object>();
+            }
+            userAttributes.put(key, value);
+        } else if (userAttributes != null) {
+            userAttributes.remove(key);
+        }
+    }
+
+    @Override
+    public Object getUserAttribute(String key) {
+        if (JOIN_POINT_KEY.equals(key)) {
+            return getJoinPoint();
+        }
+        return userAttributes == null ? null : userAttributes.get(key);
+    }
+
+    /**
+     * @return join point of this invocation, created once per reused invocation
+     */
+    ReusableJoinPoint getJoinPoint() {
+        if (joinPoint == null) {
+            joinPoint = new ReusableJoinPoint(this);
+        }
+        return joinPoint;
+    }
+
+    @Override
+    public String toString() {
+        return "ReusableMethodInvocation: " + (chain == null ? "released" : chain.method.toString());
+    }
+
+    private static class Stack {
+        private ReusableMethodInvocation[] invocations = new ReusableMethodInvocation[4];
+        private int depth;
+
+        ReusableMethodInvocation push() {
+            if (depth == invocations.length) {
+                ReusableMethodInvocation[] grown = new ReusableMethodInvocation[depth * 2];
+                System.arraycopy(invocations, 0, grown, 0, depth);
+                invocations = grown;
+            }
+            ReusableMethodInvocation rc = invocations[depth];
+            if (rc == null) {
+                rc = new ReusableMethodInvocation(this);
+                invocations[depth] = rc;
+            }
+            depth++;
+            return rc;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.impl;
+
+import org.springframework.aop.framework.AdvisedSupport;
+
+/**
+ * {@link MethodHandleAopProxy} that does not create new method invocation for each advised call. Invocations
+ * are taken from per-thread stack, so that nested calls get their own ones, and are cleared and returned
+ * after the call. Only chains of {@link org.aopalliance.intercept.MethodInterceptor}s use reused invocations,
+ * chains with dynamic method matchers are called as in {@link PrecompiledAopProxy}.
+ * <p>Advice must not keep the invocation or it's join point after it returns, e.g. to proceed asynchronously.</p>
+ * @author Vitalii Tymchyshyn
+ */
+public class ReusingAopProxy extends MethodHandleAopProxy {
+    public ReusingAopProxy(AdvisedSupport advised, ProxyClassCache proxyClassCache) {
+        super(advised, proxyClassCache);
+    }
+
+    @Override
+    protected Object invokeChain(Object proxy, Object target, Class<?> targetClass, MethodChain chain, Object[] args)
+            throws Throwable {
+        if (chain.dynamic) {
+            return super.invokeChain(proxy, target, targetClass, chain, args);
+        }
+        ReusableMethodInvocation invocation = ReusableMethodInvocation.acquire(proxy, target, targetClass, chain, args);
+        try {
+            return invocation.proceed();
+        } finally {
+            invocation.release();
+        }
+    }
+}
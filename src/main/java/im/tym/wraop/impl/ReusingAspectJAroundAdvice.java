@@ -0,0 +1,43 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.impl;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.springframework.aop.ProxyMethodInvocation;
+import org.springframework.aop.aspectj.AspectInstanceFactory;
+import org.springframework.aop.aspectj.AspectJAroundAdvice;
+import org.springframework.aop.aspectj.AspectJExpressionPointcut;
+
+import java.lang.reflect.Method;
+
+/**
+ * Around advice that uses join point of {@link ReusableMethodInvocation} instead of creating a new one per call
+ * @author Vitalii Tymchyshyn
+ */
+class ReusingAspectJAroundAdvice extends AspectJAroundAdvice {
+    ReusingAspectJAroundAdvice(Method aspectJAroundAdviceMethod, AspectJExpressionPointcut pointcut,
+                               AspectInstanceFactory aspectInstanceFactory) {
+        super(aspectJAroundAdviceMethod, pointcut, aspectInstanceFactory);
+    }
+
+    @Override
+    protected ProceedingJoinPoint lazyGetProceedingJoinPoint(ProxyMethodInvocation invocation) {
+        if (invocation instanceof ReusableMethodInvocation) {
+            return ((ReusableMethodInvocation) invocation).getJoinPoint();
+        }
+        return super.lazyGetProceedingJoinPoint(invocation);
+    }
+}
@@ -0,0 +1,430 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.impl;
+
+import org.aopalliance.aop.Advice;
+import org.aspectj.lang.JoinPoint;
+import org.springframework.aop.Advisor;
+import org.springframework.aop.ClassFilter;
+import org.springframework.aop.IntroductionAwareMethodMatcher;
+import org.springframework.aop.MethodMatcher;
+import org.springframework.aop.Pointcut;
+import org.springframework.aop.PointcutAdvisor;
+import org.springframework.aop.aspectj.AbstractAspectJAdvice;
+import org.springframework.aop.aspectj.AspectJAfterReturningAdvice;
+import org.springframework.aop.aspectj.AspectJAroundAdvice;
+import org.springframework.aop.aspectj.AspectJAfterThrowingAdvice;
+import org.springframework.aop.aspectj.AspectJExpressionPointcut;
+import org.springframework.aop.aspectj.annotation.AspectMetadata;
+import org.springframework.aop.aspectj.annotation.MetadataAwareAspectInstanceFactory;
+import org.springframework.aop.aspectj.annotation.ReflectiveAspectJAdvisorFactory;
+import org.springframework.aop.aspectj.annotation.SimpleMetadataAwareAspectInstanceFactory;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.core.annotation.Order;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Process-wide advisor factory that analyzes each singleton aspect class only once. Aspect metadata, advice
+ * methods and pointcuts are kept per class in a {@link ClassValue}, so they don't prevent class unloading.
+ * Registering another instance of a known aspect class only creates advice objects bound to that instance.
+ * <p>Pointcuts are shared between all the instances, so expression is parsed once per target class loader and
+ * AspectJ matching results are cached for all factories. Pointcut depends only on aspect class, not on the
+ * instance. AspectJ pointcuts cache matching results by target method, so each target class loader gets its own
+ * copy, which {@link #releaseClassLoader(ClassLoader)} drops.</p>
+ * <p>When advice does not bind pointcut parameters, it's expression is compiled with {@link PointcutCompiler}
+ * and AspectJ is used only for expressions compiler does not support. Set {@code wraop.pointcut.compiler.disabled}
+ * system property to {@code true} to always use AspectJ matching.</p>
+ * @author Vitalii Tymchyshyn
+ */
+public class SharedAspectJAdvisorFactory extends ReflectiveAspectJAdvisorFactory {
+    private static final SharedAspectJAdvisorFactory INSTANCE = new SharedAspectJAdvisorFactory();
+    private static final boolean COMPILER_ENABLED = !Boolean.getBoolean("wraop.pointcut.compiler.disabled");
+
+    private final ClassValue<AspectTemplate> templates = new ClassValue<AspectTemplate>() {
+        @Override
+        protected AspectTemplate computeValue(Class<?> type) {
+            return createTemplate(type);
+        }
+    };
+    /**
+     * AspectJ pointcuts of all the analyzed aspects, to drop their copies on {@link #releaseClassLoader}
+     */
+    private final Set<LoaderScopedPointcut> pointcuts = Collections.synchronizedSet(
+            Collections.newSetFromMap(new WeakHashMap<LoaderScopedPointcut, Boolean>()));
+
+    protected SharedAspectJAdvisorFactory() {
+    }
+
+    public static SharedAspectJAdvisorFactory getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Drops AspectJ pointcuts used to match classes of given class loader. Unlike other state, these pointcuts
+     * are kept with aspect classes and cache matching results by method, so they would keep target classes from
+     * being unloaded. New pointcuts are made if the class loader is used again.
+     * @param classLoader class loader to forget
+     */
+    public void releaseClassLoader(ClassLoader classLoader) {
+        List<LoaderScopedPointcut> known;
+        synchronized (pointcuts) {
+            known = new ArrayList<LoaderScopedPointcut>(pointcuts);
+        }
+        for (LoaderScopedPointcut pointcut : known) {
+            pointcut.release(classLoader);
+        }
+    }
+
+    /**
+     * @param aspectClass class to analyze
+     * @return cached metadata named after the class, null if it's not an aspect
+     */
+    public AspectMetadata getAspectMetadata(Class<?> aspectClass) {
+        return templates.get(aspectClass).metadata;
+    }
+
+    /**
+     * Makes instance factory for given aspect that reuses cached metadata
+     * @param aspect singleton aspect instance
+     * @return instance factory or null if it's not an aspect
+     */
+    public MetadataAwareAspectInstanceFactory getInstanceFactory(Object aspect) {
+        AspectMetadata metadata = getAspectMetadata(aspect.getClass());
+        return metadata == null ? null : new InstanceFactory(aspect, metadata);
+    }
+
+    @Override
+    public List<Advisor> getAdvisors(MetadataAwareAspectInstanceFactory instanceFactory) {
+        AspectMetadata metadata = instanceFactory.getAspectMetadata();
+        AspectTemplate template = templates.get(metadata.getAspectClass());
+        if (template.metadata == null || metadata.isLazilyInstantiated()) {
+            return super.getAdvisors(instanceFactory);
+        }
+        String aspectName = metadata.getAspectName();
+        List<Advisor> rc = new ArrayList<Advisor>(template.advices.size() + template.sharedAdvisors.size());
+        for (AdviceTemplate adviceTemplate : template.advices) {
+            Advice advice = getAdvice(adviceTemplate.method, adviceTemplate.pointcut, instanceFactory,
+                    adviceTemplate.declarationOrder, aspectName);
+            rc.add(new SharedPointcutAdvisor(adviceTemplate.matchingPointcut, advice, instanceFactory));
+        }
+        rc.addAll(template.sharedAdvisors);
+        return rc;
+    }
+
+    /**
+     * Same as inherited, but around advice is {@link ReusingAspectJAroundAdvice}, so it does not create join point
+     * for each call made by {@link ReusingAopProxy}
+     */
+    @Override
+    public Advice getAdvice(Method candidateAdviceMethod, AspectJExpressionPointcut pointcut,
+                            MetadataAwareAspectInstanceFactory aspectInstanceFactory, int declarationOrderInAspect,
+                            String aspectName) {
+        Advice rc = super.getAdvice(candidateAdviceMethod, pointcut, aspectInstanceFactory, declarationOrderInAspect,
+                aspectName);
+        if (rc == null || rc.getClass() != AspectJAroundAdvice.class) {
+            return rc;
+        }
+        AspectJAroundAdvice advice = new ReusingAspectJAroundAdvice(candidateAdviceMethod, pointcut,
+                aspectInstanceFactory);
+        advice.setAspectName(aspectName);
+        advice.setDeclarationOrder(declarationOrderInAspect);
+        String[] argNames = parameterNameDiscoverer.getParameterNames(candidateAdviceMethod);
+        if (argNames != null) {
+            advice.setArgumentNamesFromStringArray(argNames);
+        }
+        advice.calculateArgumentBindings();
+        return advice;
+    }
+
+    private AspectTemplate createTemplate(Class<?> aspectClass) {
+        if (!isAspect(aspectClass)) {
+            return new AspectTemplate(null);
+        }
+        AspectMetadata metadata = new AspectMetadata(aspectClass, aspectClass.getName());
+        AspectTemplate rc = new AspectTemplate(metadata.getAjType().isAspect() ? metadata : null);
+        if (rc.metadata == null || metadata.isLazilyInstantiated()) {
+            return rc;
+        }
+        for (Advisor advisor : super.getAdvisors(
+                new SimpleMetadataAwareAspectInstanceFactory(aspectClass, aspectClass.getName()))) {
+            Advice advice = advisor.getAdvice();
+            if (advisor instanceof PointcutAdvisor && advice instanceof AbstractAspectJAdvice) {
+                AbstractAspectJAdvice aspectJAdvice = (AbstractAspectJAdvice) advice;
+                TemplatePointcut pointcut = new TemplatePointcut(aspectClass,
+                        aspectJAdvice.getPointcut().getExpression());
+                Pointcut matchingPointcut = null;
+                if (COMPILER_ENABLED && !bindsPointcutParameters(aspectJAdvice)) {
+                    matchingPointcut = PointcutCompiler.compile(pointcut.getExpression(), aspectClass);
+                }
+                if (matchingPointcut == null) {
+                    LoaderScopedPointcut loaderScopedPointcut = new LoaderScopedPointcut(pointcut);
+                    pointcuts.add(loaderScopedPointcut);
+                    matchingPointcut = loaderScopedPointcut;
+                }
+                rc.advices.add(new AdviceTemplate(aspectJAdvice.getAspectJAdviceMethod(), pointcut,
+                        matchingPointcut, aspectJAdvice.getDeclarationOrder()));
+            } else {
+                rc.sharedAdvisors.add(advisor);
+            }
+        }
+        return rc;
+    }
+
+    /**
+     * Compiled pointcuts don't produce {@link org.aspectj.weaver.tools.JoinPointMatch}, so advice may only
+     * take join point arguments and, for after returning/throwing advice, the returned value or exception.
+     */
+    private static boolean bindsPointcutParameters(AbstractAspectJAdvice advice) {
+        int allowed = advice instanceof AspectJAfterReturningAdvice || advice instanceof AspectJAfterThrowingAdvice
+                ? 1 : 0;
+        for (Class<?> type : advice.getAspectJAdviceMethod().getParameterTypes()) {
+            if (!JoinPoint.class.isAssignableFrom(type) && type != JoinPoint.StaticPart.class && --allowed < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class AspectTemplate {
+        private final AspectMetadata metadata;
+        private final List<AdviceTemplate> advices = new ArrayList<AdviceTemplate>();
+        private final List<Advisor> sharedAdvisors = new ArrayList<Advisor>();
+
+        AspectTemplate(AspectMetadata metadata) {
+            this.metadata = metadata;
+        }
+    }
+
+    private static class AdviceTemplate {
+        private final Method method;
+        private final AspectJExpressionPointcut pointcut;
+        private final Pointcut matchingPointcut;
+        private final int declarationOrder;
+
+        AdviceTemplate(Method method, AspectJExpressionPointcut pointcut, Pointcut matchingPointcut,
+                       int declarationOrder) {
+            this.method = method;
+            this.pointcut = pointcut;
+            this.matchingPointcut = matchingPointcut;
+            this.declarationOrder = declarationOrder;
+        }
+    }
+
+    /**
+     * Pointcut given to advice objects. Advice sets binding parameters on it, they are remembered to make
+     * pointcuts for matching. It is never used for matching itself.
+     */
+    private static class TemplatePointcut extends AspectJExpressionPointcut {
+        private final Class<?> declarationScope;
+        private volatile String[] parameterNames = new String[0];
+        private volatile Class<?>[] parameterTypes = new Class<?>[0];
+
+        TemplatePointcut(Class<?> declarationScope, String expression) {
+            super(declarationScope, new String[0], new Class<?>[0]);
+            this.declarationScope = declarationScope;
+            setExpression(expression);
+        }
+
+        @Override
+        public void setParameterNames(String... names) {
+            parameterNames = names;
+            super.setParameterNames(names);
+        }
+
+        @Override
+        public void setParameterTypes(Class<?>... types) {
+            parameterTypes = types;
+            super.setParameterTypes(types);
+        }
+
+        AspectJExpressionPointcut copy() {
+            AspectJExpressionPointcut rc = new AspectJExpressionPointcut(declarationScope, parameterNames,
+                    parameterTypes);
+            rc.setExpression(getExpression());
+            return rc;
+        }
+    }
+
+    /**
+     * Matches with a copy of template pointcut made for the class loader of target class. Copies are replaced
+     * as a whole on change, so matching does not need any locks.
+     */
+    private static class LoaderScopedPointcut implements Pointcut, ClassFilter, IntroductionAwareMethodMatcher {
+        private final TemplatePointcut template;
+        private volatile Map<ClassLoader, AspectJExpressionPointcut> copies = Collections.emptyMap();
+
+        LoaderScopedPointcut(TemplatePointcut template) {
+            this.template = template;
+        }
+
+        private AspectJExpressionPointcut getPointcut(Class<?> targetClass) {
+            ClassLoader classLoader = targetClass.getClassLoader();
+            AspectJExpressionPointcut rc = copies.get(classLoader);
+            if (rc == null) {
+                synchronized (this) {
+                    rc = copies.get(classLoader);
+                    if (rc == null) {
+                        rc = template.copy();
+                        Map<ClassLoader, AspectJExpressionPointcut> newCopies =
+                                new IdentityHashMap<ClassLoader, AspectJExpressionPointcut>(copies);
+                        newCopies.put(classLoader, rc);
+                        copies = newCopies;
+                    }
+                }
+            }
+            return rc;
+        }
+
+        synchronized void release(ClassLoader classLoader) {
+            if (copies.containsKey(classLoader)) {
+                Map<ClassLoader, AspectJExpressionPointcut> newCopies =
+                        new IdentityHashMap<ClassLoader, AspectJExpressionPointcut>(copies);
+                newCopies.remove(classLoader);
+                copies = newCopies;
+            }
+        }
+
+        @Override
+        public ClassFilter getClassFilter() {
+            return this;
+        }
+
+        @Override
+        public MethodMatcher getMethodMatcher() {
+            return this;
+        }
+
+        @Override
+        public boolean matches(Class<?> clazz) {
+            return getPointcut(clazz).matches(clazz);
+        }
+
+        @Override
+        public boolean matches(Method method, Class<?> targetClass, boolean hasIntroductions) {
+            return getPointcut(targetClass != null ? targetClass : method.getDeclaringClass())
+                    .matches(method, targetClass, hasIntroductions);
+        }
+
+        @Override
+        public boolean matches(Method method, Class<?> targetClass) {
+            return matches(method, targetClass, false);
+        }
+
+        @Override
+        public boolean isRuntime() {
+            return template.isRuntime();
+        }
+
+        @Override
+        public boolean matches(Method method, Class<?> targetClass, Object[] args) {
+            return getPointcut(targetClass != null ? targetClass : method.getDeclaringClass())
+                    .matches(method, targetClass, args);
+        }
+
+        @Override
+        public String toString() {
+            return template.toString();
+        }
+    }
+
+    /**
+     * Same as {@link org.springframework.aop.aspectj.annotation.SingletonMetadataAwareAspectInstanceFactory},
+     * but with cached metadata
+     */
+    private static class InstanceFactory implements MetadataAwareAspectInstanceFactory {
+        private final Object aspect;
+        private final AspectMetadata metadata;
+
+        InstanceFactory(Object aspect, AspectMetadata metadata) {
+            this.aspect = aspect;
+            this.metadata = metadata;
+        }
+
+        @Override
+        public AspectMetadata getAspectMetadata() {
+            return metadata;
+        }
+
+        @Override
+        public Object getAspectInstance() {
+            return aspect;
+        }
+
+        @Override
+        public ClassLoader getAspectClassLoader() {
+            return aspect.getClass().getClassLoader();
+        }
+
+        @Override
+        public int getOrder() {
+            if (aspect instanceof Ordered) {
+                return ((Ordered) aspect).getOrder();
+            }
+            Order order = AnnotationUtils.findAnnotation(aspect.getClass(), Order.class);
+            return order != null ? order.value() : Ordered.LOWEST_PRECEDENCE;
+        }
+    }
+
+    /**
+     * Advisor of singleton aspect instance with pointcut shared between all instances of the aspect class
+     */
+    private static class SharedPointcutAdvisor implements PointcutAdvisor, Ordered {
+        private final Pointcut pointcut;
+        private final Advice advice;
+        private final MetadataAwareAspectInstanceFactory instanceFactory;
+
+        SharedPointcutAdvisor(Pointcut pointcut, Advice advice,
+                              MetadataAwareAspectInstanceFactory instanceFactory) {
+            this.pointcut = pointcut;
+            this.advice = advice;
+            this.instanceFactory = instanceFactory;
+        }
+
+        @Override
+        public Pointcut getPointcut() {
+            return pointcut;
+        }
+
+        @Override
+        public Advice getAdvice() {
+            return advice;
+        }
+
+        @Override
+        public boolean isPerInstance() {
+            return false;
+        }
+
+        @Override
+        public int getOrder() {
+            return instanceFactory.getOrder();
+        }
+
+        @Override
+        public String toString() {
+            return "Shared pointcut advisor [" + pointcut + "]; advice [" + advice + "]";
+        }
+    }
+}
@@ -16,10 +16,18 @@
 package im.tym.wraop.impl;
 
 import im.tym.wraop.WrapperFactory;
+import im.tym.wraop.WrapperStatistics;
 import org.springframework.util.ClassUtils;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Supplier;
 
 /**
  * @author Vitalii Tymchyshyn
@@ -27,6 +35,19 @@ import java.util.Collection;
 
 public class SpiBasedWrapperFactory<I> implements WrapperFactory<I> {
     private static final Class[] EMPTY_CLASS_ARRAY = new Class[0];
+    /**
+     * All interfaces of each class, resolved once. Arrays are shared, so they must not be changed.
+     */
+    private static final ClassValue<Class[]> ALL_INTERFACES = new ClassValue<Class[]>() {
+        @Override
+        protected Class[] computeValue(Class<?> type) {
+            return ClassUtils.getAllInterfacesForClass(type);
+        }
+    };
+    /**
+     * Groups larger than this are split between workers when wrapping in a pool
+     */
+    static final int PARALLEL_CHUNK_SIZE = 1024;
     private final WrapperFactorySpi<I> spi;
 
     public SpiBasedWrapperFactory(WrapperFactorySpi<I> spi) {
@@ -43,6 +64,16 @@ public class SpiBasedWrapperFactory<I> implements WrapperFactory<I> {
         return spi.addAspect(aspect);
     }
 
+    @Override
+    public boolean removeAspect(Object aspect) {
+        return spi.removeAspect(aspect);
+    }
+
+    @Override
+    public boolean replaceAspect(Object oldAspect, Object newAspect) {
+        return spi.replaceAspect(oldAspect, newAspect);
+    }
+
     @Override
     public void setInterfaces(Class... wrappedInterfaces) {
         spi.setInterfaces(wrappedInterfaces);
@@ -57,6 +88,86 @@ public class SpiBasedWrapperFactory<I> implements WrapperFactory<I> {
         return wrap(object, object.getClass().getClassLoader());
     }
 
+    @Override
+    public List<I> wrapAll(Iterable<? extends I> objects) {
+        return wrapAll(objects, null);
+    }
+
+    @Override
+    public List<I> wrapAll(Iterable<? extends I> objects, ForkJoinPool pool) {
+        List<I> input = new ArrayList<I>();
+        for (I object : objects) {
+            input.add(object);
+        }
+        return (List<I>) Arrays.asList(wrapAll(input, pool));
+    }
+
+    @Override
+    public I[] wrapAll(I[] objects) {
+        return wrapAll(objects, null);
+    }
+
+    @Override
+    public I[] wrapAll(I[] objects, ForkJoinPool pool) {
+        Object[] result = wrapAll(Arrays.asList(objects), pool);
+        return Arrays.copyOf(result, result.length, (Class<I[]>) objects.getClass());
+    }
+
+    private Object[] wrapAll(List<I> objects, ForkJoinPool pool) {
+        Object[] result = new Object[objects.size()];
+        Map<Class<?>, List<Integer>> groups = new LinkedHashMap<Class<?>, List<Integer>>();
+        for (int i = 0; i < result.length; i++) {
+            Class<?> objectClass = objects.get(i).getClass();
+            List<Integer> group = groups.get(objectClass);
+            if (group == null) {
+                group = new ArrayList<Integer>();
+                groups.put(objectClass, group);
+            }
+            group.add(i);
+        }
+        for (Map.Entry<Class<?>, List<Integer>> entry : groups.entrySet()) {
+            List<Integer> positions = entry.getValue();
+            List<I> members = new ArrayList<I>(positions.size());
+            for (Integer position : positions) {
+                members.add(objects.get(position));
+            }
+            WrapGroupTask task = new WrapGroupTask(members, positions, result,
+                    entry.getKey().getClassLoader(), 0, members.size());
+            if (pool != null && members.size() > PARALLEL_CHUNK_SIZE) {
+                pool.invoke(task);
+            } else {
+                task.wrapRange();
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public I wrapLazily(Supplier<? extends I> supplier) {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        return wrapLazily(supplier, classLoader != null ? classLoader : SpiBasedWrapperFactory.class.getClassLoader());
+    }
+
+    @Override
+    public I wrapLazily(Supplier<? extends I> supplier, ClassLoader classLoader) {
+        return spi.wrapLazily(supplier, classLoader);
+    }
+
+    @Override
+    public I acquire(I object) {
+        return spi.acquire(object);
+    }
+
+    @Override
+    public void release(I proxy) {
+        spi.release(proxy);
+    }
+
+    @Override
+    public void releaseClassLoader(ClassLoader classLoader) {
+        spi.releaseClassLoader(classLoader);
+    }
+
     @Override
     public int addAspects(Object... aspects) {
         return addAspects(Arrays.asList(aspects));
@@ -98,9 +209,7 @@ public class SpiBasedWrapperFactory<I> implements WrapperFactory<I> {
 
     @Override
     public I wrapAllInterfaces(I object, ClassLoader classLoader) {
-        synchronized (spi) {
-            return withAllInterfacesOf(object).wrap(object, classLoader);
-        }
+        return spi.wrap(object, ALL_INTERFACES.get(object.getClass()), classLoader);
     }
 
     @Override
@@ -110,13 +219,13 @@ public class SpiBasedWrapperFactory<I> implements WrapperFactory<I> {
 
     @Override
     public WrapperFactory<I> withAllInterfacesOf(Object object) {
-        setInterfaces(ClassUtils.getAllInterfacesForClass(object.getClass()));
+        setInterfaces(ALL_INTERFACES.get(object.getClass()));
         return this;
     }
 
     @Override
     public WrapperFactory<I> withAllInterfacesOfClass(Class clazz) {
-        setInterfaces(ClassUtils.getAllInterfacesForClass(clazz));
+        setInterfaces(ALL_INTERFACES.get(clazz));
         return this;
     }
 
@@ -142,7 +251,57 @@ public class SpiBasedWrapperFactory<I> implements WrapperFactory<I> {
         return this;
     }
 
+    @Override
+    public WrapperFactory<I> freeze() {
+        return new SpiBasedWrapperFactory<I>(spi.freeze());
+    }
+
+    @Override
+    public WrapperStatistics getStatistics() {
+        return spi.getStatistics();
+    }
+
     public WrapperFactorySpi<I> getSpi() {
         return spi;
     }
+
+    /**
+     * Wraps a range of objects of the same class and stores results at their original positions
+     */
+    private class WrapGroupTask extends RecursiveAction {
+        private final List<I> members;
+        private final List<Integer> positions;
+        private final Object[] result;
+        private final ClassLoader classLoader;
+        private final int from;
+        private final int to;
+
+        private WrapGroupTask(List<I> members, List<Integer> positions, Object[] result, ClassLoader classLoader,
+                              int from, int to) {
+            this.members = members;
+            this.positions = positions;
+            this.result = result;
+            this.classLoader = classLoader;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > PARALLEL_CHUNK_SIZE) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new WrapGroupTask(members, positions, result, classLoader, from, middle),
+                        new WrapGroupTask(members, positions, result, classLoader, middle, to));
+            } else {
+                wrapRange();
+            }
+        }
+
+        private void wrapRange() {
+            List<I> wrapped = spi.wrapAll(members.subList(from, to), classLoader);
+            for (int i = from; i < to; i++) {
+                result[positions.get(i)] = wrapped.get(i - from);
+            }
+        }
+    }
 }
@@ -0,0 +1,105 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.impl;
+
+import org.springframework.aop.TargetSource;
+
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Target source of pooled proxies made by {@link ProxyConfiguration#acquireProxy(Object)}. Like Spring's
+ * {@link org.springframework.aop.target.HotSwappableTargetSource} it lets the target be replaced while the proxy
+ * is kept, but it does not lock: the target is a volatile field, and only the owner of the proxy swaps it.
+ * All targets are of the same class, so interceptor chains resolved for the proxy stay valid after the swap.
+ * @author Vitalii Tymchyshyn
+ */
+class SwappableTargetSource implements TargetSource {
+    private static final AtomicReferenceFieldUpdater<SwappableTargetSource, Object> TARGET =
+            AtomicReferenceFieldUpdater.newUpdater(SwappableTargetSource.class, Object.class, "target");
+
+    private final Class<?> targetClass;
+    private final Queue<SwappableTargetSource> pool;
+    private volatile Object target;
+    private Object proxy;
+
+    /**
+     * @param targetClass class of all the targets
+     * @param pool pool to return to on release, null if proxy should not be pooled
+     */
+    SwappableTargetSource(Class<?> targetClass, Queue<SwappableTargetSource> pool) {
+        this.targetClass = targetClass;
+        this.pool = pool;
+    }
+
+    @Override
+    public Class<?> getTargetClass() {
+        return targetClass;
+    }
+
+    /**
+     * Target may change between calls, so proxies must ask for it each time
+     */
+    @Override
+    public boolean isStatic() {
+        return false;
+    }
+
+    @Override
+    public Object getTarget() {
+        Object rc = target;
+        if (rc == null) {
+            throw new IllegalStateException("Proxy was released to the pool and has no target");
+        }
+        return rc;
+    }
+
+    @Override
+    public void releaseTarget(Object target) {
+    }
+
+    Object getProxy() {
+        return proxy;
+    }
+
+    void setProxy(Object proxy) {
+        this.proxy = proxy;
+    }
+
+    /**
+     * @param target new target, must be of the target class
+     */
+    void swap(Object target) {
+        this.target = target;
+    }
+
+    /**
+     * Drops the target and returns this source with it's proxy to the pool. Does nothing if already released.
+     * If pool is full, the proxy is left for garbage collector. Target is dropped with compare-and-set, so of
+     * concurrent releases only one returns the proxy to the pool.
+     */
+    void release() {
+        Object current = target;
+        if (current != null && TARGET.compareAndSet(this, current, null) && pool != null) {
+            pool.offer(this);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SwappableTargetSource for target object [" + target + "]";
+    }
+}
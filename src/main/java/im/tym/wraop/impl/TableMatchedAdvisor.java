@@ -0,0 +1,134 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.impl;
+
+import org.aopalliance.aop.Advice;
+import org.springframework.aop.ClassFilter;
+import org.springframework.aop.IntroductionAwareMethodMatcher;
+import org.springframework.aop.MethodMatcher;
+import org.springframework.aop.Pointcut;
+import org.springframework.aop.PointcutAdvisor;
+import org.springframework.aop.support.MethodMatchers;
+import org.springframework.core.Ordered;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Advisor that matches known target classes with {@link AdvisorMatchTable} entry and falls back to original
+ * advisor's pointcut for anything else, including classes which fingerprint differs from the one recorded in
+ * the table. Original pointcut is not touched (so AspectJ expression is not parsed) until it's needed.
+ * @author Vitalii Tymchyshyn
+ */
+class TableMatchedAdvisor implements PointcutAdvisor, Ordered {
+    private final PointcutAdvisor advisor;
+    private final Map<String, Set<String>> classes;
+    private final Map<String, String> fingerprints;
+    private final TablePointcut pointcut = new TablePointcut();
+
+    TableMatchedAdvisor(PointcutAdvisor advisor, Map<String, Set<String>> classes, Map<String, String> fingerprints) {
+        this.advisor = advisor;
+        this.classes = classes;
+        this.fingerprints = fingerprints;
+    }
+
+    @Override
+    public Pointcut getPointcut() {
+        return pointcut;
+    }
+
+    @Override
+    public Advice getAdvice() {
+        return advisor.getAdvice();
+    }
+
+    @Override
+    public boolean isPerInstance() {
+        return advisor.isPerInstance();
+    }
+
+    @Override
+    public int getOrder() {
+        return advisor instanceof Ordered ? ((Ordered) advisor).getOrder() : Ordered.LOWEST_PRECEDENCE;
+    }
+
+    PointcutAdvisor getAdvisor() {
+        return advisor;
+    }
+
+    @Override
+    public String toString() {
+        return "Table matched " + advisor;
+    }
+
+    /**
+     * @return matched methods of given class, null if class is not in the table or was changed since
+     */
+    private Set<String> getMatchedMethods(Class<?> clazz) {
+        Set<String> methods = classes.get(clazz.getName());
+        if (methods == null) {
+            return null;
+        }
+        return AdvisorMatchTable.getClassFingerprint(clazz).equals(fingerprints.get(clazz.getName())) ? methods : null;
+    }
+
+    private class TablePointcut implements Pointcut, ClassFilter, IntroductionAwareMethodMatcher {
+        @Override
+        public ClassFilter getClassFilter() {
+            return this;
+        }
+
+        @Override
+        public MethodMatcher getMethodMatcher() {
+            return this;
+        }
+
+        @Override
+        public boolean matches(Class<?> clazz) {
+            Set<String> methods = getMatchedMethods(clazz);
+            if (methods == null) {
+                return advisor.getPointcut().getClassFilter().matches(clazz);
+            }
+            return !methods.isEmpty();
+        }
+
+        @Override
+        public boolean matches(Method method, Class<?> targetClass, boolean hasIntroductions) {
+            Set<String> methods = targetClass == null || hasIntroductions ? null : getMatchedMethods(targetClass);
+            if (methods == null) {
+                return MethodMatchers.matches(advisor.getPointcut().getMethodMatcher(), method, targetClass,
+                        hasIntroductions);
+            }
+            return methods.contains(AdvisorMatchTable.getMethodSignature(method));
+        }
+
+        @Override
+        public boolean matches(Method method, Class<?> targetClass) {
+            return matches(method, targetClass, false);
+        }
+
+        @Override
+        public boolean isRuntime() {
+            return false;
+        }
+
+        @Override
+        public boolean matches(Method method, Class<?> targetClass, Object[] args) {
+            throw new UnsupportedOperationException("Table matched pointcut is static");
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.impl;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+/**
+ * Records latency of interceptor chain. Without a delegate it measures the whole call from its position in the
+ * chain. With a delegate it measures exclusive time of the delegate interceptor: time spent in the rest of the
+ * chain is subtracted. For this {@link #PROCEED} must follow the timer in the chain, it accumulates time
+ * spent in proceeding for the nearest enclosing timer of the same thread.
+ * @author Vitalii Tymchyshyn
+ */
+class TimingInterceptor implements MethodInterceptor {
+    /**
+     * Measures time spent in the rest of the chain, including repeated proceeds
+     */
+    static final MethodInterceptor PROCEED = new MethodInterceptor() {
+        @Override
+        public Object invoke(MethodInvocation invocation) throws Throwable {
+            long start = System.nanoTime();
+            try {
+                return invocation.proceed();
+            } finally {
+                NESTED.get()[0] += System.nanoTime() - start;
+            }
+        }
+    };
+
+    private static final ThreadLocal<long[]> NESTED = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
+    private final LatencyHistogram histogram;
+    private final MethodInterceptor delegate;
+
+    TimingInterceptor(LatencyHistogram histogram, MethodInterceptor delegate) {
+        this.histogram = histogram;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        if (delegate == null) {
+            long start = System.nanoTime();
+            try {
+                return invocation.proceed();
+            } finally {
+                histogram.record(System.nanoTime() - start);
+            }
+        }
+        long[] nested = NESTED.get();
+        long outer = nested[0];
+        nested[0] = 0;
+        long start = System.nanoTime();
+        try {
+            return delegate.invoke(invocation);
+        } finally {
+            histogram.record(System.nanoTime() - start - nested[0]);
+            nested[0] = outer;
+        }
+    }
+
+    MethodInterceptor getDelegate() {
+        return delegate;
+    }
+}
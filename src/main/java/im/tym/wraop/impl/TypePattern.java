@@ -0,0 +1,218 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.impl;
+
+import org.springframework.util.ClassUtils;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Type pattern of {@link PointcutCompiler} language: {@code *}, exact type name or qualified name with
+ * {@code *} and {@code ..} wildcards, optionally followed by {@code +} for subtypes and {@code []} for arrays.
+ * @author Vitalii Tymchyshyn
+ */
+class TypePattern {
+    static final TypePattern ANY = new TypePattern(null, null, false, 0);
+
+    private final Class<?> exactType;
+    private final Pattern namePattern;
+    private final boolean includeSubtypes;
+    private final int dimensions;
+
+    private TypePattern(Class<?> exactType, Pattern namePattern, boolean includeSubtypes, int dimensions) {
+        this.exactType = exactType;
+        this.namePattern = namePattern;
+        this.includeSubtypes = includeSubtypes;
+        this.dimensions = dimensions;
+    }
+
+    /**
+     * @param pattern pattern text
+     * @param scope class to resolve simple type names against: {@code java.lang}, it's package and nested classes
+     * @return parsed pattern
+     * @throws IllegalArgumentException if pattern is not supported or type can't be resolved
+     */
+    static TypePattern parse(String pattern, Class<?> scope) {
+        String text = pattern.trim();
+        if (text.equals("*")) {
+            return ANY;
+        }
+        boolean includeSubtypes = text.endsWith("+");
+        if (includeSubtypes) {
+            text = text.substring(0, text.length() - 1);
+        }
+        int dimensions = 0;
+        while (text.endsWith("[]")) {
+            text = text.substring(0, text.length() - 2).trim();
+            dimensions++;
+        }
+        if (text.isEmpty() || !text.matches("[\\w$.*]+")) {
+            throw new IllegalArgumentException("Unsupported type pattern " + pattern);
+        }
+        if (text.indexOf('*') < 0 && !text.contains("..")) {
+            Class<?> type = resolve(text, scope);
+            for (int i = 0; i < dimensions; i++) {
+                type = Array.newInstance(type, 0).getClass();
+            }
+            return new TypePattern(type, null, includeSubtypes, 0);
+        }
+        if (text.indexOf('.') < 0 && !text.equals("*")) {
+            // simple name wildcards depend on AspectJ imports resolution
+            throw new IllegalArgumentException("Unsupported type pattern " + pattern);
+        }
+        return new TypePattern(null, Pattern.compile(toRegex(text)), includeSubtypes, dimensions);
+    }
+
+    /**
+     * @return exact type if pattern has no wildcards and subtypes, null otherwise
+     */
+    Class<?> getExactType() {
+        return includeSubtypes ? null : exactType;
+    }
+
+    boolean matches(Class<?> type) {
+        if (this == ANY) {
+            return true;
+        }
+        if (exactType != null) {
+            return includeSubtypes ? exactType.isAssignableFrom(type) : exactType == type;
+        }
+        for (int i = 0; i < dimensions; i++) {
+            if (!type.isArray()) {
+                return false;
+            }
+            type = type.getComponentType();
+        }
+        if (!includeSubtypes) {
+            return matchesName(type);
+        }
+        for (Class<?> supertype : getSupertypes(type)) {
+            if (matchesName(supertype)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean matchesName(Class<?> type) {
+        if (type.isArray()) {
+            return false;
+        }
+        String name = type.getName();
+        return namePattern.matcher(name).matches() || namePattern.matcher(name.replace('$', '.')).matches();
+    }
+
+    /**
+     * @return given type with all it's superclasses and interfaces
+     */
+    static Set<Class<?>> getSupertypes(Class<?> type) {
+        Set<Class<?>> rc = new LinkedHashSet<Class<?>>();
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            rc.add(current);
+        }
+        for (Object implemented : ClassUtils.getAllInterfacesForClassAsSet(type)) {
+            rc.add((Class<?>) implemented);
+        }
+        return rc;
+    }
+
+    static List<TypePattern> parseList(String list, Class<?> scope) {
+        List<TypePattern> rc = new ArrayList<TypePattern>();
+        if (list.trim().isEmpty()) {
+            return rc;
+        }
+        for (String item : list.split(",")) {
+            rc.add(item.trim().equals("..") ? null : parse(item, scope));
+        }
+        return rc;
+    }
+
+    /**
+     * @param patterns patterns, null for {@code ..}
+     * @param types types to match
+     * @return if types match patterns
+     */
+    static boolean matches(List<TypePattern> patterns, Class<?>[] types) {
+        return matches(patterns, 0, types, 0);
+    }
+
+    private static boolean matches(List<TypePattern> patterns, int patternIndex, Class<?>[] types, int typeIndex) {
+        if (patternIndex == patterns.size()) {
+            return typeIndex == types.length;
+        }
+        TypePattern pattern = patterns.get(patternIndex);
+        if (pattern == null) {
+            for (int i = typeIndex; i <= types.length; i++) {
+                if (matches(patterns, patternIndex + 1, types, i)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return typeIndex < types.length && pattern.matches(types[typeIndex])
+                && matches(patterns, patternIndex + 1, types, typeIndex + 1);
+    }
+
+    private static Class<?> resolve(String name, Class<?> scope) {
+        ClassLoader classLoader = scope.getClassLoader();
+        List<String> candidates = new ArrayList<String>();
+        candidates.add(name);
+        if (name.indexOf('.') < 0) {
+            candidates.add("java.lang." + name);
+            candidates.add(ClassUtils.getPackageName(scope) + "." + name);
+            candidates.add(scope.getName() + "$" + name);
+        }
+        for (String candidate : candidates) {
+            if (ClassUtils.isPresent(candidate, classLoader)) {
+                return ClassUtils.resolveClassName(candidate, classLoader);
+            }
+        }
+        throw new IllegalArgumentException("Can't resolve type " + name);
+    }
+
+    private static String toRegex(String pattern) {
+        StringBuilder rc = new StringBuilder();
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '.' && i + 1 < pattern.length() && pattern.charAt(i + 1) == '.') {
+                rc.append("(?:\\.|\\..*\\.)");
+                i++;
+            } else if (c == '.') {
+                rc.append("\\.");
+            } else if (c == '*') {
+                rc.append("[^.]*");
+            } else if (c == '$') {
+                rc.append("\\$");
+            } else {
+                rc.append(c);
+            }
+        }
+        return rc.toString();
+    }
+
+    @Override
+    public String toString() {
+        if (this == ANY) {
+            return "*";
+        }
+        return (exactType != null ? exactType.getName() : namePattern.pattern()) + (includeSubtypes ? "+" : "");
+    }
+}
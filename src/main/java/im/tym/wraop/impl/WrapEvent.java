@@ -0,0 +1,68 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.impl;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight Recorder event for wrapping of an object or a batch of objects of the same class.
+ * Must be used only through {@link FlightRecorderSupport}, so that the library works without JFR.
+ * @author Vitalii Tymchyshyn
+ */
+@Name("im.tym.wraop.Wrap")
+@Label("Wrap")
+@Category("WrAOP")
+@Description("Wrapping of objects with aspects")
+@StackTrace(false)
+@Threshold("0 ms")
+class WrapEvent extends Event {
+    @Label("Target Class")
+    Class<?> targetClass;
+    @Label("Interface Count")
+    int interfaceCount;
+    @Label("Object Count")
+    int objectCount;
+    @Label("Proxied")
+    @Description("False if no advice applies and objects were returned as is")
+    boolean proxied;
+
+    static Object start() {
+        WrapEvent event = new WrapEvent();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.begin();
+        return event;
+    }
+
+    static void finish(Object started, Class<?> targetClass, int interfaceCount, int objectCount, boolean proxied) {
+        WrapEvent event = (WrapEvent) started;
+        event.end();
+        if (event.shouldCommit()) {
+            event.targetClass = targetClass;
+            event.interfaceCount = interfaceCount;
+            event.objectCount = objectCount;
+            event.proxied = proxied;
+            event.commit();
+        }
+    }
+}
@@ -15,13 +15,49 @@
  */
 package im.tym.wraop.impl;
 
+import im.tym.wraop.WrapperStatistics;
+
+import java.util.List;
+import java.util.function.Supplier;
+
 /**
  * @author Vitalii Tymchyshyn
  */
 
 public interface WrapperFactorySpi<I> {
     I wrap(I object, ClassLoader classLoader);
+    /**
+     * Wraps with given interfaces instead of configured ones, without changing configuration
+     */
+    I wrap(I object, Class<?>[] interfaces, ClassLoader classLoader);
+    /**
+     * Wraps a batch of objects that are all of the same class, so configuration is resolved once for all of them
+     */
+    List<I> wrapAll(List<? extends I> objects, ClassLoader classLoader);
+    /**
+     * Makes a proxy that obtains and wraps the target on first call
+     */
+    I wrapLazily(Supplier<? extends I> supplier, ClassLoader classLoader);
+    /**
+     * Takes pooled proxy with swappable target and points it to given object
+     */
+    I acquire(I object);
+    /**
+     * Returns proxy made by {@link #acquire(Object)} to the pool, ignores anything else
+     */
+    void release(I proxy);
     boolean addAspect(Object aspect);
+    boolean removeAspect(Object aspect);
+    /**
+     * Replaces the aspect in a single configuration change
+     */
+    boolean replaceAspect(Object oldAspect, Object newAspect);
     void setInterfaces(Class... wrappedInterfaces);
     void addInterface(Class wrappedInterface);
+    WrapperFactorySpi<I> freeze();
+    /**
+     * Drops cached state of given class loader
+     */
+    void releaseClassLoader(ClassLoader classLoader);
+    WrapperStatistics getStatistics();
 }
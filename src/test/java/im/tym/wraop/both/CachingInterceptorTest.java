@@ -0,0 +1,201 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.both;
+
+import im.tym.wraop.WrapperFactory;
+import im.tym.wraop.WrapperFactoryBuilder;
+import im.tym.wraop.cache.CacheStatistics;
+import im.tym.wraop.cache.CachingInterceptor;
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Vitalii Tymchyshyn
+ */
+public class CachingInterceptorTest {
+    private Service wrap(Service target, CachingInterceptor interceptor) {
+        WrapperFactory<Service> factory = new WrapperFactoryBuilder().<Service>build()
+                .withInterface(Service.class).withAspect(interceptor);
+        return factory.wrap(target);
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        CountingService target = new CountingService();
+        CachingInterceptor interceptor = new CachingInterceptor(100);
+        Service service = wrap(target, interceptor);
+        Assert.assertEquals("a1", service.load("a", 1));
+        Assert.assertEquals("a1", service.load("a", 1));
+        Assert.assertEquals("a2", service.load("a", 2));
+        Assert.assertEquals("A", service.upperCase("a"));
+        Assert.assertEquals("A", service.upperCase("a"));
+        Assert.assertEquals(3, target.calls.get());
+        service.touch("a");
+        service.touch("a");
+        Assert.assertEquals(5, target.calls.get());
+        CacheStatistics statistics = interceptor.getStatistics();
+        Assert.assertEquals(2, statistics.getHits());
+        Assert.assertEquals(3, statistics.getMisses());
+        Assert.assertEquals(3, statistics.getSize());
+        Assert.assertEquals(0.4, statistics.getHitRate(), 0.001);
+        interceptor.invalidateAll();
+        Assert.assertEquals("a1", service.load("a", 1));
+        Assert.assertEquals(6, target.calls.get());
+    }
+
+    @Test
+    public void testTargetsCachedSeparately() {
+        CountingService first = new CountingService();
+        CountingService second = new CountingService() {
+            @Override
+            public String load(String key, int version) {
+                return "second " + super.load(key, version);
+            }
+        };
+        CachingInterceptor interceptor = new CachingInterceptor(100);
+        WrapperFactory<Service> factory = new WrapperFactoryBuilder().<Service>build()
+                .withInterface(Service.class).withAspect(interceptor);
+        Service firstService = factory.wrap(first);
+        Service secondService = factory.wrap(second);
+        Assert.assertEquals("a1", firstService.load("a", 1));
+        Assert.assertEquals("second a1", secondService.load("a", 1));
+        Assert.assertEquals("a1", firstService.load("a", 1));
+        Assert.assertEquals("second a1", secondService.load("a", 1));
+        Assert.assertEquals(1, first.calls.get());
+        Assert.assertEquals(1, second.calls.get());
+        Assert.assertEquals(2, interceptor.size());
+    }
+
+    @Test
+    public void testEviction() {
+        CountingService target = new CountingService();
+        CachingInterceptor interceptor = new CachingInterceptor(10);
+        Service service = wrap(target, interceptor);
+        for (int i = 0; i < 100; i++) {
+            service.load("a", i);
+        }
+        Assert.assertEquals(10, interceptor.size());
+        Assert.assertEquals(90, interceptor.getStatistics().getEvictions());
+        CachingInterceptor single = new CachingInterceptor(1);
+        service = wrap(target, single);
+        service.load("a", 1);
+        service.load("a", 2);
+        service.load("a", 1);
+        Assert.assertEquals(3, single.getStatistics().getMisses());
+    }
+
+    @Test
+    public void testTimeToLive() throws Exception {
+        CountingService target = new CountingService();
+        Service service = wrap(target, new CachingInterceptor(10, 50, TimeUnit.MILLISECONDS));
+        service.load("a", 1);
+        service.load("a", 1);
+        Assert.assertEquals(1, target.calls.get());
+        Thread.sleep(100);
+        service.load("a", 1);
+        Assert.assertEquals(2, target.calls.get());
+    }
+
+    @Test
+    public void testExceptionNotCached() {
+        CountingService target = new CountingService();
+        Service service = wrap(target, new CachingInterceptor(10));
+        for (int i = 1; i <= 2; i++) {
+            try {
+                service.load(null, 1);
+                Assert.fail();
+            } catch (NullPointerException e) {
+                Assert.assertEquals(i, target.calls.get());
+            }
+        }
+    }
+
+    @Test
+    public void testSingleLoad() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountingService target = new CountingService() {
+            @Override
+            public String load(String key, int version) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return super.load(key, version);
+            }
+        };
+        CachingInterceptor interceptor = new CachingInterceptor(10);
+        final Service service = wrap(target, interceptor);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> service.load("a", 1)));
+            }
+            Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+            Thread.sleep(50);
+            release.countDown();
+            for (Future<String> result : results) {
+                Assert.assertEquals("a1", result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(1, target.calls.get());
+        Assert.assertEquals(1, interceptor.getStatistics().getMisses());
+        Assert.assertEquals(7, interceptor.getStatistics().getHits());
+    }
+
+    public interface Service {
+        String load(String key, int version);
+
+        String upperCase(String value);
+
+        void touch(String key);
+    }
+
+    public static class CountingService implements Service {
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public String load(String key, int version) {
+            calls.incrementAndGet();
+            return key.toString() + version;
+        }
+
+        @Override
+        public String upperCase(String value) {
+            calls.incrementAndGet();
+            return value.toUpperCase();
+        }
+
+        @Override
+        public void touch(String key) {
+            calls.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.both;
+
+import im.tym.wraop.CompletionInterceptor;
+import im.tym.wraop.ProxyEngine;
+import im.tym.wraop.impl.SpringAOPWrapperFactorySpi;
+import junit.framework.Assert;
+import org.aopalliance.intercept.MethodInvocation;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * @author Vitalii Tymchyshyn
+ */
+@RunWith(Parameterized.class)
+public class CompletionInterceptorTest {
+    private final ProxyEngine proxyEngine;
+
+    public CompletionInterceptorTest(ProxyEngine proxyEngine) {
+        this.proxyEngine = proxyEngine;
+    }
+
+    @Parameterized.Parameters
+    public static List<Object[]> data() {
+        List<Object[]> rc = new ArrayList<Object[]>();
+        for (ProxyEngine proxyEngine : ProxyEngine.values()) {
+            rc.add(new Object[]{proxyEngine});
+        }
+        return rc;
+    }
+
+    private AsyncService wrap(AsyncService target, RecordingInterceptor interceptor) {
+        SpringAOPWrapperFactorySpi<AsyncService> factory = new SpringAOPWrapperFactorySpi<AsyncService>();
+        factory.setProxyEngine(proxyEngine);
+        factory.setInterfaces(AsyncService.class);
+        factory.addAspect(interceptor);
+        return factory.wrap(target, getClass().getClassLoader());
+    }
+
+    @Test
+    public void testCompletedLater() throws Exception {
+        AsyncServiceImpl target = new AsyncServiceImpl();
+        RecordingInterceptor interceptor = new RecordingInterceptor();
+        CompletableFuture<String> future = wrap(target, interceptor).load("key");
+        Assert.assertSame(target.future, future);
+        Assert.assertEquals(1, interceptor.before);
+        Assert.assertEquals(0, interceptor.after);
+        target.future.complete("value");
+        Assert.assertEquals(1, interceptor.after);
+        Assert.assertEquals("load", interceptor.method.getName());
+        Assert.assertEquals("key", interceptor.context);
+        Assert.assertEquals("value", interceptor.result);
+        Assert.assertNull(interceptor.failure);
+    }
+
+    @Test
+    public void testFailedLater() throws Exception {
+        AsyncServiceImpl target = new AsyncServiceImpl();
+        RecordingInterceptor interceptor = new RecordingInterceptor();
+        CompletionStage<String> stage = wrap(target, interceptor).loadStage("key");
+        Assert.assertEquals(0, interceptor.after);
+        IllegalStateException failure = new IllegalStateException();
+        target.future.completeExceptionally(failure);
+        Assert.assertEquals(1, interceptor.after);
+        Assert.assertNull(interceptor.result);
+        Assert.assertSame(failure, interceptor.failure);
+        Assert.assertTrue(stage.toCompletableFuture().isCompletedExceptionally());
+    }
+
+    @Test
+    public void testSynchronous() throws Exception {
+        AsyncServiceImpl target = new AsyncServiceImpl();
+        RecordingInterceptor interceptor = new RecordingInterceptor();
+        AsyncService service = wrap(target, interceptor);
+        Assert.assertEquals("KEY", service.loadNow("key"));
+        Assert.assertEquals(1, interceptor.after);
+        Assert.assertEquals("KEY", interceptor.result);
+        try {
+            service.loadNow(null);
+            Assert.fail();
+        } catch (NullPointerException e) {
+            Assert.assertEquals(2, interceptor.after);
+            Assert.assertSame(e, interceptor.failure);
+        }
+    }
+
+    @Test
+    public void testAfterCompletionFailure() throws Exception {
+        RecordingInterceptor interceptor = new RecordingInterceptor();
+        interceptor.afterException = new IllegalStateException("after");
+        AsyncService service = wrap(new AsyncServiceImpl(), interceptor);
+        try {
+            service.loadNow(null);
+            Assert.fail();
+        } catch (NullPointerException e) {
+            Assert.assertSame(e, interceptor.failure);
+            Assert.assertEquals(1, e.getSuppressed().length);
+            Assert.assertSame(interceptor.afterException, e.getSuppressed()[0]);
+        }
+    }
+
+    public interface AsyncService {
+        CompletableFuture<String> load(String key);
+
+        CompletionStage<String> loadStage(String key);
+
+        String loadNow(String key);
+    }
+
+    public static class AsyncServiceImpl implements AsyncService {
+        private final CompletableFuture<String> future = new CompletableFuture<String>();
+
+        @Override
+        public CompletableFuture<String> load(String key) {
+            return future;
+        }
+
+        @Override
+        public CompletionStage<String> loadStage(String key) {
+            return future.thenApply(String::trim);
+        }
+
+        @Override
+        public String loadNow(String key) {
+            return key.toUpperCase();
+        }
+    }
+
+    private static class RecordingInterceptor extends CompletionInterceptor<Object> {
+        private int before;
+        private int after;
+        private Method method;
+        private Object context;
+        private Object result;
+        private Throwable failure;
+        private RuntimeException afterException;
+
+        @Override
+        protected Object before(MethodInvocation invocation) {
+            before++;
+            return invocation.getArguments()[0];
+        }
+
+        @Override
+        protected void afterCompletion(Method method, Object context, Object result, Throwable failure) {
+            after++;
+            this.method = method;
+            this.context = context;
+            this.result = result;
+            this.failure = failure;
+            if (afterException != null) {
+                throw afterException;
+            }
+        }
+    }
+}
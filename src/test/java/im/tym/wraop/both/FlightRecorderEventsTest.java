@@ -0,0 +1,89 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.both;
+
+import im.tym.wraop.data.ToStringTransformer;
+import im.tym.wraop.data.Transformer;
+import im.tym.wraop.data.TrimTransformerAdvice;
+import im.tym.wraop.impl.FlightRecorderSupport;
+import im.tym.wraop.impl.SpringAOPWrapperFactorySpi;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import junit.framework.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * @author Vitalii Tymchyshyn
+ */
+public class FlightRecorderEventsTest {
+    @Before
+    public void checkAvailable() {
+        Assume.assumeTrue(FlightRecorderSupport.AVAILABLE);
+    }
+
+    @Test
+    public void testEvents() throws Exception {
+        SpringAOPWrapperFactorySpi<Transformer<Object, String>> factory =
+                new SpringAOPWrapperFactorySpi<Transformer<Object, String>>();
+        factory.setInterfaces(Transformer.class);
+        factory.setEventSampling(1);
+        factory.addAspect(new TrimTransformerAdvice());
+        File file = File.createTempFile("wraop", ".jfr");
+        try {
+            Recording recording = new Recording();
+            try {
+                recording.enable("im.tym.wraop.Wrap").withThreshold(Duration.ZERO);
+                recording.enable("im.tym.wraop.AdvisedInvocation").withThreshold(Duration.ZERO);
+                recording.start();
+                Transformer<Object, String> transformer = factory.wrap(new ToStringTransformer(),
+                        getClass().getClassLoader());
+                Assert.assertEquals("test", transformer.transform(" test "));
+                recording.stop();
+                recording.dump(file.toPath());
+            } finally {
+                recording.close();
+            }
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file.toPath());
+            RecordedEvent wrap = find(events, "im.tym.wraop.Wrap");
+            Assert.assertEquals(ToStringTransformer.class.getName(),
+                    wrap.getClass("targetClass").getName());
+            Assert.assertEquals(1, wrap.getInt("interfaceCount"));
+            Assert.assertTrue(wrap.getBoolean("proxied"));
+            RecordedEvent invocation = find(events, "im.tym.wraop.AdvisedInvocation");
+            Assert.assertEquals("im.tym.wraop.data.Transformer.transform(Object)", invocation.getString("method"));
+            Assert.assertEquals(TrimTransformerAdvice.class.getName(), invocation.getString("advisor"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static RecordedEvent find(List<RecordedEvent> events, String name) {
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals(name)) {
+                return event;
+            }
+        }
+        Assert.fail("No " + name + " event recorded");
+        return null;
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.both;
+
+import im.tym.wraop.ProxyEngine;
+import im.tym.wraop.impl.GeneratedAopProxy;
+import im.tym.wraop.impl.GeneratedProxy;
+import im.tym.wraop.impl.SpringAOPWrapperFactorySpi;
+import junit.framework.Assert;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.junit.Test;
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.support.NameMatchMethodPointcutAdvisor;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.UndeclaredThrowableException;
+
+/**
+ * @author Vitalii Tymchyshyn
+ */
+public class GeneratedProxyTest {
+    private <T> SpringAOPWrapperFactorySpi<T> createFactory(Class<T> wrappedInterface, final Object result) {
+        SpringAOPWrapperFactorySpi<T> factory = new SpringAOPWrapperFactorySpi<T>();
+        factory.setProxyEngine(ProxyEngine.GENERATED);
+        factory.setInterfaces(wrappedInterface);
+        NameMatchMethodPointcutAdvisor advisor = new NameMatchMethodPointcutAdvisor(new MethodInterceptor() {
+            @Override
+            public Object invoke(MethodInvocation invocation) throws Throwable {
+                if (result instanceof Throwable) {
+                    throw (Throwable) result;
+                }
+                return result;
+            }
+        });
+        advisor.setMappedName("name");
+        factory.addAspect(advisor);
+        return factory;
+    }
+
+    @Test
+    public void testDirectAndAdvisedCalls() throws Exception {
+        SimpleCounter target = new SimpleCounter();
+        Counter counter = createFactory(Counter.class, "advised").wrap(target, getClass().getClassLoader());
+        Assert.assertTrue(counter instanceof GeneratedProxy);
+        Assert.assertFalse(Proxy.isProxyClass(counter.getClass()));
+        Assert.assertTrue(GeneratedProxy.getInvocationHandler(counter) instanceof GeneratedAopProxy);
+        Assert.assertEquals(5L, counter.add(5));
+        Assert.assertEquals(12L, counter.add(7));
+        Assert.assertEquals(12, counter.get());
+        Assert.assertEquals(12.0, counter.ratio(2, 0.5));
+        counter.reset();
+        Assert.assertEquals(0, target.get());
+        Assert.assertSame(counter, counter.self());
+        Assert.assertEquals("advised", counter.name());
+        Assert.assertEquals(1, ((Advised) counter).getAdvisors().length);
+        Assert.assertEquals(target.toString(), counter.toString());
+    }
+
+    @Test
+    public void testEqualsAndHashCode() {
+        SimpleCounter target = new SimpleCounter();
+        SpringAOPWrapperFactorySpi<Counter> factory = createFactory(Counter.class, "advised");
+        Counter counter = factory.wrap(target, getClass().getClassLoader());
+        Counter counter2 = factory.wrap(target, getClass().getClassLoader());
+        Assert.assertEquals(counter, counter2);
+        Assert.assertEquals(counter.hashCode(), counter2.hashCode());
+        Assert.assertFalse(counter.equals(target));
+    }
+
+    @Test(expected = IOException.class)
+    public void testDeclaredException() throws Exception {
+        createFactory(Counter.class, new IOException()).wrap(new SimpleCounter(), getClass().getClassLoader()).name();
+    }
+
+    @Test(expected = UndeclaredThrowableException.class)
+    public void testUndeclaredException() throws Exception {
+        createFactory(Counter.class, new InterruptedException()).wrap(new SimpleCounter(), getClass().getClassLoader())
+                .name();
+    }
+
+    @Test
+    public void testPackagePrivateInterface() {
+        HiddenCounter counter = createFactory(HiddenCounter.class, "advised").wrap(new HiddenCounter() {
+            @Override
+            public long add(long delta) {
+                return delta + 1;
+            }
+
+            @Override
+            public String name() {
+                return "target";
+            }
+        }, getClass().getClassLoader());
+        Assert.assertTrue(counter instanceof GeneratedProxy);
+        Assert.assertEquals(getClass().getPackage(), counter.getClass().getPackage());
+        Assert.assertEquals(2L, counter.add(1));
+        Assert.assertEquals("advised", counter.name());
+    }
+
+    /**
+     * Class loader sees WrAOP classes when generator checks it, but not when proxy class is linked, so defining proxy
+     * class fails and JDK proxy class is used instead
+     */
+    @Test
+    public void testDefineClassFailure() throws Exception {
+        ForgettingClassLoader classLoader = new ForgettingClassLoader(getClass().getClassLoader());
+        Counter counter = createFactory(Counter.class, "advised").wrap(new SimpleCounter(), classLoader);
+        Assert.assertTrue(classLoader.forgotten);
+        Assert.assertFalse(counter instanceof GeneratedProxy);
+        Assert.assertTrue(Proxy.isProxyClass(counter.getClass()));
+        Assert.assertSame(classLoader, counter.getClass().getClassLoader());
+        Assert.assertEquals(3L, counter.add(3));
+        Assert.assertEquals("advised", counter.name());
+    }
+
+    @Test
+    public void testMethodsFieldPrivate() throws Exception {
+        Counter counter = createFactory(Counter.class, "advised").wrap(new SimpleCounter(),
+                getClass().getClassLoader());
+        Field methods = counter.getClass().getDeclaredField("wraop$methods");
+        Assert.assertTrue(Modifier.isPrivate(methods.getModifiers()));
+        Assert.assertTrue(Modifier.isFinal(methods.getModifiers()));
+    }
+
+    private static class ForgettingClassLoader extends ClassLoader {
+        private boolean forgotten;
+
+        ForgettingClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (name.equals(GeneratedProxy.class.getName())) {
+                if (forgotten) {
+                    throw new ClassNotFoundException(name);
+                }
+                forgotten = true;
+            }
+            return super.loadClass(name, resolve);
+        }
+    }
+
+    public interface Counter {
+        long add(long delta);
+
+        int get();
+
+        double ratio(int multiplier, double divisor);
+
+        void reset();
+
+        Counter self();
+
+        String name() throws IOException;
+    }
+
+    interface HiddenCounter {
+        long add(long delta);
+
+        String name();
+    }
+
+    private static class SimpleCounter implements Counter {
+        private long value;
+
+        @Override
+        public long add(long delta) {
+            return value += delta;
+        }
+
+        @Override
+        public int get() {
+            return (int) value;
+        }
+
+        @Override
+        public double ratio(int multiplier, double divisor) {
+            return multiplier * value / 4 / divisor;
+        }
+
+        @Override
+        public void reset() {
+            value = 0;
+        }
+
+        @Override
+        public Counter self() {
+            return this;
+        }
+
+        @Override
+        public String name() {
+            return "target";
+        }
+
+        @Override
+        public String toString() {
+            return "SimpleCounter " + value;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.both;
+
+import im.tym.wraop.ProxyEngine;
+import im.tym.wraop.data.ConstantReturningAdvice;
+import im.tym.wraop.impl.GeneratedProxy;
+import im.tym.wraop.impl.PrecompiledAopProxy;
+import im.tym.wraop.impl.SpringAOPWrapperFactorySpi;
+import junit.framework.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.support.NameMatchMethodPointcutAdvisor;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * @author Vitalii Tymchyshyn
+ */
+@RunWith(Parameterized.class)
+public class PrecompiledAopProxyTest {
+    private final ProxyEngine proxyEngine;
+    private SpringAOPWrapperFactorySpi<List<String>> factory;
+
+    public PrecompiledAopProxyTest(ProxyEngine proxyEngine) {
+        this.proxyEngine = proxyEngine;
+    }
+
+    @Parameterized.Parameters
+    public static List<Object[]> data() {
+        return Arrays.asList(new Object[]{ProxyEngine.PRECOMPILED}, new Object[]{ProxyEngine.METHOD_HANDLE},
+                new Object[]{ProxyEngine.REUSED_INVOCATION}, new Object[]{ProxyEngine.GENERATED});
+    }
+
+    @Before
+    public void createFactory() {
+        factory = new SpringAOPWrapperFactorySpi<List<String>>();
+        factory.setProxyEngine(proxyEngine);
+        factory.setInterfaces(List.class);
+        NameMatchMethodPointcutAdvisor advisor = new NameMatchMethodPointcutAdvisor(new ConstantReturningAdvice(42));
+        advisor.setMappedName("size");
+        factory.addAspect(advisor);
+    }
+
+    @Test
+    public void testAdvisedAndDirectMethods() {
+        List<String> target = new ArrayList<String>();
+        List<String> wrapped = factory.wrap(target, getClass().getClassLoader());
+        Assert.assertTrue(GeneratedProxy.getInvocationHandler(wrapped) instanceof PrecompiledAopProxy);
+        Assert.assertEquals(42, wrapped.size());
+        Assert.assertTrue(wrapped.isEmpty());
+        wrapped.add("test");
+        Assert.assertEquals("test", target.get(0));
+        Assert.assertEquals(target.toString(), wrapped.toString());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testTargetException() {
+        factory.wrap(new ArrayList<String>(), getClass().getClassLoader()).get(1);
+    }
+
+    @Test
+    public void testEqualsAndHashCode() {
+        List<String> target = new ArrayList<String>();
+        List<String> wrapped = factory.wrap(target, getClass().getClassLoader());
+        List<String> wrapped2 = factory.wrap(target, getClass().getClassLoader());
+        Assert.assertEquals(wrapped, wrapped2);
+        Assert.assertEquals(wrapped.hashCode(), wrapped2.hashCode());
+    }
+
+    @Test
+    public void testAdvised() {
+        List<String> wrapped = factory.wrap(new ArrayList<String>(), getClass().getClassLoader());
+        Assert.assertEquals(1, ((Advised) wrapped).getAdvisors().length);
+    }
+
+    @Test
+    public void testStaticInterfaceMethods() {
+        SpringAOPWrapperFactorySpi<Comparator<String>> comparatorFactory =
+                new SpringAOPWrapperFactorySpi<Comparator<String>>();
+        comparatorFactory.setProxyEngine(proxyEngine);
+        comparatorFactory.setInterfaces(Comparator.class);
+        NameMatchMethodPointcutAdvisor advisor = new NameMatchMethodPointcutAdvisor(new ConstantReturningAdvice(42));
+        advisor.setMappedName("compare");
+        comparatorFactory.addAspect(advisor);
+        Comparator<String> wrapped = comparatorFactory.wrap(String.CASE_INSENSITIVE_ORDER,
+                getClass().getClassLoader());
+        Assert.assertEquals(42, wrapped.compare("a", "b"));
+        Assert.assertTrue(wrapped.reversed().compare("a", "b") > 0);
+    }
+
+    @Test
+    public void testChainTableShared() {
+        List<String> wrapped = factory.wrap(new ArrayList<String>(), getClass().getClassLoader());
+        List<String> wrapped2 = factory.wrap(new ArrayList<String>(), getClass().getClassLoader());
+        Method chains = ReflectionUtils.findMethod(PrecompiledAopProxy.class, "getChains");
+        ReflectionUtils.makeAccessible(chains);
+        Assert.assertSame(ReflectionUtils.invokeMethod(chains, GeneratedProxy.getInvocationHandler(wrapped)),
+                ReflectionUtils.invokeMethod(chains, GeneratedProxy.getInvocationHandler(wrapped2)));
+    }
+}
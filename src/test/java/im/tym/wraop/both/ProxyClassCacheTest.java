@@ -0,0 +1,110 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.both;
+
+import im.tym.wraop.data.TrimTransformerAdvice;
+import im.tym.wraop.data.ToStringTransformer;
+import im.tym.wraop.data.Transformer;
+import im.tym.wraop.impl.PrecompiledAopProxyFactory;
+import im.tym.wraop.impl.ProxyClassCache;
+import im.tym.wraop.impl.SpringAOPWrapperFactorySpi;
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+/**
+ * @author Vitalii Tymchyshyn
+ */
+public class ProxyClassCacheTest {
+    private final ProxyClassCache cache = new ProxyClassCache();
+    private final Class<?>[] interfaces = {Runnable.class};
+
+    @Test
+    public void testHitsAndMisses() {
+        Assert.assertSame(cache.getProxyClass(getClass().getClassLoader(), interfaces),
+                cache.getProxyClass(getClass().getClassLoader(), new Class<?>[]{Runnable.class}));
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testClassLoaders() {
+        ClassLoader classLoader = new URLClassLoader(new URL[0], getClass().getClassLoader());
+        Assert.assertNotSame(cache.getProxyClass(getClass().getClassLoader(), interfaces),
+                cache.getProxyClass(classLoader, interfaces));
+        Assert.assertEquals(2, cache.getMissCount());
+        Assert.assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testClassLoaderCollected() throws Exception {
+        ClassLoader classLoader = new URLClassLoader(new URL[0], getClass().getClassLoader());
+        cache.getProxyClass(classLoader, interfaces);
+        Assert.assertEquals(1, cache.size());
+        classLoader = null;
+        for (int i = 0; i < 50 && cache.size() > 0; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testReleaseClassLoader() {
+        ClassLoader classLoader = new URLClassLoader(new URL[0], getClass().getClassLoader());
+        cache.getProxyClass(classLoader, interfaces);
+        cache.getProxyClass(getClass().getClassLoader(), interfaces);
+        cache.releaseClassLoader(classLoader);
+        Assert.assertEquals(1, cache.size());
+        cache.releaseClassLoader(Runnable.class.getClassLoader());
+        Assert.assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testNewProxyInstance() {
+        final boolean[] called = new boolean[1];
+        Runnable runnable = (Runnable) cache.newProxyInstance(getClass().getClassLoader(), interfaces,
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        called[0] = true;
+                        return null;
+                    }
+                });
+        runnable.run();
+        Assert.assertTrue(called[0]);
+    }
+
+    @Test
+    public void testWrap() {
+        PrecompiledAopProxyFactory proxyFactory = new PrecompiledAopProxyFactory();
+        SpringAOPWrapperFactorySpi<Transformer<Object, String>> factory =
+                new SpringAOPWrapperFactorySpi<Transformer<Object, String>>();
+        factory.setAopProxyFactory(proxyFactory);
+        factory.setInterfaces(Transformer.class);
+        factory.addAspect(new TrimTransformerAdvice());
+        for (int i = 0; i < 3; i++) {
+            Transformer<Object, String> transformer = factory.wrap(new ToStringTransformer(), getClass().getClassLoader());
+            Assert.assertEquals("test", transformer.transform(" test "));
+        }
+        Assert.assertEquals(1, proxyFactory.getProxyClassCache().getMissCount());
+        Assert.assertEquals(2, proxyFactory.getProxyClassCache().getHitCount());
+    }
+}
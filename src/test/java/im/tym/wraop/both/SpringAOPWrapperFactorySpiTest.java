@@ -15,23 +15,39 @@
  */
 package im.tym.wraop.both;
 
+import im.tym.wraop.LatencySnapshot;
+import im.tym.wraop.ProxyEngine;
 import im.tym.wraop.WrapperFactoryBuilder;
+import im.tym.wraop.WrapperStatistics;
 import im.tym.wraop.data.ConstantReturningAdvice;
+import im.tym.wraop.data.InvocationCheckingTransformer;
 import im.tym.wraop.data.ToStringTransformer;
 import im.tym.wraop.data.Transformer;
 import im.tym.wraop.data.TrimTransformerAdvice;
 import im.tym.wraop.impl.AspectJWrapperFactorySpi;
+import im.tym.wraop.impl.InvocationMetrics;
+import im.tym.wraop.impl.ProxyConfiguration;
 import im.tym.wraop.impl.ProxyCreatorBasedWrapperFactorySpi;
+import im.tym.wraop.impl.SpiBasedWrapperFactory;
 import im.tym.wraop.impl.SpringAOPWrapperFactorySpi;
+import im.tym.wraop.impl.WrapperFactorySpi;
 import junit.framework.Assert;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.support.DefaultPointcutAdvisor;
 import org.springframework.aop.support.RegexpMethodPointcutAdvisor;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 /**
  * @author Vitalii Tymchyshyn
@@ -47,12 +63,40 @@ public class SpringAOPWrapperFactorySpiTest {
     public static List<Object[]> data() {
         List<Object[]> rc = new ArrayList<Object[]>();
         rc.add(new Object[]{new SpringAOPWrapperFactorySpi<Transformer<Object, String>>()});
+        rc.add(new Object[]{withEngine(new SpringAOPWrapperFactorySpi<Transformer<Object, String>>(), ProxyEngine.PRECOMPILED)});
+        rc.add(new Object[]{withEngine(new SpringAOPWrapperFactorySpi<Transformer<Object, String>>(), ProxyEngine.METHOD_HANDLE)});
+        rc.add(new Object[]{withEngine(new SpringAOPWrapperFactorySpi<Transformer<Object, String>>(), ProxyEngine.REUSED_INVOCATION)});
+        rc.add(new Object[]{withEngine(new SpringAOPWrapperFactorySpi<Transformer<Object, String>>(), ProxyEngine.GENERATED)});
         if (WrapperFactoryBuilder.ASPECTJ_AVAILABLE) {
             rc.add(new Object[]{new AspectJWrapperFactorySpi<Transformer<Object, String>>()});
+            rc.add(new Object[]{withEngine(new AspectJWrapperFactorySpi<Transformer<Object, String>>(), ProxyEngine.PRECOMPILED)});
+            rc.add(new Object[]{withEngine(new AspectJWrapperFactorySpi<Transformer<Object, String>>(), ProxyEngine.METHOD_HANDLE)});
+            rc.add(new Object[]{withEngine(new AspectJWrapperFactorySpi<Transformer<Object, String>>(), ProxyEngine.REUSED_INVOCATION)});
+            rc.add(new Object[]{withEngine(new AspectJWrapperFactorySpi<Transformer<Object, String>>(), ProxyEngine.GENERATED)});
         }
         return rc;
     }
 
+    private static ProxyCreatorBasedWrapperFactorySpi<Transformer<Object, String>, ?> withEngine(
+            ProxyCreatorBasedWrapperFactorySpi<Transformer<Object, String>, ?> spi, ProxyEngine proxyEngine) {
+        spi.setProxyEngine(proxyEngine);
+        return spi;
+    }
+
+    private static class ConstantTransformer implements Transformer<Object, String> {
+        @Override
+        public String transform(Object input) {
+            return "constant";
+        }
+    }
+
+    private static class ComparableTransformer extends ToStringTransformer implements Comparable<Object> {
+        @Override
+        public int compareTo(Object o) {
+            return 0;
+        }
+    }
+
     private final ProxyCreatorBasedWrapperFactorySpi<Transformer<Object, String>, ?> factory;
 
     @Before
@@ -60,6 +104,7 @@ public class SpringAOPWrapperFactorySpiTest {
         while (factory.proxyCreator.getAdvisors().length > 0) {
             factory.proxyCreator.removeAdvisor(0);
         }
+        factory.setMetrics(null);
     }
 
     @Test
@@ -67,6 +112,12 @@ public class SpringAOPWrapperFactorySpiTest {
         Assert.assertFalse(factory.addAspect(this));
     }
 
+    @Test
+    public void testNoAdvice() {
+        ToStringTransformer transformer = new ToStringTransformer();
+        Assert.assertSame(transformer, factory.wrap(transformer, this.getClass().getClassLoader()));
+    }
+
     @Test
     public void testAdvice() {
         Assert.assertTrue(factory.addAspect(new TrimTransformerAdvice()));
@@ -81,10 +132,291 @@ public class SpringAOPWrapperFactorySpiTest {
         Assert.assertEquals("test", transformer.transform(" test "));
         Assert.assertTrue(factory.addAspect(new ConstantReturningAdvice("constant")));
         Transformer<Object, String> transformer2 = factory.wrap(new ToStringTransformer(), this.getClass().getClassLoader());
-        Assert.assertEquals("test", transformer.transform(" test "));
+        Assert.assertEquals("constant", transformer.transform(" test "));
         Assert.assertEquals("constant", transformer2.transform(" test "));
     }
 
+    @Test(timeout = 10000)
+    public void testWrapWithoutLock() throws Exception {
+        Assert.assertTrue(factory.addAspect(new TrimTransformerAdvice()));
+        factory.getConfiguration();
+        final List<Transformer<Object, String>> wrapped = new ArrayList<Transformer<Object, String>>();
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                wrapped.add(factory.wrap(new ToStringTransformer(), getClass().getClassLoader()));
+            }
+        };
+        synchronized (factory) {
+            thread.start();
+            thread.join();
+        }
+        Assert.assertEquals("test", wrapped.get(0).transform(" test "));
+    }
+
+    @Test
+    public void testFreeze() {
+        Assert.assertTrue(factory.addAspect(new TrimTransformerAdvice()));
+        WrapperFactorySpi<Transformer<Object, String>> frozen = factory.freeze();
+        Assert.assertTrue(factory.addAspect(new ConstantReturningAdvice("constant")));
+        Transformer<Object, String> transformer = frozen.wrap(new ToStringTransformer(), this.getClass().getClassLoader());
+        Assert.assertEquals("test", transformer.transform(" test "));
+        Assert.assertEquals("test2", transformer.transform(" test2 "));
+        try {
+            frozen.addAspect(new ConstantReturningAdvice("constant"));
+            Assert.fail("Frozen factory must not be changed");
+        } catch (UnsupportedOperationException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void testWrapAll() {
+        Assert.assertTrue(factory.addAspect(new TrimTransformerAdvice()));
+        List<ToStringTransformer> input = Arrays.asList(new ToStringTransformer(), new ToStringTransformer());
+        List<Transformer<Object, String>> transformers = factory.wrapAll(input, this.getClass().getClassLoader());
+        Assert.assertEquals(2, transformers.size());
+        Assert.assertEquals("test", transformers.get(0).transform(" test "));
+        Assert.assertEquals("test2", transformers.get(1).transform(" test2 "));
+        Assert.assertEquals("test", factory.freeze().wrapAll(input, this.getClass().getClassLoader()).get(1).transform(" test "));
+    }
+
+    @Test
+    public void testWrapAllNoAdvice() {
+        List<ToStringTransformer> input = Arrays.asList(new ToStringTransformer(), new ToStringTransformer());
+        Assert.assertEquals(input, factory.wrapAll(input, this.getClass().getClassLoader()));
+    }
+
+    @Test
+    public void testWrapAllInPool() {
+        Assert.assertTrue(factory.addAspect(new TrimTransformerAdvice()));
+        SpiBasedWrapperFactory<Transformer<Object, String>> wrapperFactory =
+                new SpiBasedWrapperFactory<Transformer<Object, String>>(factory);
+        List<Transformer<Object, String>> input = new ArrayList<Transformer<Object, String>>();
+        for (int i = 0; i < 3000; i++) {
+            input.add(i % 2 == 0 ? new ToStringTransformer() : new ConstantTransformer());
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<Transformer<Object, String>> transformers = wrapperFactory.wrapAll(input, pool);
+            Assert.assertEquals(input.size(), transformers.size());
+            for (int i = 0; i < transformers.size(); i++) {
+                Assert.assertEquals(i % 2 == 0 ? "test" : "constant", transformers.get(i).transform(" test "));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testWrapLazily() {
+        Assert.assertTrue(factory.addAspect(new TrimTransformerAdvice()));
+        final AtomicInteger created = new AtomicInteger();
+        Transformer<Object, String> transformer = factory.wrapLazily(new Supplier<Transformer<Object, String>>() {
+            @Override
+            public Transformer<Object, String> get() {
+                created.incrementAndGet();
+                return new ToStringTransformer();
+            }
+        }, this.getClass().getClassLoader());
+        Assert.assertEquals(0, created.get());
+        Assert.assertTrue(transformer.equals(transformer));
+        Assert.assertEquals(System.identityHashCode(transformer), transformer.hashCode());
+        Assert.assertEquals(0, created.get());
+        Assert.assertEquals("test", transformer.transform(" test "));
+        Assert.assertEquals("test2", transformer.transform(" test2 "));
+        Assert.assertEquals(1, created.get());
+    }
+
+    @Test
+    public void testRemoveAspect() {
+        TrimTransformerAdvice advice = new TrimTransformerAdvice();
+        RegexpMethodPointcutAdvisor advisor = new RegexpMethodPointcutAdvisor(".*", new TrimTransformerAdvice());
+        Assert.assertTrue(factory.addAspect(advice));
+        Assert.assertTrue(factory.addAspect(advisor));
+        Transformer<Object, String> transformer = factory.wrap(new ToStringTransformer(), this.getClass().getClassLoader());
+        Transformer<Object, String> frozen = factory.freeze().wrap(new ToStringTransformer(),
+                this.getClass().getClassLoader());
+        Assert.assertEquals("test", transformer.transform(" test "));
+        Assert.assertTrue(factory.removeAspect(advice));
+        Assert.assertFalse(factory.removeAspect(advice));
+        Assert.assertEquals("test",
+                factory.wrap(new ToStringTransformer(), this.getClass().getClassLoader()).transform(" test "));
+        Assert.assertTrue(factory.removeAspect(advisor));
+        Assert.assertFalse(factory.removeAspect(this));
+        Assert.assertEquals(" test ",
+                factory.wrap(new ToStringTransformer(), this.getClass().getClassLoader()).transform(" test "));
+        Assert.assertEquals(" test ", transformer.transform(" test "));
+        Assert.assertEquals("test", frozen.transform(" test "));
+    }
+
+    @Test
+    public void testMergeFollowsChanges() {
+        ConstantReturningAdvice advice = new ConstantReturningAdvice("constant");
+        Assert.assertTrue(factory.addAspect(advice));
+        Transformer<Object, String> inner = factory.wrap(new ToStringTransformer(), this.getClass().getClassLoader());
+        Assert.assertTrue(factory.replaceAspect(advice, new TrimTransformerAdvice()));
+        SpringAOPWrapperFactorySpi<Transformer<Object, String>> outer =
+                new SpringAOPWrapperFactorySpi<Transformer<Object, String>>();
+        outer.setInterfaces(Transformer.class);
+        Assert.assertTrue(outer.addAspect(new TrimTransformerAdvice()));
+        Assert.assertEquals("test", outer.wrap(inner, this.getClass().getClassLoader()).transform(" test "));
+    }
+
+    @Test
+    public void testReplaceAspect() {
+        TrimTransformerAdvice advice = new TrimTransformerAdvice();
+        Assert.assertTrue(factory.addAspect(advice));
+        Assert.assertFalse(factory.replaceAspect(advice, this));
+        Assert.assertTrue(factory.replaceAspect(advice, new ConstantReturningAdvice("constant")));
+        Assert.assertFalse(factory.replaceAspect(advice, new TrimTransformerAdvice()));
+        Assert.assertEquals("constant",
+                factory.wrap(new ToStringTransformer(), this.getClass().getClassLoader()).transform(" test "));
+        try {
+            factory.freeze().removeAspect(advice);
+            Assert.fail("Frozen factory must not be changed");
+        } catch (UnsupportedOperationException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void testWrapWithInterfaces() {
+        Assert.assertTrue(factory.addAspect(new TrimTransformerAdvice()));
+        WrapperFactorySpi<Transformer<Object, String>> frozen = factory.freeze();
+        Object wrapped = frozen.wrap(new ComparableTransformer(), new Class<?>[]{Transformer.class, Comparable.class},
+                this.getClass().getClassLoader());
+        Assert.assertEquals("test", ((Transformer<Object, String>) wrapped).transform(" test "));
+        Assert.assertTrue(wrapped instanceof Comparable);
+        Assert.assertFalse(factory.wrap(new ComparableTransformer(), this.getClass().getClassLoader())
+                instanceof Comparable);
+    }
+
+    @Test
+    public void testWrapProxy() throws Exception {
+        Assert.assertTrue(factory.addAspect(new TrimTransformerAdvice()));
+        ToStringTransformer target = new ToStringTransformer();
+        Transformer<Object, String> inner = factory.wrap(target, this.getClass().getClassLoader());
+        SpringAOPWrapperFactorySpi<Transformer<Object, String>> outerFactory =
+                new SpringAOPWrapperFactorySpi<Transformer<Object, String>>();
+        outerFactory.setInterfaces(Transformer.class);
+        Assert.assertSame(inner, outerFactory.wrap(inner, this.getClass().getClassLoader()));
+        Assert.assertTrue(outerFactory.addAspect(new ConstantReturningAdvice(" constant ")));
+        Transformer<Object, String> outer = outerFactory.wrap(inner, this.getClass().getClassLoader());
+        Assert.assertEquals(" constant ", outer.transform(" test "));
+        Assert.assertSame(target, ((Advised) outer).getTargetSource().getTarget());
+        Assert.assertEquals(((Advised) inner).getAdvisors().length + 1, ((Advised) outer).getAdvisors().length);
+        Transformer<Object, String> again = factory.wrapAll(Arrays.asList(outer), this.getClass().getClassLoader()).get(0);
+        Assert.assertSame(target, ((Advised) again).getTargetSource().getTarget());
+        Assert.assertEquals("constant", again.transform(" test "));
+    }
+
+    @Test
+    public void testWrapProxyOrdered() {
+        DefaultPointcutAdvisor advisor = new DefaultPointcutAdvisor(new TrimTransformerAdvice());
+        advisor.setOrder(0);
+        Assert.assertTrue(factory.addAspect(advisor));
+        Transformer<Object, String> inner = factory.wrap(new ToStringTransformer(), this.getClass().getClassLoader());
+        SpringAOPWrapperFactorySpi<Transformer<Object, String>> outerFactory =
+                new SpringAOPWrapperFactorySpi<Transformer<Object, String>>();
+        outerFactory.setInterfaces(Transformer.class);
+        Assert.assertTrue(outerFactory.addAspect(new ConstantReturningAdvice(" constant ")));
+        Assert.assertEquals("constant", outerFactory.wrap(inner, this.getClass().getClassLoader()).transform(" test "));
+    }
+
+    @Test
+    public void testAcquire() {
+        Assert.assertTrue(factory.addAspect(new TrimTransformerAdvice()));
+        Transformer<Object, String> transformer = factory.acquire(new ToStringTransformer());
+        Assert.assertEquals("test", transformer.transform(" test "));
+        factory.release(transformer);
+        try {
+            transformer.transform(" test ");
+            Assert.fail("Released proxy must not be called");
+        } catch (IllegalStateException e) {
+            //expected
+        }
+        factory.release(transformer);
+        Transformer<Object, String> reused = factory.acquire(new InvocationCheckingTransformer());
+        Assert.assertNotSame(transformer, reused);
+        reused = factory.acquire(new ToStringTransformer());
+        Assert.assertSame(transformer, reused);
+        Transformer<Object, String> other = factory.acquire(new ToStringTransformer());
+        Assert.assertNotSame(transformer, other);
+        Assert.assertEquals("test2", reused.transform(" test2 "));
+        Assert.assertEquals("test3", other.transform(" test3 "));
+    }
+
+    @Test
+    public void testAcquireNoAdvice() {
+        ToStringTransformer transformer = new ToStringTransformer();
+        Assert.assertSame(transformer, factory.acquire(transformer));
+        factory.release(transformer);
+        Transformer<Object, String> wrapped = factory.wrap(new ToStringTransformer(),
+                this.getClass().getClassLoader());
+        factory.release(wrapped);
+        Assert.assertEquals(" test ", wrapped.transform(" test "));
+    }
+
+    @Test
+    public void testAcquireWithoutPool() {
+        factory.setPoolSize(0);
+        try {
+            Assert.assertTrue(factory.addAspect(new TrimTransformerAdvice()));
+            Transformer<Object, String> transformer = factory.freeze().acquire(new ToStringTransformer());
+            Assert.assertEquals("test", transformer.transform(" test "));
+            factory.release(transformer);
+            Assert.assertNotSame(transformer, factory.acquire(new ToStringTransformer()));
+        } finally {
+            factory.setPoolSize(ProxyConfiguration.DEFAULT_POOL_SIZE);
+        }
+    }
+
+    @Test
+    public void testInstrumentation() {
+        Assert.assertTrue(factory.getStatistics().getMethods().isEmpty());
+        factory.setMetrics(new InvocationMetrics());
+        Assert.assertTrue(factory.addAspect(new TrimTransformerAdvice()));
+        Transformer<Object, String> transformer = factory.wrap(new ToStringTransformer(), this.getClass().getClassLoader());
+        Assert.assertEquals("test", transformer.transform(" test "));
+        Assert.assertEquals("test", transformer.transform(" test "));
+        WrapperStatistics statistics = factory.freeze().getStatistics();
+        LatencySnapshot method = statistics.getMethods().get("im.tym.wraop.data.Transformer.transform(Object)");
+        Assert.assertEquals(2, method.getCount());
+        Assert.assertTrue(method.getMaxNanos() > 0);
+        Assert.assertTrue(method.getP99Nanos() <= method.getMaxNanos());
+        LatencySnapshot advisor = statistics.getAdvisors().get(TrimTransformerAdvice.class.getName());
+        Assert.assertEquals(2, advisor.getCount());
+        Assert.assertTrue(advisor.getTotalNanos() <= method.getTotalNanos());
+    }
+
+    @Test
+    public void testAdvisorOwnTime() {
+        factory.setMetrics(new InvocationMetrics());
+        Assert.assertTrue(factory.addAspect(new TrimTransformerAdvice()));
+        Assert.assertTrue(factory.addAspect(new MethodInterceptor() {
+            @Override
+            public Object invoke(MethodInvocation invocation) throws Throwable {
+                Thread.sleep(20);
+                return invocation.proceed();
+            }
+
+            @Override
+            public String toString() {
+                return "sleeping";
+            }
+        }));
+        Transformer<Object, String> transformer = factory.wrap(new ToStringTransformer(), this.getClass().getClassLoader());
+        Assert.assertEquals("test", transformer.transform(" test "));
+        WrapperStatistics statistics = factory.freeze().getStatistics();
+        long method = statistics.getMethods().get("im.tym.wraop.data.Transformer.transform(Object)").getTotalNanos();
+        long trim = statistics.getAdvisors().get(TrimTransformerAdvice.class.getName()).getTotalNanos();
+        long sleeping = statistics.getAdvisors().get("sleeping").getTotalNanos();
+        Assert.assertTrue(sleeping >= 20000000L);
+        Assert.assertTrue(trim < 20000000L);
+        Assert.assertTrue(trim + sleeping <= method);
+    }
+
     @Test
     public void testAdvisor() {
         Assert.assertTrue(factory.addAspect(new RegexpMethodPointcutAdvisor(".*", new TrimTransformerAdvice())));
@@ -0,0 +1,168 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.both;
+
+import im.tym.wraop.ProxyEngine;
+import im.tym.wraop.WrapperFactory;
+import im.tym.wraop.WrapperFactoryBuilder;
+import im.tym.wraop.data.Transformer;
+import im.tym.wraop.data.TrimTransformerAdvice;
+import im.tym.wraop.impl.FlightRecorderSupport;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingFile;
+import junit.framework.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Wraps and invokes proxies from many virtual threads while aspects are changed and checks with Flight Recorder
+ * that no virtual thread was pinned. Virtual threads are created with reflection, so this is skipped on JVMs
+ * without them.
+ * @author Vitalii Tymchyshyn
+ */
+@RunWith(Parameterized.class)
+public class VirtualThreadsTest {
+    private static final int THREADS = 100000;
+
+    private final ProxyEngine proxyEngine;
+
+    public VirtualThreadsTest(ProxyEngine proxyEngine) {
+        this.proxyEngine = proxyEngine;
+    }
+
+    @Parameterized.Parameters
+    public static List<Object[]> data() {
+        List<Object[]> rc = new ArrayList<Object[]>();
+        for (ProxyEngine proxyEngine : ProxyEngine.values()) {
+            rc.add(new Object[]{proxyEngine});
+        }
+        return rc;
+    }
+
+    @Test
+    public void testNoPinning() throws Exception {
+        Assume.assumeTrue(FlightRecorderSupport.AVAILABLE);
+        ExecutorService executor = createVirtualThreadExecutor();
+        Assume.assumeNotNull(executor);
+        WrapperFactoryBuilder builder = new WrapperFactoryBuilder();
+        builder.setProxyEngine(proxyEngine);
+        final WrapperFactory<Transformer<Object, String>> factory = builder.<Transformer<Object, String>>build()
+                .withInterface(Transformer.class).withAspect(new TrimTransformerAdvice());
+        final Transformer<Object, String> lazy = factory.wrapLazily(new Supplier<Transformer<Object, String>>() {
+            @Override
+            public Transformer<Object, String> get() {
+                sleep(50);
+                return new SleepingTransformer();
+            }
+        });
+        File file = File.createTempFile("wraop", ".jfr");
+        try {
+            Recording recording = new Recording();
+            try {
+                recording.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ZERO).withStackTrace();
+                recording.start();
+                List<Future<String>> results = new ArrayList<Future<String>>(THREADS);
+                for (int i = 0; i < THREADS; i++) {
+                    final int task = i;
+                    results.add(executor.submit(() -> {
+                        if (task % 1000 == 0) {
+                            TrimTransformerAdvice advice = new TrimTransformerAdvice();
+                            factory.addAspect(advice);
+                            factory.removeAspect(advice);
+                        }
+                        Transformer<Object, String> transformer;
+                        switch (task % 3) {
+                            case 0:
+                                transformer = factory.wrap(new SleepingTransformer());
+                                break;
+                            case 1:
+                                transformer = factory.wrapAllInterfaces(new SleepingTransformer());
+                                break;
+                            default:
+                                transformer = lazy;
+                        }
+                        return transformer.transform(" " + task + " ");
+                    }));
+                }
+                for (int i = 0; i < THREADS; i++) {
+                    Assert.assertEquals(String.valueOf(i), results.get(i).get());
+                }
+                executor.shutdown();
+                Assert.assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+                recording.stop();
+                recording.dump(file.toPath());
+            } finally {
+                recording.close();
+            }
+            for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+                if (event.getEventType().getName().equals("jdk.VirtualThreadPinned")) {
+                    Assert.fail("Virtual thread was pinned at " + describe(event));
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static ExecutorService createVirtualThreadExecutor() throws Exception {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static String describe(RecordedEvent event) {
+        StringBuilder rc = new StringBuilder();
+        if (event.getStackTrace() != null) {
+            for (RecordedFrame frame : event.getStackTrace().getFrames()) {
+                rc.append("\n\t").append(frame.getMethod().getType().getName()).append('.')
+                        .append(frame.getMethod().getName());
+            }
+        }
+        return rc.toString();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static class SleepingTransformer implements Transformer<Object, String> {
+        @Override
+        public String transform(Object input) {
+            sleep(1);
+            return String.valueOf(input);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.full;
+
+import im.tym.wraop.data.ConstantReturningAspect;
+import im.tym.wraop.data.InvocationCheckingTransformer;
+import im.tym.wraop.data.ToStringTransformer;
+import im.tym.wraop.data.Transformer;
+import im.tym.wraop.impl.AdvisorMatchTable;
+import im.tym.wraop.impl.AdvisorMatchTableGenerator;
+import im.tym.wraop.impl.AspectJWrapperFactorySpi;
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author Vitalii Tymchyshyn
+ */
+
+public class AdvisorMatchTableTest {
+    private static final String ADVISOR_ID = "im.tym.wraop.data.ConstantReturningAspect.returnConstant() "
+            + "execution(* im.tym.wraop.data.Transformer.transform(..))";
+
+    @Test
+    public void testGenerate() {
+        AdvisorMatchTable table = new AdvisorMatchTableGenerator().addAspectClass(ConstantReturningAspect.class)
+                .addTargetClass(ToStringTransformer.class).addTargetClass(String.class).generate();
+        Map<String, Set<String>> classes = table.get(ADVISOR_ID);
+        Assert.assertEquals(Collections.singleton("transform(java.lang.Object)"),
+                classes.get(ToStringTransformer.class.getName()));
+        Assert.assertTrue(classes.get(String.class.getName()).isEmpty());
+    }
+
+    @Test
+    public void testWriteRead() throws Exception {
+        AdvisorMatchTable table = new AdvisorMatchTableGenerator().addAspectClass(ConstantReturningAspect.class)
+                .addTargetClass(ToStringTransformer.class).generate();
+        table.put("id\twith\\escapes\n", String.class.getName(), Collections.<String>emptySet());
+        StringWriter writer = new StringWriter();
+        table.write(writer);
+        Assert.assertEquals(table, AdvisorMatchTable.read(new ByteArrayInputStream(writer.toString().getBytes("UTF-8"))));
+    }
+
+    @Test
+    public void testTableUsed() {
+        AdvisorMatchTable table = new AdvisorMatchTable();
+        table.put(ADVISOR_ID, ToStringTransformer.class, Collections.<String>emptySet());
+        AspectJWrapperFactorySpi<Transformer<Object, String>> factory =
+                new AspectJWrapperFactorySpi<Transformer<Object, String>>();
+        factory.setMatchTable(table);
+        Assert.assertTrue(factory.addAspect(new ConstantReturningAspect("constant")));
+        ToStringTransformer notMatched = new ToStringTransformer();
+        Assert.assertSame(notMatched, factory.wrap(notMatched, getClass().getClassLoader()));
+        Transformer<Object, String> unknown = factory.wrap(new InvocationCheckingTransformer(), getClass().getClassLoader());
+        Assert.assertEquals("constant", unknown.transform("test"));
+    }
+
+    @Test
+    public void testChangedClassMatchedByPointcut() {
+        AdvisorMatchTable table = new AdvisorMatchTable();
+        table.put(ADVISOR_ID, ToStringTransformer.class.getName(), Collections.<String>emptySet());
+        table.putFingerprint(ToStringTransformer.class.getName(), "stale");
+        table.put(ADVISOR_ID, InvocationCheckingTransformer.class.getName(), Collections.<String>emptySet());
+        AspectJWrapperFactorySpi<Transformer<Object, String>> factory =
+                new AspectJWrapperFactorySpi<Transformer<Object, String>>();
+        factory.setInterfaces(Transformer.class);
+        factory.setMatchTable(table);
+        Assert.assertTrue(factory.addAspect(new ConstantReturningAspect("constant")));
+        Assert.assertEquals("constant",
+                factory.wrap(new ToStringTransformer(), getClass().getClassLoader()).transform("test"));
+        Assert.assertEquals("constant",
+                factory.wrap(new InvocationCheckingTransformer(), getClass().getClassLoader()).transform("test"));
+    }
+
+    @Test
+    public void testFingerprint() {
+        Assert.assertEquals(AdvisorMatchTable.getClassFingerprint(ToStringTransformer.class),
+                AdvisorMatchTable.getClassFingerprint(ToStringTransformer.class));
+        Assert.assertFalse(AdvisorMatchTable.getClassFingerprint(ToStringTransformer.class).equals(
+                AdvisorMatchTable.getClassFingerprint(InvocationCheckingTransformer.class)));
+        AdvisorMatchTable table = new AdvisorMatchTableGenerator().addAspectClass(ConstantReturningAspect.class)
+                .addTargetClass(ToStringTransformer.class).generate();
+        Assert.assertEquals(AdvisorMatchTable.getClassFingerprint(ToStringTransformer.class),
+                table.getFingerprint(ToStringTransformer.class.getName()));
+    }
+
+    @Test
+    public void testGeneratedTableMatches() {
+        AdvisorMatchTable table = new AdvisorMatchTableGenerator().addAspectClass(ConstantReturningAspect.class)
+                .addTargetClass(ToStringTransformer.class).generate();
+        AspectJWrapperFactorySpi<Transformer<Object, String>> factory =
+                new AspectJWrapperFactorySpi<Transformer<Object, String>>();
+        factory.setInterfaces(Transformer.class);
+        factory.setMatchTable(table);
+        Assert.assertTrue(factory.addAspect(new ConstantReturningAspect("constant")));
+        Assert.assertEquals("constant",
+                factory.wrap(new ToStringTransformer(), getClass().getClassLoader()).transform("test"));
+    }
+}
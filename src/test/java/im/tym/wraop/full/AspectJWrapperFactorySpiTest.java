@@ -16,12 +16,20 @@
 package im.tym.wraop.full;
 
 import im.tym.wraop.data.ConstantReturningAspect;
+import im.tym.wraop.data.InvocationCheckingTransformer;
 import im.tym.wraop.data.ToStringTransformer;
 import im.tym.wraop.data.Transformer;
 import im.tym.wraop.impl.AspectJWrapperFactorySpi;
 import junit.framework.Assert;
+import org.aspectj.lang.annotation.Aspect;
 import org.junit.Before;
 import org.junit.Test;
+import org.springframework.aop.Advisor;
+import org.springframework.aop.Pointcut;
+import org.springframework.aop.PointcutAdvisor;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * @author Vitalii Tymchyshyn
@@ -42,4 +50,100 @@ public class AspectJWrapperFactorySpiTest {
         Assert.assertEquals("constant", transformer.transform(" test "));
 
     }
+
+    @Test
+    public void testNoMatchingAdvice() {
+        AspectJWrapperFactorySpi<List<String>> listFactory = new AspectJWrapperFactorySpi<List<String>>();
+        listFactory.setInterfaces(List.class);
+        Assert.assertTrue(listFactory.addAspect(new ConstantReturningAspect("constant")));
+        List<String> list = new ArrayList<String>();
+        Assert.assertSame(list, listFactory.wrap(list, this.getClass().getClassLoader()));
+    }
+
+    @Test
+    public void testUnadvisedMethod() {
+        Assert.assertTrue(factory.addAspect(new ConstantReturningAspect("constant")));
+        Transformer<Object, String> transformer = factory.wrap(new InvocationCheckingTransformer(), this.getClass().getClassLoader());
+        Assert.assertEquals("constant", transformer.transform(" test "));
+        Assert.assertEquals("direct", transformer.toString());
+    }
+
+    @Test
+    public void testSharedAspectMetadata() {
+        AspectJWrapperFactorySpi<Transformer<Object, String>> otherFactory =
+                new AspectJWrapperFactorySpi<Transformer<Object, String>>();
+        Assert.assertTrue(factory.addAspect(new ConstantReturningAspect("constant")));
+        Assert.assertTrue(otherFactory.addAspect(new ConstantReturningAspect("other")));
+        Assert.assertSame(getPointcut(factory), getPointcut(otherFactory));
+        Assert.assertEquals("constant",
+                factory.wrap(new ToStringTransformer(), this.getClass().getClassLoader()).transform(" test "));
+        Assert.assertEquals("other",
+                otherFactory.wrap(new ToStringTransformer(), this.getClass().getClassLoader()).transform(" test "));
+    }
+
+    @Test
+    public void testRemoveAspect() {
+        ConstantReturningAspect first = new ConstantReturningAspect("first");
+        ConstantReturningAspect second = new ConstantReturningAspect("second");
+        Assert.assertTrue(factory.addAspect(first));
+        Assert.assertTrue(factory.addAspect(second));
+        Transformer<Object, String> transformer = factory.wrap(new ToStringTransformer(), this.getClass().getClassLoader());
+        Assert.assertEquals("first", transformer.transform(" test "));
+        Assert.assertTrue(factory.removeAspect(first));
+        Assert.assertFalse(factory.removeAspect(first));
+        Assert.assertEquals("second",
+                factory.wrap(new ToStringTransformer(), this.getClass().getClassLoader()).transform(" test "));
+        Assert.assertEquals("second", transformer.transform(" test "));
+        Assert.assertTrue(factory.removeAspect(second));
+        Assert.assertTrue(factory.getConfiguration().getAdvisorsFor(ToStringTransformer.class).isEmpty());
+        ToStringTransformer target = new ToStringTransformer();
+        Assert.assertSame(target, factory.wrap(target, this.getClass().getClassLoader()));
+        Assert.assertEquals(" test ", transformer.transform(" test "));
+    }
+
+    @Test
+    public void testReplaceAspect() {
+        ConstantReturningAspect first = new ConstantReturningAspect("first");
+        ConstantReturningAspect second = new ConstantReturningAspect("second");
+        Assert.assertTrue(factory.addAspect(first));
+        Assert.assertTrue(factory.replaceAspect(first, second));
+        Assert.assertFalse(factory.replaceAspect(first, new ConstantReturningAspect("third")));
+        Assert.assertFalse(factory.replaceAspect(second, this));
+        Assert.assertEquals("second",
+                factory.wrap(new ToStringTransformer(), this.getClass().getClassLoader()).transform(" test "));
+    }
+
+    @Test
+    public void testReplaceWithAspectWithoutAdvice() {
+        ConstantReturningAspect first = new ConstantReturningAspect("first");
+        Assert.assertTrue(factory.addAspect(first));
+        Transformer<Object, String> transformer = factory.wrap(new ToStringTransformer(), this.getClass().getClassLoader());
+        Assert.assertFalse(factory.replaceAspect(first, new AdviceFreeAspect()));
+        Assert.assertEquals("first", transformer.transform(" test "));
+        Assert.assertTrue(factory.removeAspect(first));
+    }
+
+    @Aspect
+    public static class AdviceFreeAspect {
+    }
+
+    private static Pointcut getPointcut(AspectJWrapperFactorySpi<?> factory) {
+        for (Advisor advisor : factory.getConfiguration().getAdvisorsFor(ToStringTransformer.class)) {
+            if (advisor instanceof PointcutAdvisor) {
+                return ((PointcutAdvisor) advisor).getPointcut();
+            }
+        }
+        throw new AssertionError("No pointcut advisor");
+    }
+
+    @Test
+    public void testClassAdvisorsCache() {
+        Assert.assertTrue(factory.addAspect(new ConstantReturningAspect("constant")));
+        List<Advisor> advisors = factory.getConfiguration().getAdvisorsFor(ToStringTransformer.class);
+        Assert.assertSame(advisors, factory.getConfiguration().getAdvisorsFor(ToStringTransformer.class));
+        Assert.assertTrue(factory.addAspect(new ConstantReturningAspect("constant2")));
+        List<Advisor> newAdvisors = factory.getConfiguration().getAdvisorsFor(ToStringTransformer.class);
+        Assert.assertNotSame(advisors, newAdvisors);
+        Assert.assertTrue(newAdvisors.size() > advisors.size());
+    }
 }
@@ -0,0 +1,164 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.full;
+
+import im.tym.wraop.ProxyEngine;
+import im.tym.wraop.WrapperFactory;
+import im.tym.wraop.WrapperFactoryBuilder;
+import im.tym.wraop.data.ConstantReturningAspect;
+import im.tym.wraop.data.ToStringTransformer;
+import im.tym.wraop.data.Transformer;
+import im.tym.wraop.data.TrimTransformerAdvice;
+import junit.framework.Assert;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.springframework.util.FileCopyUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Simulates application redeploys: target class is loaded by a new class loader each time, wrapped and called
+ * in all the ways, then the class loader is dropped and must be collected.
+ * @author Vitalii Tymchyshyn
+ */
+@RunWith(Parameterized.class)
+public class ClassLoaderReleaseTest {
+    private static final int REDEPLOYS = 20;
+
+    private final ProxyEngine proxyEngine;
+
+    public ClassLoaderReleaseTest(ProxyEngine proxyEngine) {
+        this.proxyEngine = proxyEngine;
+    }
+
+    @Parameterized.Parameters
+    public static List<Object[]> data() {
+        List<Object[]> rc = new ArrayList<Object[]>();
+        for (ProxyEngine proxyEngine : ProxyEngine.values()) {
+            rc.add(new Object[]{proxyEngine});
+        }
+        return rc;
+    }
+
+    @Aspect
+    public static class ArgumentCheckingAspect {
+        @Before("execution(* im.tym.wraop.data.Transformer.transform(..)) && args(input)")
+        public void checkArgument(Object input) {
+            if (input == null) {
+                throw new IllegalArgumentException("Null input");
+            }
+        }
+    }
+
+    @Test
+    public void testRedeploy() throws Exception {
+        WrapperFactoryBuilder builder = new WrapperFactoryBuilder();
+        builder.setProxyEngine(proxyEngine);
+        builder.setInstrumented(true);
+        WrapperFactory<Transformer<Object, String>> factory = builder.build();
+        factory.withInterface(Transformer.class).withAspects(new TrimTransformerAdvice(),
+                new ConstantReturningAspect(" constant "), new ArgumentCheckingAspect());
+        List<WeakReference<ClassLoader>> classLoaders = new ArrayList<WeakReference<ClassLoader>>();
+        for (int i = 0; i < REDEPLOYS; i++) {
+            ClassLoader classLoader = new RedeployClassLoader();
+            classLoaders.add(new WeakReference<ClassLoader>(classLoader));
+            deploy(factory, classLoader);
+            factory.releaseClassLoader(classLoader);
+        }
+        for (int i = 0; i < 50 && !allCollected(classLoaders); i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertTrue("Class loaders are not collected", allCollected(classLoaders));
+        Assert.assertEquals(REDEPLOYS * 5L, factory.getStatistics().getMethods()
+                .get("im.tym.wraop.data.Transformer.transform(Object)").getCount());
+    }
+
+    private static void deploy(WrapperFactory<Transformer<Object, String>> factory, ClassLoader classLoader)
+            throws Exception {
+        final Class<?> targetClass = classLoader.loadClass(ToStringTransformer.class.getName());
+        Assert.assertNotSame(ToStringTransformer.class, targetClass);
+        Transformer<Object, String> target = newTarget(targetClass);
+        Assert.assertEquals("constant", factory.wrap(target).transform("test"));
+        Assert.assertEquals("constant", factory.wrap(target, classLoader).transform("test"));
+        Assert.assertEquals("constant", factory.wrapAll(Arrays.asList(target, newTarget(targetClass)))
+                .get(1).transform("test"));
+        Transformer<Object, String> acquired = factory.acquire(target);
+        Assert.assertEquals("constant", acquired.transform("test"));
+        factory.release(acquired);
+        Assert.assertEquals("constant", factory.wrapLazily(new Supplier<Transformer<Object, String>>() {
+            @Override
+            public Transformer<Object, String> get() {
+                return newTarget(targetClass);
+            }
+        }, classLoader).transform("test"));
+    }
+
+    private static Transformer<Object, String> newTarget(Class<?> targetClass) {
+        try {
+            return (Transformer<Object, String>) targetClass.newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean allCollected(List<WeakReference<ClassLoader>> classLoaders) {
+        for (WeakReference<ClassLoader> classLoader : classLoaders) {
+            if (classLoader.get() != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Loads target class itself, everything else from the parent
+     */
+    private static class RedeployClassLoader extends ClassLoader {
+        RedeployClassLoader() {
+            super(ClassLoaderReleaseTest.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.equals(ToStringTransformer.class.getName())) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> rc = findLoadedClass(name);
+                if (rc == null) {
+                    InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class");
+                    try {
+                        byte[] bytes = FileCopyUtils.copyToByteArray(in);
+                        rc = defineClass(name, bytes, 0, bytes.length);
+                    } catch (IOException e) {
+                        throw new ClassNotFoundException(name, e);
+                    }
+                }
+                return rc;
+            }
+        }
+    }
+}
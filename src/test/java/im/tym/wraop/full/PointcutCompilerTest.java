@@ -0,0 +1,127 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.full;
+
+import im.tym.wraop.data.ConstantReturningAspect;
+import im.tym.wraop.data.ToStringTransformer;
+import im.tym.wraop.data.Transformer;
+import im.tym.wraop.impl.CompiledPointcut;
+import im.tym.wraop.impl.PointcutCompiler;
+import im.tym.wraop.impl.SharedAspectJAdvisorFactory;
+import junit.framework.Assert;
+import org.junit.Test;
+import org.springframework.aop.Advisor;
+import org.springframework.aop.PointcutAdvisor;
+import org.springframework.aop.aspectj.AspectJExpressionPointcut;
+
+import java.lang.reflect.Method;
+
+/**
+ * @author Vitalii Tymchyshyn
+ */
+public class PointcutCompilerTest {
+    private static final String[] EXPRESSIONS = {
+            "execution(* im.tym.wraop.data.Transformer.transform(..))",
+            "execution(public * transform(Object))",
+            "execution(String im.tym.wraop.data.ToStringTransformer.*(*))",
+            "execution(* im.tym.wraop.data.Transformer+.*(..))",
+            "execution(* im.tym..*.*(..)) && !execution(* toString())",
+            "execution(!static * *(java.lang.Object, ..))",
+            "execution(* *(String))",
+            "within(im.tym.wraop.data.*)",
+            "within(java..*) or execution(int hashCode())",
+            "within(im.tym.wraop.full.PointcutCompilerTest.*)",
+            "target(im.tym.wraop.data.Transformer)",
+            "@annotation(Deprecated)",
+            "@within(Deprecated) && execution(* transform(..))",
+            "@target(java.lang.Deprecated)",
+    };
+
+    @Test
+    public void testSameAsAspectJ() throws Exception {
+        for (Class<?> targetClass : new Class<?>[]{ToStringTransformer.class, DeprecatedTransformer.class}) {
+            Method[] methods = {
+                    Transformer.class.getMethod("transform", Object.class),
+                    targetClass.getMethod("transform", Object.class),
+                    Object.class.getMethod("toString"),
+                    Object.class.getMethod("hashCode"),
+                    Object.class.getMethod("equals", Object.class),
+            };
+            for (String expression : EXPRESSIONS) {
+                CompiledPointcut compiled = PointcutCompiler.compile(expression, getClass());
+                Assert.assertNotNull(expression, compiled);
+                AspectJExpressionPointcut aspectJ = new AspectJExpressionPointcut();
+                aspectJ.setExpression(expression);
+                for (Method method : methods) {
+                    String message = expression + " on " + targetClass.getSimpleName() + "." + method.getName();
+                    if (aspectJ.isRuntime()) {
+                        // AspectJ static match for dynamic pointcut only means "maybe"
+                        Assert.assertTrue(message, aspectJ.matches(method, targetClass)
+                                || !compiled.matches(method, targetClass));
+                    } else {
+                        Assert.assertEquals(message, aspectJ.matches(method, targetClass),
+                                compiled.matches(method, targetClass));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testArgsResidue() throws Exception {
+        Method transform = Transformer.class.getMethod("transform", Object.class);
+        CompiledPointcut pointcut = PointcutCompiler.compile("args(String)", getClass());
+        Assert.assertTrue(pointcut.isRuntime());
+        Assert.assertTrue(pointcut.matches(transform, ToStringTransformer.class));
+        Assert.assertTrue(pointcut.matches(transform, ToStringTransformer.class, new Object[]{"test"}));
+        Assert.assertFalse(pointcut.matches(transform, ToStringTransformer.class, new Object[]{1}));
+        Assert.assertFalse(pointcut.matches(Object.class.getMethod("toString"), ToStringTransformer.class));
+
+        CompiledPointcut staticPointcut = PointcutCompiler.compile("args(.., Object) && within(java.lang.Object)",
+                getClass());
+        Assert.assertFalse(staticPointcut.matches(transform, ToStringTransformer.class));
+        Assert.assertTrue(staticPointcut.matches(Object.class.getMethod("equals", Object.class), Object.class));
+    }
+
+    @Test
+    public void testUnsupported() {
+        Assert.assertNull(PointcutCompiler.compile("im.tym.wraop.SomeAspect.namedPointcut()", getClass()));
+        Assert.assertNull(PointcutCompiler.compile("execution(* *(..)) throws Exception", getClass()));
+        Assert.assertNull(PointcutCompiler.compile("execution(* *(..) throws Exception)", getClass()));
+        Assert.assertNull(PointcutCompiler.compile("execution(* *(String...))", getClass()));
+        Assert.assertNull(PointcutCompiler.compile("args(value)", getClass()));
+        Assert.assertNull(PointcutCompiler.compile("within(*Transformer)", getClass()));
+        Assert.assertNull(PointcutCompiler.compile("cflow(execution(* *(..)))", getClass()));
+        Assert.assertNull(PointcutCompiler.compile("bean(transformer)", getClass()));
+    }
+
+    @Test
+    public void testSharedFactoryUsesCompiled() {
+        SharedAspectJAdvisorFactory factory = SharedAspectJAdvisorFactory.getInstance();
+        for (Advisor advisor : factory.getAdvisors(factory.getInstanceFactory(new ConstantReturningAspect("c")))) {
+            Assert.assertTrue(((PointcutAdvisor) advisor).getPointcut() instanceof CompiledPointcut);
+        }
+    }
+
+    @Deprecated
+    public static class DeprecatedTransformer implements Transformer<Object, String> {
+        @Deprecated
+        @Override
+        public String transform(Object from) {
+            return String.valueOf(from);
+        }
+    }
+}
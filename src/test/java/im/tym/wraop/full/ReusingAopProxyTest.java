@@ -0,0 +1,79 @@
+/*
+ *  Copyright 2014 Vitalii Tymchyshyn
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package im.tym.wraop.full;
+
+import im.tym.wraop.ProxyEngine;
+import im.tym.wraop.data.ToStringTransformer;
+import im.tym.wraop.data.Transformer;
+import im.tym.wraop.impl.AspectJWrapperFactorySpi;
+import junit.framework.Assert;
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Vitalii Tymchyshyn
+ */
+public class ReusingAopProxyTest {
+    @Test
+    public void testProceedTwiceAndNestedCalls() {
+        RecordingAspect recordingAspect = new RecordingAspect();
+        AspectJWrapperFactorySpi<Transformer<Object, String>> factory =
+                new AspectJWrapperFactorySpi<Transformer<Object, String>>();
+        factory.setInterfaces(Transformer.class);
+        factory.setProxyEngine(ProxyEngine.REUSED_INVOCATION);
+        factory.addAspect(new ProceedTwiceAspect());
+        factory.addAspect(recordingAspect);
+        final Transformer<Object, String> inner = factory.wrap(new ToStringTransformer(), getClass().getClassLoader());
+        Transformer<Object, String> outer = factory.wrap(new Transformer<Object, String>() {
+            @Override
+            public String transform(Object from) {
+                return "[" + inner.transform(from) + "]";
+            }
+        }, getClass().getClassLoader());
+        for (int i = 0; i < 2; i++) {
+            Assert.assertEquals("transform:a|x", inner.transform("a"));
+            Assert.assertEquals("transform:[transform:a|x]|[transform:x|x]", outer.transform("a"));
+        }
+        Assert.assertEquals("[a, x, a, a, x, x, x, x, a, x, a, a, x, x, x, x]", recordingAspect.arguments.toString());
+    }
+
+    @Aspect
+    public static class ProceedTwiceAspect {
+        @Around("execution(* im.tym.wraop.data.Transformer.transform(..))")
+        public Object proceedTwice(ProceedingJoinPoint joinPoint) throws Throwable {
+            Object first = joinPoint.proceed();
+            Object second = joinPoint.proceed(new Object[]{"x"});
+            return joinPoint.getSignature().getName() + ":" + first + "|" + second;
+        }
+    }
+
+    @Aspect
+    public static class RecordingAspect {
+        private final List<Object> arguments = new ArrayList<Object>();
+
+        @Before("execution(* im.tym.wraop.data.Transformer.transform(..))")
+        public void record(JoinPoint joinPoint) {
+            arguments.add(joinPoint.getArgs()[0]);
+        }
+    }
+}
@@ -29,7 +29,10 @@ import java.awt.event.AWTEventListenerProxy;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.*;
+import java.util.function.Supplier;
 
+import static org.easymock.EasyMock.aryEq;
+import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
 import static org.unitils.easymock.EasyMockUnitils.replay;
 
@@ -40,6 +43,8 @@ import static org.unitils.easymock.EasyMockUnitils.replay;
 public class SpiBasedWrapperFactoryTest {
     @Mock
     private WrapperFactorySpi<Object> factorySpi;
+    @Mock
+    private WrapperFactorySpi<Object> frozenSpi;
 
     private ClassLoader classLoader = new URLClassLoader(new URL[0]);
 
@@ -69,6 +74,42 @@ public class SpiBasedWrapperFactoryTest {
 
     }
 
+    @Test
+    public void testWrapAll() throws Exception {
+        Object input3 = "string";
+        Object returned2 = new Object();
+        expect(factorySpi.wrapAll(Arrays.asList(input1, input2), Object.class.getClassLoader()))
+                .andReturn(Arrays.asList(returned, returned2));
+        expect(factorySpi.wrapAll(Arrays.asList(input3), String.class.getClassLoader()))
+                .andReturn(Arrays.asList(input3));
+        replay();
+        Assert.assertEquals(Arrays.asList(returned, input3, returned2),
+                factory.wrapAll(Arrays.asList(input1, input3, input2)));
+    }
+
+    @Test
+    public void testWrapAll_array() throws Exception {
+        expect(factorySpi.wrapAll(Arrays.asList(input1, input2), Object.class.getClassLoader()))
+                .andReturn(Arrays.asList(returned, input2));
+        replay();
+        Object[] result = factory.wrapAll(new Object[]{input1, input2});
+        Assert.assertEquals(Object[].class, result.getClass());
+        Assert.assertTrue(Arrays.equals(new Object[]{returned, input2}, result));
+    }
+
+    @Test
+    public void testWrapLazily() throws Exception {
+        Supplier<Object> supplier = new Supplier<Object>() {
+            @Override
+            public Object get() {
+                return input1;
+            }
+        };
+        expect(factorySpi.wrapLazily(supplier, classLoader)).andReturn(returned);
+        replay();
+        Assert.assertSame(returned, factory.wrapLazily(supplier, classLoader));
+    }
+
     @Test
     public void testAddAspect() throws Exception {
         expect(factorySpi.addAspect(input1)).andReturn(true);
@@ -133,8 +174,8 @@ public class SpiBasedWrapperFactoryTest {
     @Test
     public void testWrapAllInterfaces() throws Exception {
         Object input = new RandomAccess() {};
-        factorySpi.setInterfaces(RandomAccess.class);
-        expect(factorySpi.wrap(input, input.getClass().getClassLoader())).andReturn(returned);
+        expect(factorySpi.wrap(eq(input), aryEq(new Class<?>[]{RandomAccess.class}),
+                eq(input.getClass().getClassLoader()))).andReturn(returned);
         replay();
         Assert.assertSame(returned, factory.wrapAllInterfaces(input));
     }
@@ -142,8 +183,8 @@ public class SpiBasedWrapperFactoryTest {
     @Test
     public void testWrapAllInterfaces_classLoader() throws Exception {
         Object input = new RandomAccess() {};
-        factorySpi.setInterfaces(RandomAccess.class);
-        expect(factorySpi.wrap(input, classLoader)).andReturn(returned);
+        expect(factorySpi.wrap(eq(input), aryEq(new Class<?>[]{RandomAccess.class}), eq(classLoader)))
+                .andReturn(returned);
         replay();
         Assert.assertSame(returned, factory.wrapAllInterfaces(input, classLoader));
     }
@@ -193,6 +234,13 @@ public class SpiBasedWrapperFactoryTest {
         Assert.assertSame(factory, factory.withInterfaces(Arrays.asList(RandomAccess.class, Set.class)));
     }
 
+    @Test
+    public void testFreeze() throws Exception {
+        expect(factorySpi.freeze()).andReturn(frozenSpi);
+        replay();
+        Assert.assertSame(frozenSpi, ((SpiBasedWrapperFactory<Object>) factory.freeze()).getSpi());
+    }
+
     @Test
     public void testGetSpi() throws Exception {
         Assert.assertSame(factorySpi, factory.getSpi());
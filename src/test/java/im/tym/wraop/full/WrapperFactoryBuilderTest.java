@@ -15,12 +15,25 @@
  */
 package im.tym.wraop.full;
 
+import im.tym.wraop.ProxyEngine;
+import im.tym.wraop.WrapperFactory;
 import im.tym.wraop.WrapperFactoryBuilder;
+import im.tym.wraop.WrapperStatistics;
+import im.tym.wraop.WrapperStatisticsMXBean;
+import im.tym.wraop.data.ConstantReturningAspect;
+import im.tym.wraop.data.ToStringTransformer;
+import im.tym.wraop.data.Transformer;
 import im.tym.wraop.impl.AspectJWrapperFactorySpi;
+import im.tym.wraop.impl.PrecompiledAopProxyFactory;
 import im.tym.wraop.impl.SpiBasedWrapperFactory;
 import org.junit.Test;
 import org.springframework.util.Assert;
 
+import javax.management.JMX;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
 /**
  * @author Vitalii Tymchyshyn
  */
@@ -32,6 +45,34 @@ public class WrapperFactoryBuilderTest {
         Assert.isInstanceOf(AspectJWrapperFactorySpi.class, factory.getSpi());
     }
 
+    @Test
+    public void testBuildPrecompiled() {
+        WrapperFactoryBuilder builder = new WrapperFactoryBuilder();
+        builder.setProxyEngine(ProxyEngine.PRECOMPILED);
+        SpiBasedWrapperFactory<Object> factory = (SpiBasedWrapperFactory<Object>) builder.build();
+        Assert.isInstanceOf(PrecompiledAopProxyFactory.class,
+                ((AspectJWrapperFactorySpi<Object>) factory.getSpi()).getConfiguration().getAopProxyFactory());
+    }
+
+    @Test
+    public void testBuildInstrumented() throws Exception {
+        WrapperFactoryBuilder builder = new WrapperFactoryBuilder();
+        builder.setInstrumented(true);
+        builder.setJmxName("instrumented test");
+        WrapperFactory<Transformer<Object, String>> factory = builder.build();
+        Transformer<Object, String> transformer = factory.withInterface(Transformer.class)
+                .withAspect(new ConstantReturningAspect("constant")).wrap(new ToStringTransformer());
+        Assert.isTrue("constant".equals(transformer.transform("test")));
+        WrapperStatistics statistics = factory.getStatistics();
+        Assert.isTrue(statistics.getMethods().get("im.tym.wraop.data.Transformer.transform(Object)").getCount() == 1);
+        Assert.isTrue(statistics.getAdvisors().size() == 1);
+        Assert.isTrue(statistics.getAdvisors().keySet().iterator().next().contains("returnConstant"));
+        Map<?, ?> methods = (Map<?, ?>) JMX.newMXBeanProxy(ManagementFactory.getPlatformMBeanServer(),
+                new ObjectName("im.tym.wraop:type=WrapperFactory,name=\"instrumented test\""),
+                WrapperStatisticsMXBean.class).getMethods();
+        Assert.isTrue(methods.size() == 1);
+    }
+
     @Test
     public void testDetection() {
         Assert.isTrue(WrapperFactoryBuilder.ASPECTJ_AVAILABLE);